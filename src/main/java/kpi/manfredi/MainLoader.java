@@ -1,31 +1,57 @@
 package kpi.manfredi;
 
 import javafx.application.Application;
+import kpi.manfredi.duplicates.DuplicateFinder;
 import kpi.manfredi.gui.JavaFxMain;
+import kpi.manfredi.monitoring.BatchTagger;
+import kpi.manfredi.monitoring.ControlServer;
+import kpi.manfredi.monitoring.EventWriter;
 import kpi.manfredi.monitoring.MonitoringService;
+import kpi.manfredi.renaming.RenameTransaction;
 import kpi.manfredi.scanning.TagsScanner;
 import kpi.manfredi.tags.TagsCustodian;
 import kpi.manfredi.monitoring.FilenameHandler;
 import kpi.manfredi.tags.map.TagsMap;
-import kpi.manfredi.utils.FileManipulation;
+import kpi.manfredi.utils.LatencyHistogram;
+import kpi.manfredi.utils.ResourceCache;
 import kpi.manfredi.utils.WrongArgumentsException;
 
 import javax.xml.bind.JAXBException;
 import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static java.lang.Integer.MAX_VALUE;
 
 public class MainLoader {
 
     public static void main(String[] args) {
         if (args.length == 0) {
+            recoverInterruptedRenaming(false);
             Application.launch(JavaFxMain.class, args);
         } else if (isHelp(args)) {
             showHelp();
+        } else if (args.length == 1 && args[0].equals("-u")) {
+            recoverInterruptedRenaming(true);
         } else if (args[0].equals("-s")) {
             runTagsScanner(args);
+        } else if (isDuplicateFinder(args)) {
+            runDuplicateFinder(args);
+        } else if (isBatchTagger(args)) {
+            recoverInterruptedRenaming(false);
+            runBatchTagger(args);
+        } else if (isControlClient(args)) {
+            runControlClient(args);
         } else if (isMonitoringService(args)) {
+            recoverInterruptedRenaming(false);
             runMonitoringService(args);
         } else {
             showError();
@@ -47,16 +73,15 @@ public class MainLoader {
      * This method is used to show help information about application API
      */
     private static void showHelp() {
-        File file;
+        InputStream input;
         try {
-            file = FileManipulation.getResourceFile("/help.txt");
+            input = ResourceCache.getStream("/help.txt");
         } catch (FileNotFoundException e) {
             System.err.println("Help file is not found!");
             return;
         }
 
-        try (FileReader fr = new FileReader(file)) {
-            BufferedReader br = new BufferedReader(fr);
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
             String line;
             while ((line = br.readLine()) != null) {
                 System.out.println(line);
@@ -66,6 +91,22 @@ public class MainLoader {
         }
     }
 
+    /**
+     * This method is used to finish or undo batch renaming interrupted by a crash
+     *
+     * @param undo {@code true} to return files to their previous names; {@code false} to finish renaming
+     */
+    private static void recoverInterruptedRenaming(boolean undo) {
+        try {
+            int batches = RenameTransaction.recover(undo);
+            if (batches > 0) {
+                System.out.format("%d interrupted renaming batch(es) %s.\n", batches, undo ? "undone" : "finished");
+            }
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
     /**
      * This method is used to invoke tags analyzer
      *
@@ -86,26 +127,195 @@ public class MainLoader {
         }
     }
 
+    /**
+     * This method is used to check if arguments meet the condition of {@code DuplicateFinder}.
+     * <br><br>
+     * Valid input parameters: -d [-r] &lt;dir&gt;
+     *
+     * @param args list of arguments
+     * @return {@code true} when the parameters meet the condition of {@code DuplicateFinder}. Otherwise {@code false}
+     */
+    public static boolean isDuplicateFinder(String[] args) {
+        if (args.length < 2 || !args[0].equals("-d")) {
+            return false;
+        } else if (args[1].equals("-r")) {
+            return args.length == 3 && Files.isDirectory(Paths.get(args[2]));
+        } else {
+            return args.length == 2 && Files.isDirectory(Paths.get(args[1]));
+        }
+    }
+
+    /**
+     * This method is used to find byte-identical files in the directory and print them group by group
+     *
+     * @param args input arguments
+     */
+    private static void runDuplicateFinder(String[] args) {
+        boolean recursive = args.length == 3;
+        Path dir = Paths.get(args[recursive ? 2 : 1]);
+
+        List<File> files;
+        try (Stream<Path> walk = Files.walk(dir, recursive ? MAX_VALUE : 1)) {
+            files = walk.filter(Files::isRegularFile).map(Path::toFile).collect(Collectors.toList());
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
+
+        long start = System.nanoTime();
+        List<List<File>> groups = DuplicateFinder.find(files);
+        int copies = 0;
+        for (List<File> group : groups) {
+            System.out.println(group.get(0));
+            for (File copy : group.subList(1, group.size())) {
+                System.out.println("  = " + copy);
+            }
+            copies += group.size() - 1;
+        }
+        System.out.format("%d redundant copies in %d groups among %d files (%d ms).\n",
+                copies, groups.size(), files.size(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    /**
+     * This method is used to check if arguments meet the condition of {@code BatchTagger}.
+     * <br><br>
+     * Valid input parameters: -b [-r] &lt;dir&gt; &lt;file-with-tags&gt;
+     *
+     * @param args list of arguments
+     * @return {@code true} when the parameters meet the condition of {@code BatchTagger}. Otherwise {@code false}
+     */
+    public static boolean isBatchTagger(String[] args) {
+        if (args.length < 3 || !args[0].equals("-b")) return false;
+
+        List<String> params = getParameters(args, "-r");
+        return params.size() == 2 && Files.isDirectory(Paths.get(params.get(0)))
+                && Files.exists(Paths.get(params.get(1)));
+    }
+
+    /**
+     * This method is used to rename untagged files that already exist in the directory and print a summary
+     *
+     * @param args input arguments
+     */
+    private static void runBatchTagger(String[] args) {
+        boolean recursive = List.of(args).contains("-r");
+        List<String> params = getParameters(args, "-r");
+        Path dir = Paths.get(params.get(0));
+        File tagsFile = new File(params.get(1));
+
+        BatchTagger tagger;
+        try {
+            TagsMap tagsMap = (TagsMap) TagsCustodian.getTags(tagsFile, TagsMap.class);
+            tagger = new BatchTagger(new FilenameHandler(tagsMap), Runtime.getRuntime().availableProcessors());
+            System.out.format("Tagging files of %s ...\n", dir);
+            tagger.tag(dir, recursive);
+        } catch (IOException | IllegalAccessException | JAXBException e) {
+            System.err.println(e.getMessage());
+            System.exit(-1);
+            return;
+        }
+
+        double seconds = tagger.getElapsedNanos() / 1e9;
+        LatencyHistogram latencies = tagger.getLatencies();
+        System.out.format("%d files scanned: %d renamed, %d already tagged, %d failed (%.1f s, %.1f files/s).\n",
+                tagger.getScanned(), tagger.getRenamed(), tagger.getSkipped(), tagger.getFailed(),
+                seconds, seconds > 0 ? tagger.getScanned() / seconds : 0);
+        if (latencies.getCount() > 0) {
+            System.out.format("Renaming latency, ms: mean %.2f, p50 %.2f, p95 %.2f, p99 %.2f, max %.2f.\n",
+                    latencies.getMean() / 1000, latencies.getPercentile(50) / 1000.0,
+                    latencies.getPercentile(95) / 1000.0, latencies.getPercentile(99) / 1000.0,
+                    latencies.getMax() / 1000.0);
+        }
+    }
+
     /**
      * This method is used to check if arguments meet the condition of {@code MonitoringService}.
      * <br><br>
-     * Valid input parameters: -m [-r] &lt;dir&gt; &lt;file-with-tags&gt;
+     * Valid input parameters: -m [-r] [-k] [-l &lt;port&gt;] [-j &lt;events-file&gt;] &lt;dir&gt; &lt;file-with-tags&gt;
      *
      * @param args list of arguments
      * @return {@code true} when the parameters meet the condition of {@code MonitoringService}. Otherwise {@code false}
      */
     public static boolean isMonitoringService(String[] args) {
-        boolean result;
+        if (args.length < 3 || !args[0].equals("-m")) return false;
 
-        if (args.length < 3 || !args[0].equals("-m")) {
-            result = false;
-        } else if (args[1].equals("-r")) {
-            result = args.length == 4 && Files.exists(Paths.get(args[2])) && Files.exists(Paths.get(args[3]));
-        } else {
-            result = args.length == 3 && Files.exists(Paths.get(args[1])) && Files.exists(Paths.get(args[2]));
+        List<String> params = getParameters(args, "-r", "-k");
+        String port = removeOption(params, "-l");
+        String eventsFile = removeOption(params, "-j");
+        return (port == null || isPort(port)) && (eventsFile == null || !eventsFile.isEmpty()) && params.size() == 2
+                && Files.exists(Paths.get(params.get(0))) && Files.exists(Paths.get(params.get(1)));
+    }
+
+    /**
+     * This method is used to remove the option with its value from parameters
+     *
+     * @param params parameters
+     * @param option option that is followed by a value (e.g. {@code -l})
+     * @return value of the option; {@code null} when there is no option; an empty string when there is no value
+     */
+    private static String removeOption(List<String> params, String option) {
+        int index = params.indexOf(option);
+        if (index < 0) return null;
+        params.remove(index);
+        return index < params.size() ? params.remove(index) : "";
+    }
+
+    private static boolean isPort(String port) {
+        return port.matches("\\d{1,5}") && Integer.parseInt(port) <= 65535;
+    }
+
+    /**
+     * This method is used to check if arguments meet the condition of the control client.
+     * <br><br>
+     * Valid input parameters: -c &lt;port&gt; &lt;command&gt; [&lt;path&gt;]
+     *
+     * @param args list of arguments
+     * @return {@code true} when the parameters meet the condition of the control client. Otherwise {@code false}
+     */
+    public static boolean isControlClient(String[] args) {
+        return args.length >= 3 && args[0].equals("-c") && isPort(args[1]);
+    }
+
+    /**
+     * This method is used to send the command to the monitoring service through its control socket and print
+     * the reply
+     *
+     * @param args input arguments
+     */
+    private static void runControlClient(String[] args) {
+        String command = String.join(" ", List.of(args).subList(2, args.length));
+        String reply;
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(args[1]));
+             PrintWriter writer = new PrintWriter(new OutputStreamWriter(
+                     socket.getOutputStream(), StandardCharsets.UTF_8), true);
+             BufferedReader reader = new BufferedReader(new InputStreamReader(
+                     socket.getInputStream(), StandardCharsets.UTF_8))) {
+            writer.println(command);
+            reply = reader.readLine();
+        } catch (IOException e) {
+            System.err.println("Monitoring service is not available: " + e.getMessage());
+            System.exit(-1);
+            return;
         }
 
-        return result;
+        if (reply == null || reply.startsWith("ERROR")) {
+            System.err.println(reply == null ? "No reply." : reply);
+            System.exit(-1);
+        }
+        System.out.println(reply);
+    }
+
+    /**
+     * This method is used to return arguments following the mode argument without the given options
+     *
+     * @param args    input arguments
+     * @param options options to skip (e.g. {@code -r})
+     * @return parameters in the original order
+     */
+    private static List<String> getParameters(String[] args, String... options) {
+        List<String> params = new ArrayList<>(List.of(args).subList(1, args.length));
+        params.removeAll(List.of(options));
+        return params;
     }
 
     /**
@@ -114,25 +324,67 @@ public class MainLoader {
      * @param args input arguments
      */
     private static void runMonitoringService(String[] args) {
-        boolean recursive;
-        Path dir;
-        File tagsFile;
-
-        if (args.length == 3) {
-            recursive = false;
-            dir = Paths.get(args[1]);
-            tagsFile = new File(args[2]);
-        } else {
-            recursive = true;
-            dir = Paths.get(args[2]);
-            tagsFile = new File(args[3]);
-        }
+        List<String> argsList = List.of(args);
+        boolean recursive = argsList.contains("-r");
+        boolean readingKeywords = argsList.contains("-k");
+        List<String> params = getParameters(args, "-r", "-k");
+        String port = removeOption(params, "-l");
+        String eventsFile = removeOption(params, "-j");
+        Path dir = Paths.get(params.get(0));
+        File tagsFile = new File(params.get(1));
+
+        EventWriter eventWriter = null;
         try {
-            TagsMap tagsMap = (TagsMap) TagsCustodian.getTags(tagsFile, TagsMap.class);
-            FilenameHandler filenameHandler = new FilenameHandler(tagsMap);
-            new MonitoringService(dir, recursive, filenameHandler).run();
+            if (eventsFile != null) {
+                eventWriter = EventWriter.open(eventsFile);
+                if (eventsFile.equals("-")) System.setOut(System.err); // the standard output is left to events
+            }
+            MonitoringService service =
+                    new MonitoringService(dir, recursive, loadFilenameHandler(tagsFile, readingKeywords));
+            service.setEventWriter(eventWriter);
+            if (port == null) {
+                service.run();
+                return;
+            }
+
+            try (ControlServer controlServer = new ControlServer(service, Integer.parseInt(port),
+                    () -> loadFilenameHandler(tagsFile, readingKeywords))) {
+                controlServer.start();
+                System.out.format("Control socket is listening on %s:%d\n",
+                        InetAddress.getLoopbackAddress().getHostAddress(), controlServer.getPort());
+                service.run();
+            }
         } catch (IOException | IllegalAccessException | JAXBException e) {
             System.err.println(e.getMessage());
+        } finally {
+            closeEventWriter(eventWriter);
         }
     }
+
+    private static void closeEventWriter(EventWriter eventWriter) {
+        if (eventWriter == null) return;
+        try {
+            eventWriter.close();
+        } catch (IOException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+
+    /**
+     * This method is used to read tags map from the file and create the handler of filenames
+     *
+     * @param tagsFile        file with tags map
+     * @param readingKeywords {@code true} to read keywords of files
+     * @return handler of filenames
+     * @throws FileNotFoundException  schema file not found
+     * @throws JAXBException          validation failed
+     * @throws IllegalAccessException never thrown, tags map has a public default constructor
+     */
+    private static FilenameHandler loadFilenameHandler(File tagsFile, boolean readingKeywords)
+            throws FileNotFoundException, JAXBException, IllegalAccessException {
+        TagsMap tagsMap = (TagsMap) TagsCustodian.getTags(tagsFile, TagsMap.class);
+        FilenameHandler filenameHandler = new FilenameHandler(tagsMap);
+        filenameHandler.setReadingKeywords(readingKeywords);
+        return filenameHandler;
+    }
 }
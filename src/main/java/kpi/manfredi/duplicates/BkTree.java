@@ -0,0 +1,124 @@
+package kpi.manfredi.duplicates;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+
+/**
+ * This class is used to index 64-bit hashes for search by Hamming distance.
+ * <br><br>
+ * Each child of a node keeps hashes whose distance to the node is the same, so by the triangle inequality
+ * a search with radius {@code r} visits only children whose distance {@code d} satisfies
+ * {@code |d - distance(query, node)| <= r}. Items with equal hashes share a node.
+ *
+ * @author manfredi
+ */
+public class BkTree {
+    private Node root;
+    private int size;
+
+    /**
+     * This method is used to add an item to the tree
+     *
+     * @param hash hash of the item
+     * @param item identifier of the item
+     */
+    public void add(long hash, int item) {
+        size++;
+        if (root == null) {
+            root = new Node(hash, item);
+            return;
+        }
+
+        Node node = root;
+        while (true) {
+            int distance = PerceptualHash.distance(hash, node.hash);
+            if (distance == 0) {
+                node.addItem(item);
+                return;
+            }
+            Node child = node.getChild(distance);
+            if (child == null) {
+                node.addChild(distance, new Node(hash, item));
+                return;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * This method is used to find items whose hashes are within the given distance from the hash
+     *
+     * @param hash        hash to search around
+     * @param maxDistance maximal Hamming distance
+     * @param consumer    receiver of found items
+     */
+    public void search(long hash, int maxDistance, ItemConsumer consumer) {
+        if (root == null) return;
+
+        Deque<Node> nodes = new ArrayDeque<>();
+        nodes.push(root);
+        while (!nodes.isEmpty()) {
+            Node node = nodes.pop();
+            int distance = PerceptualHash.distance(hash, node.hash);
+            if (distance <= maxDistance) {
+                for (int i = 0; i < node.itemCount; i++) {
+                    consumer.accept(node.items[i]);
+                }
+            }
+            for (int i = 0; i < node.childCount; i++) {
+                if (Math.abs(node.childDistances[i] - distance) <= maxDistance) {
+                    nodes.push(node.children[i]);
+                }
+            }
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @FunctionalInterface
+    public interface ItemConsumer {
+        void accept(int item);
+    }
+
+    private static class Node {
+        private final long hash;
+        private int[] items;
+        private int itemCount;
+        private byte[] childDistances;
+        private Node[] children;
+        private int childCount;
+
+        private Node(long hash, int item) {
+            this.hash = hash;
+            this.items = new int[]{item};
+            this.itemCount = 1;
+        }
+
+        private void addItem(int item) {
+            if (itemCount == items.length) items = Arrays.copyOf(items, itemCount * 2);
+            items[itemCount++] = item;
+        }
+
+        private Node getChild(int distance) {
+            for (int i = 0; i < childCount; i++) {
+                if (childDistances[i] == distance) return children[i];
+            }
+            return null;
+        }
+
+        private void addChild(int distance, Node child) {
+            if (children == null) {
+                childDistances = new byte[4];
+                children = new Node[4];
+            } else if (childCount == children.length) {
+                childDistances = Arrays.copyOf(childDistances, childCount * 2);
+                children = Arrays.copyOf(children, childCount * 2);
+            }
+            childDistances[childCount] = (byte) distance;
+            children[childCount++] = child;
+        }
+    }
+}
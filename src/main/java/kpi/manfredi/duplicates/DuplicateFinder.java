@@ -0,0 +1,219 @@
+package kpi.manfredi.duplicates;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * This class is used to find byte-identical files saved under different names.
+ * <br><br>
+ * Files are compared in three stages, each of which reads more data only for the files that are still
+ * candidates:
+ * <ol>
+ * <li>files are grouped by size (no content is read);</li>
+ * <li>files of the same size are grouped by the hash of their first and last blocks;</li>
+ * <li>remaining files are grouped by the hash of the whole content, which is read through memory mapping.
+ * Files that are not larger than two blocks are already compared in full by the second stage.</li>
+ * </ol>
+ * Each stage is performed in parallel by at most {@value PARALLELISM} threads.
+ *
+ * @author manfredi
+ */
+public abstract class DuplicateFinder {
+    private static final Logger logger = LoggerFactory.getLogger(DuplicateFinder.class);
+    private static final int PARALLELISM = 8;
+    private static final int BLOCK_SIZE = 4096;
+    private static final long MAPPING_SIZE = 64L << 20;
+    private static final String ALGORITHM = "SHA-256";
+    private static final ThreadLocal<MessageDigest> digests = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    /**
+     * This method is used to find groups of files with the same content
+     *
+     * @param files list of files
+     * @return groups of identical files (at least two files in each group); files of a group keep the order of
+     * the given list, so the first of them can be treated as the original
+     */
+    public static List<List<File>> find(List<File> files) {
+        ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+        try {
+            return pool.submit(() -> findInPool(files)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ArrayList<>();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * This method is used to return files that duplicate other files of the list, i.e. all files of each group
+     * except the first one
+     *
+     * @param files list of files
+     * @return redundant copies in the order of the given list
+     */
+    public static List<File> findRedundantCopies(List<File> files) {
+        List<File> copies = new ArrayList<>();
+        for (List<File> group : find(files)) {
+            copies.addAll(group.subList(1, group.size()));
+        }
+        return copies;
+    }
+
+    private static List<List<File>> findInPool(List<File> files) {
+        List<File> distinctFiles = files.stream().distinct().collect(Collectors.toList());
+        long[] sizes = new long[distinctFiles.size()];
+        IntStream.range(0, sizes.length).parallel().forEach(i -> {
+            File file = distinctFiles.get(i);
+            sizes[i] = file.isFile() ? file.length() : -1;
+        });
+
+        List<int[]> groups = group(IntStream.range(0, sizes.length).parallel()
+                .filter(i -> sizes[i] >= 0)
+                .toArray(), i -> Long.toString(sizes[i]));
+        logger.debug("{} of {} files have the same size as other files", count(groups), sizes.length);
+
+        groups = regroup(groups, i -> hashEdges(distinctFiles.get(i), sizes[i]));
+        logger.debug("{} files have the same first and last blocks as other files", count(groups));
+
+        groups = regroup(groups, i ->
+                sizes[i] <= 2 * BLOCK_SIZE ? "" : hashContent(distinctFiles.get(i), sizes[i]));
+        logger.debug("{} files have the same content as other files", count(groups));
+
+        List<List<File>> duplicates = new ArrayList<>(groups.size());
+        groups.sort(Comparator.comparingInt(group -> group[0]));
+        for (int[] group : groups) {
+            List<File> duplicate = new ArrayList<>(group.length);
+            for (int i : group) {
+                duplicate.add(distinctFiles.get(i));
+            }
+            duplicates.add(duplicate);
+        }
+        return duplicates;
+    }
+
+    /**
+     * This method is used to split each group by keys of its files. Files whose key can not be computed are
+     * excluded.
+     *
+     * @param groups groups of indices of files
+     * @param keys   function that computes key of the file by its index
+     * @return new groups with at least two files in each
+     */
+    private static List<int[]> regroup(List<int[]> groups, KeyFunction keys) {
+        int[] indices = groups.stream().flatMapToInt(Arrays::stream).toArray();
+        int[] groupIds = new int[indices.length];
+        for (int g = 0, position = 0; g < groups.size(); g++) {
+            Arrays.fill(groupIds, position, position += groups.get(g).length, g);
+        }
+
+        // each key is prefixed with the number of the group, so files of different groups never meet
+        int[] positions = IntStream.range(0, indices.length).toArray();
+        List<int[]> regrouped = new ArrayList<>();
+        for (int[] group : group(positions, position -> groupIds[position] + "/" + keys.apply(indices[position]))) {
+            int[] fileIndices = new int[group.length];
+            for (int i = 0; i < group.length; i++) {
+                fileIndices[i] = indices[group[i]];
+            }
+            regrouped.add(fileIndices);
+        }
+        return regrouped;
+    }
+
+    private static List<int[]> group(int[] items, KeyFunction keys) {
+        Map<String, List<Integer>> groups = Arrays.stream(items).parallel().boxed()
+                .map(item -> {
+                    try {
+                        return new AbstractMap.SimpleEntry<>(keys.apply(item), item);
+                    } catch (UncheckedIOException e) {
+                        logger.warn(e.getCause().toString());
+                        return null;
+                    }
+                })
+                .filter(Objects::nonNull)
+                .collect(Collectors.groupingByConcurrent(Map.Entry::getKey,
+                        Collectors.mapping(Map.Entry::getValue, Collectors.toList())));
+
+        List<int[]> result = new ArrayList<>();
+        for (List<Integer> group : groups.values()) {
+            if (group.size() > 1) {
+                result.add(group.stream().mapToInt(Integer::intValue).sorted().toArray());
+            }
+        }
+        return result;
+    }
+
+    private static int count(List<int[]> groups) {
+        return groups.stream().mapToInt(group -> group.length).sum();
+    }
+
+    /**
+     * This method is used to hash the first and the last blocks of the file. Blocks are small, so they are read
+     * directly instead of being mapped.
+     */
+    private static String hashEdges(File file, long size) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MessageDigest digest = digests.get();
+            ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+            readFully(channel, block, 0);
+            digest.update(block.flip());
+            if (size > BLOCK_SIZE) {
+                block.clear();
+                readFully(channel, block, Math.max(BLOCK_SIZE, size - BLOCK_SIZE));
+                digest.update(block.flip());
+            }
+            return Base64.getEncoder().encodeToString(digest.digest());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer block, long position) throws IOException {
+        while (block.hasRemaining()) {
+            int read = channel.read(block, position + block.position());
+            if (read < 0) break;
+        }
+    }
+
+    private static String hashContent(File file, long size) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MessageDigest digest = digests.get();
+            for (long position = 0; position < size; position += MAPPING_SIZE) {
+                MappedByteBuffer mapping = channel.map(
+                        FileChannel.MapMode.READ_ONLY, position, Math.min(MAPPING_SIZE, size - position));
+                digest.update(mapping);
+            }
+            return Base64.getEncoder().encodeToString(digest.digest());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface KeyFunction {
+        String apply(int index);
+    }
+}
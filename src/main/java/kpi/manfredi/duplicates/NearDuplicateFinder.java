@@ -0,0 +1,168 @@
+package kpi.manfredi.duplicates;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * This class is used to find similar images, such as resized or re-encoded copies of the same picture.
+ * <br><br>
+ * Perceptual hashes of images are computed in parallel by at most {@value PARALLELISM} threads and are cached on
+ * disk, so repeated searches over the same folders do not decode images again. Hashes are indexed in
+ * a {@link BkTree}, and images within the given Hamming distance of each other are joined into clusters.
+ *
+ * @author manfredi
+ */
+public class NearDuplicateFinder {
+    private static final Logger logger = LoggerFactory.getLogger(NearDuplicateFinder.class);
+    private static final Path DEFAULT_CACHE_FILE =
+            Paths.get(System.getProperty("user.home"), ".image-handler", "perceptual-hashes.bin");
+    private static final int DEFAULT_MAX_CACHE_ENTRIES = 200_000;
+    private static final int PARALLELISM = 8;
+    public static final int DEFAULT_MAX_DISTANCE = 8;
+
+    private final PerceptualHashCache cache;
+
+    public NearDuplicateFinder() {
+        this(DEFAULT_CACHE_FILE);
+    }
+
+    public NearDuplicateFinder(Path cacheFile) {
+        this.cache = new PerceptualHashCache(cacheFile, DEFAULT_MAX_CACHE_ENTRIES);
+    }
+
+    /**
+     * This method is used to find clusters of similar images
+     *
+     * @param files       list of images
+     * @param maxDistance maximal Hamming distance between hashes of similar images
+     * @return clusters of similar images (at least two images in each cluster); images of a cluster keep
+     * the order of the given list
+     */
+    public List<List<File>> find(List<File> files, int maxDistance) {
+        List<File> distinctFiles = new ArrayList<>(new LinkedHashSet<>(files));
+        long start = System.nanoTime();
+        long[] hashes = new long[distinctFiles.size()];
+        BitSet hashedImages = computeHashes(distinctFiles, hashes);
+        long hashed = System.nanoTime();
+
+        BkTree tree = new BkTree();
+        hashedImages.stream().forEach(i -> tree.add(hashes[i], i));
+
+        int[] parents = IntStream.range(0, hashes.length).toArray();
+        hashedImages.stream().forEach(i ->
+                tree.search(hashes[i], maxDistance, similar -> union(parents, i, similar)));
+
+        Map<Integer, List<File>> clusters = new LinkedHashMap<>();
+        hashedImages.stream().forEach(i ->
+                clusters.computeIfAbsent(find(parents, i), root -> new ArrayList<>()).add(distinctFiles.get(i)));
+
+        List<List<File>> result = new ArrayList<>();
+        for (List<File> cluster : clusters.values()) {
+            if (cluster.size() > 1) result.add(cluster);
+        }
+        logger.info("{} images were hashed in {} ms and clustered in {} ms, {} clusters of similar images found",
+                hashes.length, (hashed - start) / 1_000_000, (System.nanoTime() - hashed) / 1_000_000,
+                result.size());
+        return result;
+    }
+
+    /**
+     * This method is used to return images that are similar to the previous images of the list, i.e. all images
+     * of each cluster except the first one
+     *
+     * @param files list of images
+     * @return similar copies in the order of the given list
+     */
+    public List<File> findSimilarCopies(List<File> files) {
+        List<File> copies = new ArrayList<>();
+        for (List<File> cluster : find(files, DEFAULT_MAX_DISTANCE)) {
+            copies.addAll(cluster.subList(1, cluster.size()));
+        }
+        return copies;
+    }
+
+    /**
+     * This method is used to compute hashes of the images
+     *
+     * @param files  list of images
+     * @param hashes array to put hashes into
+     * @return indices of images that were hashed
+     */
+    private BitSet computeHashes(List<File> files, long[] hashes) {
+        boolean[] hashed = new boolean[files.size()];
+        ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+        try {
+            pool.submit(() -> IntStream.range(0, hashes.length).parallel().forEach(i -> {
+                Long hash = getHash(files.get(i));
+                if (hash != null) {
+                    hashes[i] = hash;
+                    hashed[i] = true;
+                }
+            })).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new BitSet();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        try {
+            cache.save();
+        } catch (IOException e) {
+            logger.warn("Perceptual hashes were not cached: {}", e.toString());
+        }
+
+        BitSet result = new BitSet(hashed.length);
+        for (int i = 0; i < hashed.length; i++) {
+            if (hashed[i]) result.set(i);
+        }
+        return result;
+    }
+
+    private Long getHash(File file) {
+        String path = file.getAbsolutePath();
+        long size = file.length();
+        long modifiedTime = file.lastModified();
+        Long hash = cache.get(path, size, modifiedTime);
+        if (hash != null) return hash;
+
+        try {
+            hash = PerceptualHash.compute(file);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Image {} was not hashed: {}", file, e.toString());
+            return null;
+        }
+        cache.put(path, size, modifiedTime, hash);
+        return hash;
+    }
+
+    private static int find(int[] parents, int item) {
+        while (parents[item] != item) {
+            parents[item] = parents[parents[item]];
+            item = parents[item];
+        }
+        return item;
+    }
+
+    private static void union(int[] parents, int first, int second) {
+        int firstRoot = find(parents, first);
+        int secondRoot = find(parents, second);
+        // the root is the earliest item, so clusters are listed in the order of the images
+        if (firstRoot < secondRoot) {
+            parents[secondRoot] = firstRoot;
+        } else {
+            parents[firstRoot] = secondRoot;
+        }
+    }
+}
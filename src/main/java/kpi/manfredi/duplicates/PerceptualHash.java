@@ -0,0 +1,101 @@
+package kpi.manfredi.duplicates;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * This class is used to compute difference hash (dHash) of images. Resized and re-encoded copies of the same
+ * picture have hashes that differ in a few bits, so similarity of images is measured by the Hamming distance
+ * between their hashes.
+ * <br><br>
+ * Images are decoded with subsampling, so only about {@value DECODE_SIZE} pixels of the shorter side are read.
+ *
+ * @author manfredi
+ */
+public abstract class PerceptualHash {
+    private static final int HASH_WIDTH = 8;
+    private static final int HASH_HEIGHT = 8;
+    private static final int DECODE_SIZE = 64;
+
+    /**
+     * This method is used to compute hash of the image file
+     *
+     * @param file image file
+     * @return 64-bit hash
+     * @throws IOException file can not be read or its format is not supported
+     */
+    public static long compute(File file) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            if (input == null) throw new IOException("File can not be read: " + file);
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) throw new IOException("Image format is not supported: " + file);
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int step = Math.max(1, Math.min(reader.getWidth(0), reader.getHeight(0)) / DECODE_SIZE);
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                return compute(reader.read(0, param));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * This method is used to compute hash of the image. The image is reduced to a grid of
+     * {@code (HASH_WIDTH + 1) x HASH_HEIGHT} mean brightness values, and each bit of the hash shows whether
+     * a cell is darker than its right neighbour.
+     *
+     * @param image decoded image
+     * @return 64-bit hash
+     */
+    public static long compute(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int columns = HASH_WIDTH + 1;
+        long[] sums = new long[columns * HASH_HEIGHT];
+        int[] counts = new int[columns * HASH_HEIGHT];
+
+        for (int y = 0; y < height; y++) {
+            int row = y * HASH_HEIGHT / height;
+            for (int x = 0; x < width; x++) {
+                int rgb = image.getRGB(x, y);
+                int gray = (((rgb >> 16) & 0xFF) * 299 + ((rgb >> 8) & 0xFF) * 587 + (rgb & 0xFF) * 114) / 1000;
+                int cell = row * columns + x * columns / width;
+                sums[cell] += gray;
+                counts[cell]++;
+            }
+        }
+
+        long hash = 0;
+        for (int row = 0; row < HASH_HEIGHT; row++) {
+            for (int column = 0; column < HASH_WIDTH; column++) {
+                int cell = row * columns + column;
+                // compare sums[cell] / counts[cell] with the next cell without division
+                long left = sums[cell] * Math.max(1, counts[cell + 1]);
+                long right = sums[cell + 1] * Math.max(1, counts[cell]);
+                hash = hash << 1 | (left < right ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * This method is used to return the number of different bits of two hashes
+     *
+     * @param first  first hash
+     * @param second second hash
+     * @return Hamming distance from 0 to 64
+     */
+    public static int distance(long first, long second) {
+        return Long.bitCount(first ^ second);
+    }
+}
@@ -0,0 +1,145 @@
+package kpi.manfredi.duplicates;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class is used to keep perceptual hashes of images on disk, so images that were hashed before are not
+ * decoded again. An entry is valid while the path, size and last modification time of the file are the same.
+ * <br><br>
+ * The cache is loaded when it is used for the first time. At most {@code maxEntries} entries are kept: the least
+ * recently used entries are evicted. The file is written back only when the cache was changed.
+ */
+class PerceptualHashCache {
+    private static final Logger logger = LoggerFactory.getLogger(PerceptualHashCache.class);
+    private static final int MAGIC = 0x70486331; // "pHc1"
+
+    private final Path file;
+    private final int maxEntries;
+    private final Object saveLock = new Object(); // keeps writes of snapshots in order
+    private LinkedHashMap<String, Entry> entries;
+    private boolean changed;
+
+    PerceptualHashCache(Path file, int maxEntries) {
+        this.file = file;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * This method is used to return cached hash of the file
+     *
+     * @param path         absolute path of the file
+     * @param size         size of the file
+     * @param modifiedTime last modification time of the file in milliseconds
+     * @return hash or {@code null} when the file was not hashed or was changed since then
+     */
+    synchronized Long get(String path, long size, long modifiedTime) {
+        Entry entry = getEntries().get(path);
+        return entry != null && entry.size == size && entry.modifiedTime == modifiedTime ? entry.hash : null;
+    }
+
+    synchronized void put(String path, long size, long modifiedTime, long hash) {
+        getEntries().put(path, new Entry(size, modifiedTime, hash));
+        changed = true;
+    }
+
+    synchronized int size() {
+        return getEntries().size();
+    }
+
+    private LinkedHashMap<String, Entry> getEntries() {
+        if (entries == null) {
+            entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+            if (Files.exists(file)) load();
+        }
+        return entries;
+    }
+
+    private void load() {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (input.readInt() != MAGIC) return;
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = input.readUTF();
+                entries.put(path, new Entry(input.readLong(), input.readLong(), input.readLong()));
+            }
+        } catch (IOException | RuntimeException e) {
+            // a damaged cache is rebuilt
+            logger.warn("Perceptual hash cache {} is damaged and will be rebuilt: {}", file, e.toString());
+            entries.clear();
+        }
+    }
+
+    /**
+     * This method is used to write the cache to the file if it was changed. Entries are copied first, so hashing
+     * may go on while the file is written, and are written from the least recently used, so the order of
+     * eviction survives restarts. The file is replaced atomically.
+     *
+     * @throws IOException cache can not be written
+     */
+    void save() throws IOException {
+        synchronized (saveLock) {
+            List<Map.Entry<String, Entry>> snapshot;
+            synchronized (this) {
+                if (!changed) return;
+                snapshot = new ArrayList<>(entries.size());
+                for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                    snapshot.add(Map.entry(entry.getKey(), entry.getValue()));
+                }
+                changed = false;
+            }
+
+            try {
+                write(snapshot);
+            } catch (IOException | RuntimeException e) {
+                synchronized (this) {
+                    changed = true;
+                }
+                throw e;
+            }
+        }
+    }
+
+    private void write(List<Map.Entry<String, Entry>> snapshot) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temporary)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(snapshot.size());
+            for (Map.Entry<String, Entry> entry : snapshot) {
+                output.writeUTF(entry.getKey());
+                output.writeLong(entry.getValue().size);
+                output.writeLong(entry.getValue().modifiedTime);
+                output.writeLong(entry.getValue().hash);
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static class Entry {
+        private final long size;
+        private final long modifiedTime;
+        private final long hash;
+
+        private Entry(long size, long modifiedTime, long hash) {
+            this.size = size;
+            this.modifiedTime = modifiedTime;
+            this.hash = hash;
+        }
+    }
+}
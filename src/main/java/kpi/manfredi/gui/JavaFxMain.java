@@ -1,22 +1,68 @@
 package kpi.manfredi.gui;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
+import javafx.scene.Parent;
 import javafx.stage.Stage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
 
 public class JavaFxMain extends Application {
+    private static final Logger logger = LoggerFactory.getLogger(JavaFxMain.class);
+
+    private long launchTime;
+    private Parent root;
+
+    /**
+     * This method is used to prepare the application outside of the JavaFX application thread: the background
+     * startup work is started and the main screen is loaded in parallel with it.
+     */
+    @Override
+    public void init() {
+        launchTime = System.nanoTime();
+        StartupLoader.start();
+        try {
+            root = ScreenSwitcher.loadScreen(Screen.PROCESSING_ENVIRONMENT, null);
+        } catch (IOException e) {
+            logger.error(e.getMessage());
+        }
+    }
 
     @Override
     public void start(Stage primaryStage) {
         Context.getInstance().setPrimaryStage(primaryStage);
 
-        ScreenSwitcher.activateScreen(
-                Screen.PROCESSING_ENVIRONMENT,
-                primaryStage
-        );
+        if (root != null) {
+            ScreenSwitcher.activateScreen(root, primaryStage);
+        } else {
+            ScreenSwitcher.activateScreen(
+                    Screen.PROCESSING_ENVIRONMENT,
+                    primaryStage
+            );
+        }
 
         primaryStage.setX(100);
         primaryStage.setY(50);
         primaryStage.setTitle("Image Handler");
         primaryStage.show();
+        logFirstFrame();
+    }
+
+    /**
+     * This method is used to log time to the first frame, i.e. to the first pulse after the main window was shown
+     */
+    private void logFirstFrame() {
+        new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                stop();
+                logger.info("First frame in {} ms after launch ({} ms after JVM start)",
+                        (System.nanoTime() - launchTime) / 1_000_000,
+                        ManagementFactory.getRuntimeMXBean().getUptime());
+            }
+        }.start();
     }
 }
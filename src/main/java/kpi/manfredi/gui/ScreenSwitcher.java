@@ -1,6 +1,7 @@
 package kpi.manfredi.gui;
 
 import javafx.fxml.FXMLLoader;
+import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
@@ -26,20 +27,43 @@ public abstract class ScreenSwitcher {
      * @param stage  stage in which screen will be shown
      */
     public static void activateScreen(Screen screen, Stage stage) {
-
-        Scene scene;
+        Parent root;
         try {
-            scene = new Scene(FXMLLoader.load(ScreenSwitcher.class.getResource(screen.getPath())));
+            root = loadScreen(screen, null);
         } catch (IOException e) {
             logger.error(e.getMessage());
             return;
         }
+        activateScreen(root, stage);
+    }
 
-        stage.setScene(scene);
+    /**
+     * This method is used to activate the screen that was loaded in advance.
+     *
+     * @param root  root of the loaded screen
+     * @param stage stage in which screen will be shown
+     */
+    public static void activateScreen(Parent root, Stage stage) {
+        stage.setScene(new Scene(root));
         stage.setMinWidth(MIN_WIDTH);
         stage.setMinHeight(MIN_HEIGHT);
     }
 
+    /**
+     * This method is used to load the screen. Loading creates only nodes, so it may be done outside of the JavaFX
+     * application thread (e.g. in the background at startup).
+     *
+     * @param screen     screen
+     * @param controller controller of the screen; {@code null} to create the controller declared by the screen
+     * @return root of the screen
+     * @throws IOException screen can not be loaded
+     */
+    public static Parent loadScreen(Screen screen, Object controller) throws IOException {
+        FXMLLoader loader = new FXMLLoader(ScreenSwitcher.class.getResource(screen.getPath()));
+        if (controller != null) loader.setController(controller);
+        return loader.load();
+    }
+
     /**
      * This method is used to create a modal screen.
      *
@@ -49,24 +73,27 @@ public abstract class ScreenSwitcher {
      * @return modal window stage
      */
     public static Stage showModalScreen(Screen screen, Stage parent, Object loaderController) {
-        Stage stage = new Stage();
-        stage.initModality(Modality.WINDOW_MODAL);
-        stage.initOwner(parent);
-
-        // Load the FXML file
+        Parent root = null;
         try {
-            FXMLLoader loader = new FXMLLoader(ScreenSwitcher.class.getResource(screen.getPath()));
-
-            // Set this class as the controller
-            loader.setController(loaderController);
-
-            // Load the scene
-            stage.setScene(new Scene(loader.load()));
-
+            root = loadScreen(screen, loaderController);
         } catch (IOException e) {
             e.printStackTrace();
         }
+        return showModalScreen(root, parent);
+    }
 
+    /**
+     * This method is used to create a modal screen from the screen that was loaded in advance.
+     *
+     * @param root   root of the loaded screen; {@code null} to create an empty stage
+     * @param parent parent stage
+     * @return modal window stage
+     */
+    public static Stage showModalScreen(Parent root, Stage parent) {
+        Stage stage = new Stage();
+        stage.initModality(Modality.WINDOW_MODAL);
+        stage.initOwner(parent);
+        if (root != null) stage.setScene(new Scene(root));
         return stage;
     }
 }
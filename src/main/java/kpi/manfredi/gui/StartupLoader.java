@@ -0,0 +1,76 @@
+package kpi.manfredi.gui;
+
+import kpi.manfredi.gui.controllers.IterativeRenamingController;
+import kpi.manfredi.tags.TagsCustodian;
+import kpi.manfredi.tags.tree.TagsTree;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class is used to do the work that is needed soon after startup in the background, in parallel with loading
+ * of the main screen: tags are parsed, JAXB is warmed up and secondary screens are loaded. The main window is
+ * shown without waiting for it; the results are bound into the screens when they are ready.
+ *
+ * @author manfredi
+ */
+public abstract class StartupLoader {
+    private static final Logger logger = LoggerFactory.getLogger(StartupLoader.class);
+    private static final int THREADS = 3;
+
+    private static CompletableFuture<TagsTree> tagsTree;
+
+    /**
+     * This method is used to start the background work
+     */
+    static synchronized void start() {
+        AtomicInteger counter = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "startup-loader-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        tagsTree = CompletableFuture.supplyAsync(StartupLoader::readTags, executor);
+        CompletableFuture.runAsync(StartupLoader::warmUpJaxb, executor);
+        CompletableFuture.runAsync(IterativeRenamingController::preload, executor);
+        executor.shutdown();
+    }
+
+    /**
+     * This method is used to take tags that are being parsed since startup. Tags are taken once: later reloads
+     * must read the file again, because it may be changed.
+     *
+     * @return tags being parsed; {@code null} when tags were not preloaded or were already taken
+     */
+    public static synchronized CompletableFuture<TagsTree> takeTagsTree() {
+        CompletableFuture<TagsTree> result = tagsTree;
+        tagsTree = null;
+        return result;
+    }
+
+    private static TagsTree readTags() {
+        long start = System.nanoTime();
+        try {
+            return TagsCustodian.getTags();
+        } catch (Exception e) {
+            throw new CompletionException(e);
+        } finally {
+            logger.debug("Tags were read in {} ms", (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    private static void warmUpJaxb() {
+        try {
+            TagsCustodian.warmUp(TagsTree.class);
+        } catch (Exception e) {
+            // the error will be reported when tags are read
+            logger.debug("JAXB warm-up failed: {}", e.toString());
+        }
+    }
+}
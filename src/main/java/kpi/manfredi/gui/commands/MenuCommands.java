@@ -1,45 +1,153 @@
 package kpi.manfredi.gui.commands;
 
+import javafx.application.Platform;
+import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
 import javafx.scene.control.Alert;
 import javafx.scene.control.ButtonType;
 import javafx.scene.control.ListView;
+import javafx.stage.DirectoryChooser;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
+import kpi.manfredi.duplicates.DuplicateFinder;
+import kpi.manfredi.duplicates.NearDuplicateFinder;
 import kpi.manfredi.gui.controllers.IterativeRenamingController;
+import kpi.manfredi.monitoring.RenamePreview;
+import kpi.manfredi.renaming.DirectoryNameIndex;
+import kpi.manfredi.renaming.RenameTransaction;
 import kpi.manfredi.utils.DialogsUtil;
 import kpi.manfredi.utils.MessageUtil;
+import kpi.manfredi.utils.ProgressListener;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
-import java.util.List;
-import java.util.Optional;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.IntStream;
 
 import static kpi.manfredi.utils.DialogsUtil.showAlert;
 import static kpi.manfredi.utils.DialogsUtil.showConfirmationDialog;
+import static kpi.manfredi.utils.DialogsUtil.showProgressDialog;
 import static kpi.manfredi.utils.FileManipulation.*;
 import static kpi.manfredi.utils.MessageUtil.formatMessage;
 import static kpi.manfredi.utils.MessageUtil.getMessage;
 
 public abstract class MenuCommands {
     private static final Logger logger = LoggerFactory.getLogger(MenuCommands.class);
+    private static final int IMPORT_CHUNK_SIZE = 500;
 
     public static void open(List<File> addTo, Stage parentStage) {
         FileChooser fileChooser = new FileChooser();
-        fileChooser.setInitialDirectory(
-                new File(System.getProperty("user.home") + File.separator + "Pictures"));
+        fileChooser.setInitialDirectory(getPicturesDirectory());
         fileChooser.getExtensionFilters().addAll(
-                new FileChooser.ExtensionFilter("Image Files", "*.png", "*.jpg"));
+                new FileChooser.ExtensionFilter("Image Files", "*.png", "*.jpg", "*.jpeg", "*.gif", "*.bmp"));
 
         List<File> files = fileChooser.showOpenMultipleDialog(parentStage);
         if (files != null) {
-            files = filterImages(files);
-            files = removeDuplicates(files);
-            addTo.addAll(files);
+            importInBackground(addTo, files, false);
         }
     }
 
+    /**
+     * This method is used to add images of the chosen directory to the list
+     *
+     * @param addTo       list to add images to
+     * @param parentStage owner of the directory chooser
+     * @param recursive   {@code true} to add images of subdirectories too
+     */
+    public static void openFolder(List<File> addTo, Stage parentStage, boolean recursive) {
+        DirectoryChooser directoryChooser = new DirectoryChooser();
+        directoryChooser.setInitialDirectory(getPicturesDirectory());
+
+        File directory = directoryChooser.showDialog(parentStage);
+        if (directory != null) {
+            importInBackground(addTo, List.of(directory), recursive);
+        }
+    }
+
+    private static File getPicturesDirectory() {
+        File pictures = new File(System.getProperty("user.home") + File.separator + "Pictures");
+        return pictures.isDirectory() ? pictures : new File(System.getProperty("user.home"));
+    }
+
+    /**
+     * This method is used to find images among the files and in the directories in a background task with
+     * a progress dialog. Images are added to the list in chunks as soon as they are recognized; files that are
+     * already in the list are skipped.
+     *
+     * @param addTo     list to add images to
+     * @param roots     chosen files and directories
+     * @param recursive {@code true} to look into subdirectories
+     */
+    private static void importInBackground(List<File> addTo, List<File> roots, boolean recursive) {
+        Set<File> knownFiles = new HashSet<>(addTo);
+        Task<Integer> importingTask = new Task<>() {
+            @Override
+            protected Integer call() {
+                Task<Integer> task = this;
+                List<File> files = listFiles(roots, recursive, new ProgressListener() {
+                    @Override
+                    public void update(int processed) {
+                        updateMessage(formatMessage("importing.listing", processed));
+                    }
+
+                    @Override
+                    public boolean isCancelled() {
+                        return task.isCancelled();
+                    }
+                });
+
+                int added = 0;
+                try {
+                    for (int from = 0; from < files.size() && !isCancelled(); from += IMPORT_CHUNK_SIZE) {
+                        int to = Math.min(from + IMPORT_CHUNK_SIZE, files.size());
+                        List<File> newFiles = new ArrayList<>();
+                        for (File file : files.subList(from, to)) {
+                            if (knownFiles.add(file)) newFiles.add(file);
+                        }
+
+                        List<File> images = filterImages(newFiles, false);
+                        if (!images.isEmpty()) Platform.runLater(() -> addTo.addAll(images));
+                        added += images.size();
+                        updateProgress(to, files.size());
+                        updateMessage(formatMessage("importing.progress", to, files.size(), added));
+                    }
+                } finally {
+                    saveMetadataCache();
+                }
+                logger.info("{} of {} files were imported as images", added, files.size());
+                return added;
+            }
+        };
+        importingTask.setOnFailed(event -> logger.error("Importing failed", importingTask.getException()));
+
+        showProgressDialog(getMessage("importing.title"), importingTask);
+        Thread thread = new Thread(importingTask, "images-importer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
     public static void delete(List<File> deleteFrom, List<File> filesToBeDeleted, boolean deleteFromHardDrive) {
+        delete(deleteFrom, filesToBeDeleted, deleteFromHardDrive, false);
+    }
+
+    /**
+     * This method is used to remove files from the list and, optionally, from the hard drive. Files are deleted
+     * (or moved to the trash) in a background task with a progress dialog, and the list is updated once when
+     * the task is finished.
+     *
+     * @param deleteFrom          list to remove files from
+     * @param filesToBeDeleted    files to remove
+     * @param deleteFromHardDrive {@code true} to delete files from the hard drive
+     * @param moveToTrash         {@code true} to move files to the trash directory instead of deleting them
+     */
+    public static void delete(List<File> deleteFrom,
+                              List<File> filesToBeDeleted,
+                              boolean deleteFromHardDrive,
+                              boolean moveToTrash) {
         if (filesToBeDeleted.isEmpty()) {
             showAlert(
                     Alert.AlertType.WARNING,
@@ -50,24 +158,86 @@ public abstract class MenuCommands {
 
             Optional<ButtonType> result = showConfirmationDialog(
                     getMessage("deleting.title"),
-                    getMessage("deleting.header"),
+                    moveToTrash && deleteFromHardDrive
+                            ? formatMessage("deleting.header.trash", DEFAULT_TRASH_DIR)
+                            : getMessage("deleting.header"),
                     formatMessage("deleting.content", filesToBeDeleted.size())
             );
 
             if (result.isPresent() && result.get() == ButtonType.OK) {
                 logger.info(formatMessage("log.dialog.confirm.ok", "delete", filesToBeDeleted.size()));
+                List<File> files = new ArrayList<>(filesToBeDeleted);
                 if (deleteFromHardDrive) {
-                    deleteFiles(filesToBeDeleted);
+                    deleteInBackground(deleteFrom, files, moveToTrash);
+                } else {
+                    deleteFrom.removeAll(new HashSet<>(files));
                 }
-                deleteFrom.removeAll(filesToBeDeleted);
             } else {
                 logger.info(formatMessage("log.dialog.confirm.cancel", "delete"));
             }
         }
     }
 
-    public static void renameIteratively(ListView<File> files) {
-        List<File> selectedItems = files.getSelectionModel().getSelectedItems();
+    private static void deleteInBackground(List<File> deleteFrom, List<File> files, boolean moveToTrash) {
+        Task<List<File>> deletingTask = new Task<>() {
+            @Override
+            protected List<File> call() {
+                Task<List<File>> task = this;
+                ProgressListener listener = new ProgressListener() {
+                    @Override
+                    public void update(int processed) {
+                        updateProgress(processed, files.size());
+                        updateMessage(formatMessage("deleting.progress", processed, files.size()));
+                    }
+
+                    @Override
+                    public boolean isCancelled() {
+                        return task.isCancelled();
+                    }
+                };
+                List<File> notDeletedFiles = moveToTrash
+                        ? moveToTrash(files, DEFAULT_TRASH_DIR, listener)
+                        : deleteFiles(files, listener);
+
+                // a cancelled task does not report its value, but the files processed before cancellation are gone
+                if (isCancelled()) {
+                    Platform.runLater(() -> removeDeleted(deleteFrom, files, notDeletedFiles, false));
+                }
+                return notDeletedFiles;
+            }
+        };
+        deletingTask.setOnSucceeded(event -> removeDeleted(deleteFrom, files, deletingTask.getValue(), true));
+        deletingTask.setOnFailed(event -> logger.error("Deleting failed", deletingTask.getException()));
+
+        showProgressDialog(getMessage("deleting.title"), deletingTask);
+        Thread thread = new Thread(deletingTask, "files-deleter");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void removeDeleted(List<File> deleteFrom,
+                                      List<File> files,
+                                      List<File> notDeletedFiles,
+                                      boolean reportFailures) {
+        Set<File> deletedFiles = new HashSet<>(files);
+        deletedFiles.removeAll(notDeletedFiles);
+        deleteFrom.removeAll(deletedFiles);
+        if (reportFailures && !notDeletedFiles.isEmpty()) {
+            showAlert(
+                    Alert.AlertType.WARNING,
+                    getMessage("warning.title"),
+                    formatMessage("deleting.failed", notDeletedFiles.size()));
+        }
+    }
+
+    /**
+     * This method is used to rename selected images by a template in the iterative renaming dialog
+     *
+     * @param files    list view of images
+     * @param allFiles all images of the list, including images hidden by a filter
+     */
+    public static void renameIteratively(ListView<File> files, List<File> allFiles) {
+        List<File> selectedItems = new ArrayList<>(files.getSelectionModel().getSelectedItems());
 
         if (selectedItems.isEmpty()) {
             DialogsUtil.showAlert(
@@ -81,8 +251,206 @@ public abstract class MenuCommands {
                 startRenamingProcedure(selectedItems);
 
         if (selectedItems != renamedFiles) {
-            files.getItems().removeAll(selectedItems);
-            files.getItems().addAll(renamedFiles);
+            allFiles.removeAll(new HashSet<>(selectedItems));
+            allFiles.addAll(renamedFiles);
+        }
+    }
+
+    /**
+     * This method is used to rename selected images to the names given by the rename preview, i.e. tags found in
+     * their names together with the checked tags. New names are planned before the first file is renamed;
+     * renaming is performed in a background task with a progress dialog and may be cancelled, in which case
+     * the files renamed so far keep their new names. The list is updated once when the task is finished.
+     *
+     * @param files    list view of images
+     * @param allFiles all images of the list, including images hidden by a filter
+     * @param preview  rename preview built from the tags
+     * @param tags     checked tags
+     */
+    public static void applyTags(ListView<File> files,
+                                 ObservableList<File> allFiles,
+                                 RenamePreview preview,
+                                 List<String> tags) {
+        List<File> selectedItems = new ArrayList<>(files.getSelectionModel().getSelectedItems());
+        if (selectedItems.isEmpty()) {
+            showAlert(
+                    Alert.AlertType.WARNING,
+                    getMessage("warning.title"),
+                    getMessage("renaming.info"));
+            return;
+        }
+
+        Optional<ButtonType> result = showConfirmationDialog(
+                getMessage("renaming.tags.title"),
+                formatMessage("renaming.tags.header", String.join(" ", tags)),
+                formatMessage("renaming.tags.content", selectedItems.size()));
+        if (!result.isPresent() || result.get() != ButtonType.OK) {
+            logger.info(formatMessage("log.dialog.confirm.cancel", "rename"));
+            return;
+        }
+        logger.info(formatMessage("log.dialog.confirm.ok", "rename", selectedItems.size()));
+
+        Task<Map<File, File>> renamingTask = new Task<>() {
+            @Override
+            protected Map<File, File> call() throws IOException {
+                Task<Map<File, File>> task = this;
+                List<String> newNames = preview.getNewNames(selectedItems, tags);
+
+                updateMessage(MessageUtil.getMessage("renaming.tags.planning"));
+                RenameTransaction transaction = new RenameTransaction();
+                List<File> plannedFiles = new ArrayList<>();
+                for (int i = 0; i < selectedItems.size(); i++) {
+                    File file = selectedItems.get(i);
+                    String newName = newNames.get(i);
+                    int indexOfLastDot = newName.lastIndexOf('.');
+                    String baseName = indexOfLastDot == -1 ? newName : newName.substring(0, indexOfLastDot);
+                    String extension = indexOfLastDot == -1 ? "" : newName.substring(indexOfLastDot);
+
+                    // the file is already named so, maybe with a number given to it by the previous renaming
+                    if (DirectoryNameIndex.isNameOf(file.getName(), baseName, extension)) continue;
+
+                    Path source = file.toPath();
+                    DirectoryNameIndex nameIndex = DirectoryNameIndex.of(source.toAbsolutePath().getParent());
+                    transaction.add(source, source.resolveSibling(nameIndex.reserve(baseName, extension)));
+                    plannedFiles.add(file);
+                }
+
+                RenameTransaction.Result result;
+                try {
+                    result = transaction.commit(new ProgressListener() {
+                        @Override
+                        public void update(int processed) {
+                            updateProgress(processed, plannedFiles.size());
+                            updateMessage(formatMessage("renaming.tags.progress", processed, plannedFiles.size()));
+                        }
+
+                        @Override
+                        public boolean isCancelled() {
+                            return task.isCancelled();
+                        }
+                    });
+                } catch (IOException e) {
+                    for (int i = 0; i < plannedFiles.size(); i++) DirectoryNameIndex.release(transaction.getTarget(i));
+                    throw e;
+                }
+
+                Map<File, File> renamedFiles = new HashMap<>();
+                for (int i = 0; i < plannedFiles.size(); i++) {
+                    if (result.isRenamed(i)) {
+                        renamedFiles.put(plannedFiles.get(i), transaction.getTarget(i).toFile());
+                    } else {
+                        DirectoryNameIndex.release(transaction.getTarget(i)); // skipped, cancelled or failed
+                    }
+                }
+
+                // a cancelled task does not report its value, but the files renamed before cancellation are renamed
+                if (isCancelled()) {
+                    Platform.runLater(() -> replaceRenamed(files, allFiles, renamedFiles));
+                }
+                return renamedFiles;
+            }
+        };
+        renamingTask.setOnSucceeded(event -> replaceRenamed(files, allFiles, renamingTask.getValue()));
+        renamingTask.setOnFailed(event -> {
+            logger.error("Renaming failed", renamingTask.getException());
+            showAlert(
+                    Alert.AlertType.ERROR,
+                    getMessage("error.title"),
+                    renamingTask.getException().getMessage());
+        });
+
+        showProgressDialog(getMessage("renaming.tags.title"), renamingTask);
+        Thread thread = new Thread(renamingTask, "tags-applier");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * This method is used to replace renamed files in the list with a single change, keeping them selected
+     *
+     * @param files        list view of images
+     * @param allFiles     all images of the list, including images hidden by a filter
+     * @param renamedFiles new files by old files
+     */
+    private static void replaceRenamed(ListView<File> files,
+                                       ObservableList<File> allFiles,
+                                       Map<File, File> renamedFiles) {
+        if (renamedFiles.isEmpty()) return;
+
+        List<File> items = new ArrayList<>(allFiles);
+        items.replaceAll(file -> renamedFiles.getOrDefault(file, file));
+        allFiles.setAll(items);
+
+        Set<File> newFiles = new HashSet<>(renamedFiles.values());
+        int[] indices = IntStream.range(0, files.getItems().size())
+                .filter(i -> newFiles.contains(files.getItems().get(i)))
+                .toArray();
+        files.getSelectionModel().clearSelection();
+        if (indices.length > 0) {
+            files.getSelectionModel().selectIndices(indices[0], Arrays.copyOfRange(indices, 1, indices.length));
         }
     }
+
+    /**
+     * This method is used to find byte-identical images in the list and select their redundant copies (the first
+     * image of each group stays unselected), so they can be cleared or deleted. Images are compared in
+     * a background thread.
+     *
+     * @param files list view of images
+     */
+    public static void selectDuplicates(ListView<File> files) {
+        selectCopies(files, DuplicateFinder::findRedundantCopies, "duplicates.none", "duplicates.selected");
+    }
+
+    /**
+     * This method is used to find similar images in the list (e.g. resized or re-encoded copies) and select them
+     * except the first image of each cluster. Images are compared in a background thread.
+     *
+     * @param files list view of images
+     */
+    public static void selectSimilar(ListView<File> files) {
+        NearDuplicateFinder finder = new NearDuplicateFinder();
+        selectCopies(files, finder::findSimilarCopies, "similar.none", "similar.selected");
+    }
+
+    private static void selectCopies(ListView<File> files,
+                                     Function<List<File>, List<File>> finder,
+                                     String noneMessage,
+                                     String selectedMessage) {
+        List<File> items = new ArrayList<>(files.getItems());
+        Task<List<File>> findingTask = new Task<>() {
+            @Override
+            protected List<File> call() {
+                return finder.apply(items);
+            }
+        };
+        findingTask.setOnSucceeded(event -> {
+            List<File> copies = findingTask.getValue();
+            files.getSelectionModel().clearSelection();
+            if (copies.isEmpty()) {
+                showAlert(
+                        Alert.AlertType.INFORMATION,
+                        getMessage("duplicates.title"),
+                        getMessage(noneMessage));
+                return;
+            }
+
+            Set<File> copySet = new HashSet<>(copies);
+            int[] indices = IntStream.range(0, files.getItems().size())
+                    .filter(i -> copySet.contains(files.getItems().get(i)))
+                    .toArray();
+            if (indices.length > 0) {
+                files.getSelectionModel().selectIndices(indices[0], Arrays.copyOfRange(indices, 1, indices.length));
+            }
+            showAlert(
+                    Alert.AlertType.INFORMATION,
+                    getMessage("duplicates.title"),
+                    formatMessage(selectedMessage, copies.size()));
+        });
+        findingTask.setOnFailed(event -> logger.error("Duplicates search failed", findingTask.getException()));
+
+        Thread thread = new Thread(findingTask, "duplicates-finder");
+        thread.setDaemon(true);
+        thread.start();
+    }
 }
@@ -2,6 +2,7 @@ package kpi.manfredi.gui.controllers;
 
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
+import javafx.scene.Parent;
 import javafx.scene.control.*;
 import javafx.stage.Stage;
 import kpi.manfredi.gui.Context;
@@ -11,6 +12,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URL;
 import java.util.List;
 import java.util.Optional;
@@ -50,20 +52,45 @@ public class IterativeRenamingController implements Initializable {
     private Button renameButton;
 
     private static IterativeRenamingController instance;
-    private final Stage thisStage;
+    private final Parent root;
+    private Stage thisStage;
     private List<File> files;
 
-    public static IterativeRenamingController getInstance() {
+    public static synchronized IterativeRenamingController getInstance() {
         if (instance == null) instance = new IterativeRenamingController();
         return instance;
     }
 
+    /**
+     * This method is used to load the screen in advance, so it is shown without a delay when it is needed first.
+     * Only nodes are created, so it may be called outside of the JavaFX application thread.
+     */
+    public static void preload() {
+        getInstance();
+    }
+
     private IterativeRenamingController() {
-        thisStage = ScreenSwitcher.showModalScreen(
-                Screen.ITERATIVE_RENAMING,
-                Context.getInstance().getPrimaryStage(),
-                this);
-        thisStage.setTitle("Iterative Renaming");
+        Parent loadedRoot = null;
+        try {
+            loadedRoot = ScreenSwitcher.loadScreen(Screen.ITERATIVE_RENAMING, this);
+        } catch (IOException e) {
+            logger.error(e.getMessage());
+        }
+        root = loadedRoot;
+    }
+
+    /**
+     * This method is used to return the stage of the screen. The stage is created in the JavaFX application thread
+     * when the screen is shown first.
+     *
+     * @return stage of the screen
+     */
+    private Stage getStage() {
+        if (thisStage == null) {
+            thisStage = ScreenSwitcher.showModalScreen(root, Context.getInstance().getPrimaryStage());
+            thisStage.setTitle("Iterative Renaming");
+        }
+        return thisStage;
     }
 
     @Override
@@ -104,13 +131,13 @@ public class IterativeRenamingController implements Initializable {
                 logger.info(formatMessage("log.dialog.confirm.cancel", "rename"));
             }
 
-            thisStage.close();
+            getStage().close();
         });
     }
 
     public List<File> startRenamingProcedure(List<File> filesToRename) {
         files = filesToRename;
-        thisStage.showAndWait();
+        getStage().showAndWait();
         return files;
     }
 }
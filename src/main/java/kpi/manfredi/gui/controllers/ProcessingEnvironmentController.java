@@ -1,10 +1,19 @@
 package kpi.manfredi.gui.controllers;
 
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
 import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import javafx.collections.ObservableSet;
+import javafx.collections.SetChangeListener;
+import javafx.collections.transformation.FilteredList;
+import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.scene.control.Button;
 import javafx.scene.control.MenuItem;
 import javafx.scene.control.TextArea;
+import javafx.scene.control.TextField;
 import javafx.scene.control.*;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
@@ -13,9 +22,19 @@ import javafx.scene.input.KeyCodeCombination;
 import javafx.scene.input.KeyCombination;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
+import javafx.util.Duration;
+import kpi.manfredi.gui.StartupLoader;
 import kpi.manfredi.gui.commands.MenuCommands;
+import kpi.manfredi.gui.thumbnails.ThumbnailCell;
+import kpi.manfredi.gui.thumbnails.ThumbnailLoader;
+import kpi.manfredi.gui.thumbnails.ThumbnailStore;
+import kpi.manfredi.monitoring.FilenameHandler;
+import kpi.manfredi.monitoring.RenamePreview;
+import kpi.manfredi.tags.TagTreeItem;
 import kpi.manfredi.tags.TagsAdapter;
 import kpi.manfredi.tags.TagsCustodian;
+import kpi.manfredi.tags.TagsFilterIndex;
+import kpi.manfredi.tags.TagsSearchIndex;
 import kpi.manfredi.tags.tree.TagsTree;
 import org.controlsfx.control.CheckTreeView;
 import org.slf4j.Logger;
@@ -24,9 +43,22 @@ import org.slf4j.LoggerFactory;
 import javax.xml.bind.JAXBException;
 import java.awt.*;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 import static kpi.manfredi.utils.DialogsUtil.showAlert;
 import static kpi.manfredi.utils.DialogsUtil.showFileNotFoundAlert;
@@ -35,7 +67,35 @@ import static kpi.manfredi.utils.MessageUtil.getMessage;
 
 public class ProcessingEnvironmentController {
     private static final Logger logger = LoggerFactory.getLogger(ProcessingEnvironmentController.class);
+    private static final int TAGS_SEARCH_LIMIT = 200;
+    private static final long TAGS_SEARCH_BUDGET_NANOS = 8_000_000; // half of a frame at 60 fps
+    private static final int THUMBNAIL_SIZE = 48;
+    private static final long THUMBNAIL_CACHE_BYTES = 64L * 1024 * 1024;
+    private static final int THUMBNAIL_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    private static final long PREVIEW_CACHE_BYTES = 32L * 1024 * 1024;
+    private static final int PREVIEW_THREADS = 2;
+    private static final int PREVIEW_PREFETCH = 2; // number of previews decoded ahead in each direction
+    private static final Duration RENAME_PREVIEW_DELAY = Duration.millis(150);
     private Stage mainStage;
+    private final ObservableSet<Object> checkedTags = FXCollections.observableSet(new LinkedHashSet<>());
+    private TagTreeItem tagsRootItem;
+    private TagsSearchIndex tagsSearchIndex;
+    private final ObservableList<File> images = FXCollections.observableArrayList();
+    private final TagsFilterIndex tagsFilterIndex = new TagsFilterIndex();
+    private FilteredList<File> filteredImages;
+    private final ThumbnailLoader thumbnailLoader = new ThumbnailLoader(THUMBNAIL_SIZE, THUMBNAIL_CACHE_BYTES,
+            THUMBNAIL_THREADS, ThumbnailStore.getDefault(THUMBNAIL_SIZE));
+    private ThumbnailLoader previewLoader;
+    private final Map<File, Future<?>> pendingPreviews = new HashMap<>(); // by file, focused or prefetched
+    private File previewFile;
+    private final PauseTransition renamePreviewDelay = new PauseTransition(RENAME_PREVIEW_DELAY);
+    private final AtomicInteger renamePreviewGeneration = new AtomicInteger();
+    private final ExecutorService renamePreviewExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "rename-preview");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private RenamePreview renamePreview;
 
     //
     // Container
@@ -49,6 +109,12 @@ public class ProcessingEnvironmentController {
     @FXML
     private MenuItem menuOpen;
 
+    @FXML
+    private MenuItem menuOpenFolder;
+
+    @FXML
+    private CheckMenuItem menuOpenRecursively;
+
     @FXML
     private MenuItem menuSelectAll;
 
@@ -58,18 +124,33 @@ public class ProcessingEnvironmentController {
     @FXML
     private MenuItem menuClearSelected;
 
+    @FXML
+    private MenuItem menuSelectDuplicates;
+
+    @FXML
+    private MenuItem menuSelectSimilar;
+
     @FXML
     private MenuItem menuRenameIteratively;
 
     @FXML
     private MenuItem menuDelete;
 
+    @FXML
+    private CheckMenuItem menuMoveToTrash;
+
     @FXML
     private MenuItem menuAbout;
 
     //
     // Left Panel
     //
+    @FXML
+    private MenuItem menuReloadTags;
+
+    @FXML
+    private TextField tagsSearch;
+
     @FXML
     private CheckTreeView<Object> tagsTree;
 
@@ -82,9 +163,15 @@ public class ProcessingEnvironmentController {
     @FXML
     private Button renameButton;
 
+    @FXML
+    private ListView<String> renamePreviewList;
+
     ///
     // Images list
     //
+    @FXML
+    private TextField imagesFilter;
+
     @FXML
     private ListView<File> imagesListView;
 
@@ -107,12 +194,16 @@ public class ProcessingEnvironmentController {
 
         // Left Panel
         initTagsTree();
+        initTagsSearch();
         initTagsSelectionListener();
 
         // Images List
         initImagesListView();
+        initImagesFilter();
+        initRenamePreview();
 
         // Image preview
+        initPreviewLoader();
         initOpenImageButtonListener();
 
     }
@@ -122,24 +213,31 @@ public class ProcessingEnvironmentController {
     //
     private void initMenuListeners() {
         menuOpen.setOnAction(event ->
-                MenuCommands.open(imagesListView.getItems(), getMainStage()));
+                MenuCommands.open(images, getMainStage()));
         menuOpen.setAccelerator(new KeyCodeCombination(KeyCode.Q, KeyCombination.CONTROL_DOWN));
+        menuOpenFolder.setOnAction(event ->
+                MenuCommands.openFolder(images, getMainStage(), menuOpenRecursively.isSelected()));
         menuSelectAll.setOnAction(event ->
                 imagesListView.getSelectionModel().selectAll());
         menuClearAll.setOnAction(event ->
-                imagesListView.getItems().clear());
+                images.clear());
         menuClearSelected.setOnAction(event ->
                 MenuCommands.delete(
-                        imagesListView.getItems(),
+                        images,
                         imagesListView.getSelectionModel().getSelectedItems(),
                         false));
+        menuSelectDuplicates.setOnAction(event ->
+                MenuCommands.selectDuplicates(imagesListView));
+        menuSelectSimilar.setOnAction(event ->
+                MenuCommands.selectSimilar(imagesListView));
         menuRenameIteratively.setOnAction(event ->
-                MenuCommands.renameIteratively(imagesListView));
+                MenuCommands.renameIteratively(imagesListView, images));
         menuDelete.setOnAction(event ->
                 MenuCommands.delete(
-                        imagesListView.getItems(),
+                        images,
                         imagesListView.getSelectionModel().getSelectedItems(),
-                        true));
+                        true,
+                        menuMoveToTrash.isSelected()));
         menuDelete.setAccelerator(new KeyCodeCombination(KeyCode.DELETE));
         menuAbout.setOnAction(event -> showAlert(
                 Alert.AlertType.INFORMATION,
@@ -153,36 +251,120 @@ public class ProcessingEnvironmentController {
     // Left Panel
     //
     private void initTagsTree() {
-        TagsTree tagsTree = null;
+        this.tagsTree.setRoot(new CheckBoxTreeItem<>(getMessage("tags.loading")));
+        this.tagsTree.setShowRoot(true);
+        menuReloadTags.setOnAction(event -> loadTagsTree());
+        loadTagsTree();
+    }
 
-        try {
-            tagsTree = TagsCustodian.getTags();
-        } catch (FileNotFoundException e) {
-            showAlert(
-                    Alert.AlertType.ERROR,
-                    getMessage("error.title"),
-                    e.getMessage());
-        } catch (JAXBException jbe) {
-            showAlert(
-                    Alert.AlertType.ERROR,
-                    getMessage("error.title"),
-                    jbe.getMessage(),
-                    getMessage("tags.validation.error.content")
-            );
-        }
+    private void loadTagsTree() {
+        Task<TagsTree> loadingTask = new Task<>() {
+            @Override
+            protected TagsTree call() throws Exception {
+                CompletableFuture<TagsTree> preloaded = StartupLoader.takeTagsTree();
+                if (preloaded == null) return TagsCustodian.getTags();
+                try {
+                    return preloaded.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+                    throw e;
+                }
+            }
+        };
+        loadingTask.setOnSucceeded(event -> {
+            setTagsTree(loadingTask.getValue());
+            buildTagsSearchIndex(loadingTask.getValue());
+            buildRenamePreview(loadingTask.getValue());
+        });
+        loadingTask.setOnFailed(event -> {
+            Throwable e = loadingTask.getException();
+            if (e instanceof JAXBException) {
+                showAlert(
+                        Alert.AlertType.ERROR,
+                        getMessage("error.title"),
+                        e.getMessage(),
+                        getMessage("tags.validation.error.content")
+                );
+            } else {
+                showAlert(
+                        Alert.AlertType.ERROR,
+                        getMessage("error.title"),
+                        e.getMessage());
+            }
+            setTagsTree(null);
+        });
+
+        Thread thread = new Thread(loadingTask, "tags-loader");
+        thread.setDaemon(true);
+        thread.start();
+    }
 
+    private void setTagsTree(TagsTree tagsTree) {
         if (tagsTree == null) {
+            tagsRootItem = null;
             this.tagsTree.setRoot(new CheckBoxTreeItem<>("Error"));
             this.tagsTree.setShowRoot(true);
         } else {
-            CheckBoxTreeItem<Object> rootItem = TagsAdapter.getRootItem(tagsTree);
-            this.tagsTree.setRoot(rootItem);
+            TagsAdapter.remapCheckedValues(tagsTree, checkedTags);
+            tagsRootItem = TagsAdapter.getRootItem(tagsTree, checkedTags);
+            tagsRootItem.setExpanded(true);
+            showTagsSearchResult(tagsSearch.getText());
         }
     }
 
+    private void initTagsSearch() {
+        tagsSearch.textProperty().addListener((observable, oldValue, newValue) -> showTagsSearchResult(newValue));
+    }
+
+    private void buildTagsSearchIndex(TagsTree tagsTree) {
+        TagsSearchIndex previousIndex = tagsSearchIndex;
+        Task<TagsSearchIndex> indexingTask = new Task<>() {
+            @Override
+            protected TagsSearchIndex call() {
+                return previousIndex == null ? TagsSearchIndex.build(tagsTree) : previousIndex.update(tagsTree);
+            }
+        };
+        indexingTask.setOnSucceeded(event -> {
+            tagsSearchIndex = indexingTask.getValue();
+            logger.debug("Tags search index contains {} entries", tagsSearchIndex.size());
+            tagsSearch.setDisable(false);
+            showTagsSearchResult(tagsSearch.getText());
+        });
+        indexingTask.setOnFailed(event -> logger.error("Tags indexing failed", indexingTask.getException()));
+
+        Thread thread = new Thread(indexingTask, "tags-indexer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void showTagsSearchResult(String query) {
+        if (tagsRootItem == null) return;
+
+        if (query == null || query.trim().isEmpty() || tagsSearchIndex == null) {
+            this.tagsTree.setRoot(tagsRootItem);
+        } else {
+            List<TagsSearchIndex.Entry> entries =
+                    tagsSearchIndex.search(query, TAGS_SEARCH_LIMIT, TAGS_SEARCH_BUDGET_NANOS);
+            this.tagsTree.setRoot(TagsAdapter.getFilteredRootItem(entries, checkedTags));
+        }
+        this.tagsTree.setShowRoot(false);
+    }
+
+    private void buildRenamePreview(TagsTree tagsTree) {
+        renamePreviewExecutor.execute(() -> {
+            FilenameHandler filenameHandler =
+                    new FilenameHandler(TagsAdapter.convertToTagsMap(TagsAdapter.getTagNames(tagsTree)));
+            RenamePreview preview = new RenamePreview(filenameHandler);
+            Platform.runLater(() -> {
+                renamePreview = preview;
+                updateRenamePreview();
+            });
+        });
+    }
+
     private void initTagsSelectionListener() {
-        tagsTree.getCheckModel().getCheckedItems().addListener((ListChangeListener<TreeItem<Object>>) c ->
-                newName.setText(tagsTree.getCheckModel().getCheckedItems().toString())
+        checkedTags.addListener((SetChangeListener<Object>) c ->
+                newName.setText(checkedTags.toString())
         );
     }
 
@@ -195,21 +377,18 @@ public class ProcessingEnvironmentController {
     // Images List
     //
     private void initImagesListView() {
+        // the index is updated before the filtered list, so the filter already knows tags of added files
+        images.addListener(this::updateTagsFilterIndex);
+        filteredImages = new FilteredList<>(images);
+        imagesListView.setItems(filteredImages);
         imagesListView.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
 
         initImagesLvKeyListener();
 
+        // cells of the same height are laid out without measuring each of them while scrolling
+        imagesListView.setFixedCellSize(THUMBNAIL_SIZE + 8);
         imagesListView.setCellFactory(lv -> {
-            ListCell<File> cell = new ListCell<>() {
-                @Override
-                protected void updateItem(File item, boolean empty) {
-                    super.updateItem(item, empty);
-                    if (item != null)
-                        setText(item.getName());
-                    else
-                        setText("");
-                }
-            };
+            ListCell<File> cell = new ThumbnailCell(thumbnailLoader);
 
             cell.setOnMouseClicked(e -> {
                 if (!cell.isEmpty()) {
@@ -221,6 +400,44 @@ public class ProcessingEnvironmentController {
         });
     }
 
+    private void updateTagsFilterIndex(ListChangeListener.Change<? extends File> c) {
+        Set<File> removedFiles = new HashSet<>();
+        List<File> addedFiles = new ArrayList<>();
+        while (c.next()) {
+            if (c.wasRemoved()) removedFiles.addAll(c.getRemoved());
+            if (c.wasAdded()) addedFiles.addAll(c.getAddedSubList());
+        }
+
+        // files that are removed and added back (e.g. when the whole list is replaced) keep their entries
+        for (File file : addedFiles) {
+            if (!removedFiles.remove(file)) tagsFilterIndex.add(file);
+        }
+        for (File file : removedFiles) {
+            tagsFilterIndex.remove(file);
+        }
+    }
+
+    private void initImagesFilter() {
+        imagesFilter.textProperty().addListener((observable, oldValue, newValue) -> filterImages(newValue));
+    }
+
+    private void filterImages(String query) {
+        if (query == null || query.trim().isEmpty()) {
+            filteredImages.setPredicate(null);
+            imagesFilter.setStyle("");
+            return;
+        }
+
+        try {
+            filteredImages.setPredicate(tagsFilterIndex.filter(query));
+            imagesFilter.setStyle("");
+        } catch (IllegalArgumentException e) {
+            // the query is being typed, the previous filter stays
+            logger.debug(e.getMessage());
+            imagesFilter.setStyle("-fx-text-fill: red;");
+        }
+    }
+
     private void initImagesLvKeyListener() {
         imagesListView.setOnKeyPressed(event -> {
             switch (event.getCode()) {
@@ -232,6 +449,48 @@ public class ProcessingEnvironmentController {
         });
     }
 
+    //
+    // Rename preview
+    //
+    private void initRenamePreview() {
+        // the preview is recomputed once the user stops changing the selection or the checked tags
+        renamePreviewDelay.setOnFinished(event -> updateRenamePreview());
+        imagesListView.getSelectionModel().getSelectedItems().addListener(
+                (ListChangeListener<File>) c -> renamePreviewDelay.playFromStart());
+        checkedTags.addListener((SetChangeListener<Object>) c -> renamePreviewDelay.playFromStart());
+        renameButton.setOnAction(event -> {
+            if (renamePreview != null) MenuCommands.applyTags(imagesListView, images, renamePreview, getCheckedTagNames());
+        });
+    }
+
+    private List<String> getCheckedTagNames() {
+        return checkedTags.stream()
+                .filter(String.class::isInstance)
+                .map(String.class::cast)
+                .collect(Collectors.toList());
+    }
+
+    private void updateRenamePreview() {
+        if (renamePreview == null) return;
+
+        RenamePreview preview = renamePreview;
+        List<File> files = new ArrayList<>(imagesListView.getSelectionModel().getSelectedItems());
+        List<String> tags = getCheckedTagNames();
+        int generation = renamePreviewGeneration.incrementAndGet();
+        renamePreviewExecutor.execute(() -> {
+            if (generation != renamePreviewGeneration.get()) return; // a newer preview is already requested
+
+            List<String> newNames = preview.getNewNames(files, tags);
+            List<String> rows = new ArrayList<>(files.size());
+            for (int i = 0; i < files.size(); i++) {
+                rows.add(files.get(i).getName() + " \u2192 " + newNames.get(i));
+            }
+            Platform.runLater(() -> {
+                if (generation == renamePreviewGeneration.get()) renamePreviewList.getItems().setAll(rows);
+            });
+        });
+    }
+
     //
     // Image preview
     //
@@ -240,22 +499,68 @@ public class ProcessingEnvironmentController {
         if (focusedItem == null) {
             setDefaultPreviewImage();
         } else if (focusedItem.exists()) {
-            try {
-                setPreviewImage(focusedItem);
-            } catch (MalformedURLException ex) {
-                logger.error(ex.getMessage());
-            }
+            setPreviewImage(focusedItem);
         } else {
             logger.warn("File {} does not exist!", focusedItem);
-            imagesListView.getItems().remove(focusedItem);
+            images.remove(focusedItem);
             showFileNotFoundAlert(focusedItem);
         }
     }
 
-    private void setPreviewImage(File file) throws MalformedURLException {
-        Image image = new Image(file.toURI().toURL().toString());
-        previewImage.setImage(image);
-        logger.debug("Set preview image to {}", file);
+    private void initPreviewLoader() {
+        // previews are decoded at the display size of the preview, not at the full resolution of the image
+        int previewSize = (int) Math.max(previewImage.getFitWidth(), previewImage.getFitHeight());
+        previewLoader = new ThumbnailLoader(previewSize, PREVIEW_CACHE_BYTES, PREVIEW_THREADS, null);
+    }
+
+    /**
+     * This method is used to show the preview of the file and decode previews of the items around it, so they are
+     * shown without delay when the user moves the focus. Pending decodings of files that are still near the focus
+     * are kept (the decoding of the file that became focused shows its preview when it is finished), the others
+     * are cancelled.
+     */
+    private void setPreviewImage(File file) {
+        previewFile = file;
+        Set<File> window = getPreviewWindow(file);
+        for (Iterator<Map.Entry<File, Future<?>>> iterator = pendingPreviews.entrySet().iterator();
+             iterator.hasNext(); ) {
+            Map.Entry<File, Future<?>> pendingPreview = iterator.next();
+            if (!window.contains(pendingPreview.getKey())) {
+                pendingPreview.getValue().cancel(false);
+                iterator.remove();
+            } else if (pendingPreview.getValue().isDone()) {
+                iterator.remove();
+            }
+        }
+
+        for (File item : window) {
+            if (pendingPreviews.containsKey(item)) continue; // being decoded already
+            Future<?> pendingPreview = previewLoader.load(item, image -> {
+                if (!item.equals(previewFile)) return; // prefetched, or the user has already moved on
+                previewImage.setImage(image);
+                logger.debug("Set preview image to {}", item);
+            });
+            if (pendingPreview != null) pendingPreviews.put(item, pendingPreview);
+        }
+    }
+
+    /**
+     * This method is used to return the focused file and the items around it, nearest first
+     *
+     * @param file focused file
+     * @return files whose previews should be decoded
+     */
+    private Set<File> getPreviewWindow(File file) {
+        Set<File> window = new LinkedHashSet<>();
+        window.add(file);
+        List<File> items = imagesListView.getItems();
+        int focusedIndex = imagesListView.getFocusModel().getFocusedIndex();
+        for (int distance = 1; distance <= PREVIEW_PREFETCH; distance++) {
+            for (int index : new int[]{focusedIndex + distance, focusedIndex - distance}) {
+                if (index >= 0 && index < items.size()) window.add(items.get(index));
+            }
+        }
+        return window;
     }
 
     private void initOpenImageButtonListener() {
@@ -272,7 +577,7 @@ public class ProcessingEnvironmentController {
                         }
                     } else {
                         logger.warn("File {} does not exist!", file);
-                        imagesListView.getItems().remove(file);
+                        images.remove(file);
                         showFileNotFoundAlert(file);
                         setDefaultPreviewImage();
                     }
@@ -0,0 +1,63 @@
+package kpi.manfredi.gui.thumbnails;
+
+import javafx.scene.control.ListCell;
+import javafx.scene.image.Image;
+import javafx.scene.image.ImageView;
+
+import java.io.File;
+import java.util.concurrent.Future;
+
+/**
+ * This class is used to show the name of the image together with its thumbnail. The thumbnail is loaded in
+ * the background; loading is cancelled when the cell is reused for another file (e.g. during scrolling).
+ *
+ * @author manfredi
+ */
+public class ThumbnailCell extends ListCell<File> {
+    private final ThumbnailLoader loader;
+    private final ImageView imageView;
+    private Future<?> pendingLoad;
+
+    public ThumbnailCell(ThumbnailLoader loader) {
+        this.loader = loader;
+        this.imageView = new ImageView();
+        imageView.setFitWidth(loader.getSize());
+        imageView.setFitHeight(loader.getSize());
+        imageView.setPreserveRatio(true);
+    }
+
+    @Override
+    protected void updateItem(File item, boolean empty) {
+        File previousItem = getItem();
+        super.updateItem(item, empty);
+
+        if (empty || item == null) {
+            cancelLoading();
+            imageView.setImage(null);
+            setText(null);
+            setGraphic(null);
+            return;
+        }
+
+        setText(item.getName());
+        setGraphic(imageView);
+        if (item.equals(previousItem) && (pendingLoad != null || imageView.getImage() != null)) return;
+
+        cancelLoading();
+        imageView.setImage(null);
+        pendingLoad = loader.load(item, thumbnail -> setThumbnail(item, thumbnail));
+    }
+
+    private void setThumbnail(File item, Image thumbnail) {
+        if (!item.equals(getItem())) return; // the cell was reused before the thumbnail was decoded
+        pendingLoad = null;
+        imageView.setImage(thumbnail);
+    }
+
+    private void cancelLoading() {
+        if (pendingLoad != null) {
+            pendingLoad.cancel(false);
+            pendingLoad = null;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package kpi.manfredi.gui.thumbnails;
+
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import kpi.manfredi.utils.WeightedLruCache;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * This class is used to decode thumbnails of images in the background. Images are decoded at the size of the
+ * thumbnail, so the full-size pixels are never kept. Decoded thumbnails are kept in a memory-bounded cache
+ * keyed by the path and the last modification time of the file. When a {@link ThumbnailStore} is given,
+ * thumbnails are also read from and written to it, so images are decoded only once across sessions.
+ * <br><br>
+ * Previews of images are loaded the same way, with the size of the preview as the thumbnail size.
+ *
+ * @author manfredi
+ */
+public class ThumbnailLoader {
+    private static final Logger logger = LoggerFactory.getLogger(ThumbnailLoader.class);
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final int size;
+    private final WeightedLruCache<Key, Image> cache;
+    private final ExecutorService executor;
+    private final ThumbnailStore store;
+
+    /**
+     * @param size          maximal width and height of thumbnails
+     * @param maxCacheBytes maximal number of bytes of the cached pixels
+     * @param threads       number of decoding threads
+     * @param store         persistent store of thumbnails; {@code null} to keep thumbnails only in memory
+     */
+    public ThumbnailLoader(int size, long maxCacheBytes, int threads, ThumbnailStore store) {
+        this.size = size;
+        this.store = store;
+        this.cache = new WeightedLruCache<>(maxCacheBytes,
+                image -> (long) image.getWidth() * (long) image.getHeight() * 4);
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "thumbnail-loader-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        });
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * This method is used to return the thumbnail of the file. A cached thumbnail is passed to the consumer
+     * right away, otherwise the file is decoded in the background and the consumer is called on the JavaFX
+     * application thread. The consumer is not called when the file can not be decoded.
+     *
+     * @param file     image file
+     * @param consumer consumer of the thumbnail
+     * @return pending decoding that may be cancelled (e.g. when the cell is scrolled out of view);
+     * {@code null} when the thumbnail was cached
+     */
+    public Future<?> load(File file, Consumer<Image> consumer) {
+        Key key = new Key(file);
+        Image image = cache.get(key);
+        if (image != null) {
+            consumer.accept(image);
+            return null;
+        }
+
+        return executor.submit(() -> {
+            Image thumbnail = read(file);
+            if (thumbnail == null) {
+                thumbnail = decode(file);
+                if (thumbnail == null) return;
+                write(file, thumbnail);
+            }
+            Image loadedThumbnail = thumbnail;
+            cache.put(key, loadedThumbnail);
+            Platform.runLater(() -> consumer.accept(loadedThumbnail));
+        });
+    }
+
+    /**
+     * This method is used to decode the image at the thumbnail size
+     *
+     * @param file image file
+     * @return thumbnail; {@code null} when the file can not be decoded
+     */
+    protected Image decode(File file) {
+        Image image = new Image(file.toURI().toString(), size, size, true, true, false);
+        if (image.isError()) {
+            logger.debug("Thumbnail of {} was not decoded: {}", file, image.getException());
+            return null;
+        }
+        return image;
+    }
+
+    /**
+     * This method is used to read the thumbnail from the store
+     *
+     * @param file image file
+     * @return thumbnail; {@code null} when the thumbnail is not stored
+     */
+    private Image read(File file) {
+        if (store == null) return null;
+        ThumbnailStore.Thumbnail stored;
+        try {
+            stored = store.get(file);
+        } catch (IOException e) {
+            logger.warn("Thumbnail of {} was not read from the store: {}", file, e.toString());
+            return null;
+        }
+        if (stored == null) return null;
+
+        WritableImage image = new WritableImage(stored.getWidth(), stored.getHeight());
+        image.getPixelWriter().setPixels(0, 0, stored.getWidth(), stored.getHeight(),
+                PixelFormat.getByteBgraPreInstance(), stored.getPixels(), stored.getWidth() * 4);
+        return image;
+    }
+
+    /**
+     * This method is used to write the decoded thumbnail to the store
+     *
+     * @param file      image file
+     * @param thumbnail decoded thumbnail
+     */
+    private void write(File file, Image thumbnail) {
+        if (store == null) return;
+        int width = (int) thumbnail.getWidth();
+        int height = (int) thumbnail.getHeight();
+        byte[] pixels = new byte[width * height * 4];
+        thumbnail.getPixelReader().getPixels(0, 0, width, height,
+                PixelFormat.getByteBgraPreInstance(), pixels, 0, width * 4);
+        try {
+            store.put(file, width, height, pixels);
+        } catch (IOException e) {
+            logger.warn("Thumbnail of {} was not written to the store: {}", file, e.toString());
+        }
+    }
+
+    /**
+     * This method is used to remove all cached thumbnails
+     */
+    public void clear() {
+        cache.clear();
+    }
+
+    private static final class Key {
+        private final String path;
+        private final long lastModified;
+
+        private Key(File file) {
+            this.path = file.getPath();
+            this.lastModified = file.lastModified();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return lastModified == key.lastModified && path.equals(key.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, lastModified);
+        }
+    }
+}
@@ -0,0 +1,341 @@
+package kpi.manfredi.gui.thumbnails;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * This class is used to keep thumbnails on disk, so images that were seen before are not decoded again.
+ * Pixels of all thumbnails are packed into one data file that is read through a memory mapping; the index file
+ * maps the path of the image to the position of its pixels. A thumbnail is valid while the path, size and last
+ * modification time of the image are the same, stale thumbnails are dropped when they are requested.
+ * <br><br>
+ * At most {@code maxBytes} bytes of pixels are kept: the least recently used thumbnails are evicted. Space of
+ * dropped thumbnails is reclaimed when more than half of the data file is unused, both when the store is opened
+ * and while thumbnails are added. Thumbnails appended after the data file was mapped are read from the file
+ * until enough of them are collected to map the file again.
+ * The index is written back by {@link #save()}; the default stores are also saved on exit.
+ *
+ * @author manfredi
+ */
+public class ThumbnailStore implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(ThumbnailStore.class);
+    private static final Path DEFAULT_DIRECTORY =
+            Paths.get(System.getProperty("user.home"), ".image-handler", "thumbnails");
+    private static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+    private static final String DATA_FILE = "thumbnails.dat";
+    private static final String INDEX_FILE = "thumbnails.idx";
+    private static final int MAGIC = 0x74684931; // "thI1"
+    private static final int BYTES_PER_PIXEL = 4;
+    private static final long REMAP_BYTES = 16L * 1024 * 1024; // unmapped pixels read from the file at most
+    private static final Map<Integer, ThumbnailStore> defaultStores = new HashMap<>();
+
+    private final Path dataFile;
+    private final Path indexFile;
+    private final long maxBytes;
+    private LinkedHashMap<String, Entry> entries;
+    private FileChannel channel;
+    private MappedByteBuffer mapped;
+    private long dataEnd;
+    private long liveBytes;
+    private boolean changed;
+    private boolean full; // the data file can not grow any more, thumbnails are not stored
+
+    public ThumbnailStore(Path directory, long maxBytes) {
+        this.dataFile = directory.resolve(DATA_FILE);
+        this.indexFile = directory.resolve(INDEX_FILE);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * This method is used to return the store of thumbnails of the given size in the home directory of the user
+     *
+     * @param thumbnailSize maximal width and height of thumbnails
+     * @return default store
+     */
+    public static synchronized ThumbnailStore getDefault(int thumbnailSize) {
+        ThumbnailStore store = defaultStores.get(thumbnailSize);
+        if (store == null) {
+            store = new ThumbnailStore(DEFAULT_DIRECTORY.resolve(String.valueOf(thumbnailSize)), DEFAULT_MAX_BYTES);
+            defaultStores.put(thumbnailSize, store);
+            ThumbnailStore savedStore = store;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    savedStore.close();
+                } catch (IOException e) {
+                    logger.warn("Thumbnail store was not saved: {}", e.toString());
+                }
+            }, "thumbnail-store-saver"));
+        }
+        return store;
+    }
+
+    /**
+     * This method is used to return the stored thumbnail of the image
+     *
+     * @param file image file
+     * @return thumbnail; {@code null} when there is no thumbnail or the image was changed
+     * @throws IOException store can not be read
+     */
+    public synchronized Thumbnail get(File file) throws IOException {
+        open();
+        String path = file.getAbsolutePath();
+        Entry entry = entries.get(path);
+        if (entry == null) return null;
+
+        if (entry.size != file.length() || entry.modifiedTime != file.lastModified()) {
+            entries.remove(path);
+            liveBytes -= entry.length();
+            changed = true;
+            return null;
+        }
+
+        long end = entry.offset + entry.length();
+        if (mapped == null || end > mapped.capacity()) {
+            if (mapped != null && dataEnd - mapped.capacity() < REMAP_BYTES) {
+                return new Thumbnail(entry.width, entry.height, read(entry)); // recently added
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, dataEnd);
+        }
+        ByteBuffer pixels = mapped.duplicate();
+        pixels.position((int) entry.offset).limit((int) end);
+        return new Thumbnail(entry.width, entry.height, pixels.slice());
+    }
+
+    /**
+     * This method is used to add the thumbnail of the image. Pixels are appended to the data file.
+     *
+     * @param file   image file
+     * @param width  width of the thumbnail
+     * @param height height of the thumbnail
+     * @param pixels pixels of the thumbnail in the premultiplied BGRA format
+     * @throws IOException store can not be written
+     */
+    public synchronized void put(File file, int width, int height, byte[] pixels) throws IOException {
+        if (pixels.length != width * height * BYTES_PER_PIXEL) {
+            throw new IllegalArgumentException("Pixels do not match size " + width + "x" + height);
+        }
+        open();
+        if (dataEnd + pixels.length > Integer.MAX_VALUE) { // the whole file must fit into one mapping
+            if (!full) logger.warn("Thumbnail store {} is full, new thumbnails are not stored", dataFile);
+            full = true;
+            return;
+        }
+        full = false;
+
+        long offset = dataEnd;
+        ByteBuffer buffer = ByteBuffer.wrap(pixels);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, offset + buffer.position());
+        }
+        dataEnd += pixels.length;
+
+        Entry previous = entries.put(file.getAbsolutePath(),
+                new Entry(file.length(), file.lastModified(), offset, width, height));
+        if (previous != null) liveBytes -= previous.length();
+        liveBytes += pixels.length;
+        changed = true;
+
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (liveBytes > maxBytes && iterator.hasNext()) {
+            liveBytes -= iterator.next().length();
+            iterator.remove();
+        }
+
+        if (dataEnd - liveBytes > liveBytes) { // more than a half of the data file is unused
+            channel.close();
+            channel = null;
+            mapped = null;
+            compact();
+            channel = FileChannel.open(dataFile, CREATE, READ, WRITE);
+            dataEnd = channel.size();
+        }
+    }
+
+    private ByteBuffer read(Entry entry) throws IOException {
+        ByteBuffer pixels = ByteBuffer.allocate((int) entry.length());
+        while (pixels.hasRemaining()) {
+            if (channel.read(pixels, entry.offset + pixels.position()) < 0) throw new EOFException();
+        }
+        pixels.flip();
+        return pixels.asReadOnlyBuffer();
+    }
+
+    public synchronized int size() throws IOException {
+        open();
+        return entries.size();
+    }
+
+    /**
+     * This method is used to write the index to the file if the store was changed. Entries are written from the
+     * least recently used, so the order of eviction survives restarts. The file is replaced atomically.
+     *
+     * @throws IOException index can not be written
+     */
+    public synchronized void save() throws IOException {
+        if (!changed) return;
+        channel.force(false);
+        writeIndex();
+        changed = false;
+    }
+
+    /**
+     * This method is used to save the index and release the data file. The store is opened again when it is used.
+     *
+     * @throws IOException index can not be written
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel == null) return;
+        try {
+            save();
+        } finally {
+            channel.close();
+            channel = null;
+            mapped = null;
+            entries = null;
+        }
+    }
+
+    private void open() throws IOException {
+        if (channel != null) return;
+
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+        liveBytes = 0;
+        Files.createDirectories(dataFile.toAbsolutePath().getParent());
+        if (Files.exists(indexFile) && Files.exists(dataFile)) loadIndex(Files.size(dataFile));
+
+        long fileSize = Files.exists(dataFile) ? Files.size(dataFile) : 0;
+        if (fileSize - liveBytes > liveBytes) compact(); // more than a half of the data file is unused
+
+        channel = FileChannel.open(dataFile, CREATE, READ, WRITE);
+        dataEnd = channel.size();
+    }
+
+    private void loadIndex(long fileSize) {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (input.readInt() != MAGIC) return;
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = input.readUTF();
+                Entry entry = new Entry(input.readLong(), input.readLong(), input.readLong(),
+                        input.readInt(), input.readInt());
+                if (entry.offset + entry.length() > fileSize) continue; // pixels were not written completely
+                entries.put(path, entry);
+                liveBytes += entry.length();
+            }
+        } catch (IOException | RuntimeException e) {
+            // a damaged store is rebuilt
+            logger.warn("Thumbnail index {} is damaged and will be rebuilt: {}", indexFile, e.toString());
+            entries.clear();
+            liveBytes = 0;
+        }
+    }
+
+    /**
+     * This method is used to copy pixels of the indexed thumbnails into a new data file, dropping unused space
+     */
+    private void compact() throws IOException {
+        Path temporary = dataFile.resolveSibling(DATA_FILE + ".tmp");
+        try (FileChannel source = FileChannel.open(dataFile, CREATE, READ);
+             FileChannel target = FileChannel.open(temporary, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            long position = 0;
+            for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+                Entry entry = mapEntry.getValue();
+                long length = entry.length();
+                long copied = 0;
+                while (copied < length) {
+                    copied += source.transferTo(entry.offset + copied, length - copied, target);
+                }
+                mapEntry.setValue(new Entry(entry.size, entry.modifiedTime, position, entry.width, entry.height));
+                position += length;
+            }
+        }
+        Files.move(temporary, dataFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        writeIndex();
+        logger.debug("Thumbnail store {} was compacted to {} bytes", dataFile, liveBytes);
+    }
+
+    private void writeIndex() throws IOException {
+        Path temporary = indexFile.resolveSibling(INDEX_FILE + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temporary)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(entries.size());
+            for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+                Entry entry = mapEntry.getValue();
+                output.writeUTF(mapEntry.getKey());
+                output.writeLong(entry.size);
+                output.writeLong(entry.modifiedTime);
+                output.writeLong(entry.offset);
+                output.writeInt(entry.width);
+                output.writeInt(entry.height);
+            }
+        }
+        Files.move(temporary, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * This class is used to represent stored pixels of a thumbnail
+     */
+    public static class Thumbnail {
+        private final int width;
+        private final int height;
+        private final ByteBuffer pixels;
+
+        private Thumbnail(int width, int height, ByteBuffer pixels) {
+            this.width = width;
+            this.height = height;
+            this.pixels = pixels;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        /**
+         * @return read-only pixels in the premultiplied BGRA format, mapped from the data file
+         */
+        public ByteBuffer getPixels() {
+            return pixels;
+        }
+    }
+
+    private static class Entry {
+        private final long size;
+        private final long modifiedTime;
+        private final long offset;
+        private final int width;
+        private final int height;
+
+        private Entry(long size, long modifiedTime, long offset, int width, int height) {
+            this.size = size;
+            this.modifiedTime = modifiedTime;
+            this.offset = offset;
+            this.width = width;
+            this.height = height;
+        }
+
+        private long length() {
+            return (long) width * height * BYTES_PER_PIXEL;
+        }
+    }
+}
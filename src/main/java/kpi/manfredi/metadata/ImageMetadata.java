@@ -0,0 +1,67 @@
+package kpi.manfredi.metadata;
+
+import kpi.manfredi.utils.ImageType;
+
+import java.util.List;
+
+/**
+ * This class is used to contain metadata of an image file
+ *
+ * @author manfredi
+ */
+public class ImageMetadata {
+    public static final int UNKNOWN_SIZE = -1;
+    public static final long UNKNOWN_DATE = Long.MIN_VALUE;
+
+    private final ImageType type;
+    private final int width;
+    private final int height;
+    private final long dateTaken;
+    private final List<String> keywords;
+
+    /**
+     * @param type      format of the image or {@code null} when the file is not a recognized image
+     * @param width     width in pixels or {@link #UNKNOWN_SIZE}
+     * @param height    height in pixels or {@link #UNKNOWN_SIZE}
+     * @param dateTaken date of the original (EXIF) in milliseconds or {@link #UNKNOWN_DATE}
+     * @param keywords  keywords embedded into the file
+     */
+    public ImageMetadata(ImageType type, int width, int height, long dateTaken, List<String> keywords) {
+        this.type = type;
+        this.width = width;
+        this.height = height;
+        this.dateTaken = dateTaken;
+        this.keywords = List.copyOf(keywords);
+    }
+
+    public ImageType getType() {
+        return type;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public long getDateTaken() {
+        return dateTaken;
+    }
+
+    public List<String> getKeywords() {
+        return keywords;
+    }
+
+    @Override
+    public String toString() {
+        return "ImageMetadata{" +
+                "type=" + type +
+                ", width=" + width +
+                ", height=" + height +
+                ", dateTaken=" + dateTaken +
+                ", keywords=" + keywords +
+                '}';
+    }
+}
@@ -0,0 +1,228 @@
+package kpi.manfredi.metadata;
+
+import kpi.manfredi.utils.ImageType;
+import kpi.manfredi.utils.ImageTypeDetector;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class is used to keep metadata of image files on disk, so files that were seen before are not read
+ * again. An entry is valid while the path, size and last modification time of the file are the same.
+ * <br><br>
+ * The cache file is loaded when the cache is used for the first time. At most {@code maxEntries} entries are
+ * kept: the least recently used entries are evicted. The file is written back by {@link #save()} only when
+ * the cache was changed; the default cache is also saved on exit.
+ * <br><br>
+ * Checking the type of a file reads only its header, so an entry may contain only the type until the whole
+ * metadata is requested.
+ *
+ * @author manfredi
+ */
+public class MetadataCache {
+    private static final Logger logger = LoggerFactory.getLogger(MetadataCache.class);
+    private static final Path DEFAULT_CACHE_FILE =
+            Paths.get(System.getProperty("user.home"), ".image-handler", "metadata.bin");
+    private static final int DEFAULT_MAX_ENTRIES = 200_000;
+    private static final int MAGIC = 0x6D644331; // "mdC1"
+    private static final byte NO_TYPE = -1;
+    private static MetadataCache defaultCache;
+
+    private final Path file;
+    private final int maxEntries;
+    private LinkedHashMap<String, Entry> entries;
+    private boolean changed;
+
+    public MetadataCache(Path file, int maxEntries) {
+        this.file = file;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * This method is used to return the cache stored in the home directory of the user
+     *
+     * @return default cache
+     */
+    public static synchronized MetadataCache getDefault() {
+        if (defaultCache == null) {
+            defaultCache = new MetadataCache(DEFAULT_CACHE_FILE, DEFAULT_MAX_ENTRIES);
+            MetadataCache cache = defaultCache;
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    cache.save();
+                } catch (IOException e) {
+                    logger.warn("Metadata cache was not saved: {}", e.toString());
+                }
+            }, "metadata-cache-saver"));
+        }
+        return defaultCache;
+    }
+
+    /**
+     * This method is used to return format of the image file. Only the header of the file is read when the type
+     * is not cached.
+     *
+     * @param file file to check
+     * @return format of the image; {@code null} when the file is not a recognized image
+     * @throws IOException file can not be read
+     */
+    public ImageType getType(File file) throws IOException {
+        Key key = new Key(file);
+        Entry entry = get(key);
+        if (entry != null) return entry.type;
+
+        ImageType type = ImageTypeDetector.detect(file);
+        put(key, new Entry(key.size, key.modifiedTime, type, null));
+        return type;
+    }
+
+    /**
+     * This method is used to return metadata of the image file
+     *
+     * @param file image file
+     * @return metadata of the file
+     * @throws IOException file can not be read
+     */
+    public ImageMetadata getMetadata(File file) throws IOException {
+        Key key = new Key(file);
+        Entry entry = get(key);
+        if (entry != null && entry.metadata != null) return entry.metadata;
+
+        ImageMetadata metadata = MetadataReader.read(file);
+        put(key, new Entry(key.size, key.modifiedTime, metadata.getType(), metadata));
+        return metadata;
+    }
+
+    private synchronized Entry get(Key key) {
+        Entry entry = getEntries().get(key.path);
+        return entry != null && entry.size == key.size && entry.modifiedTime == key.modifiedTime ? entry : null;
+    }
+
+    private synchronized void put(Key key, Entry entry) {
+        getEntries().put(key.path, entry);
+        changed = true;
+    }
+
+    public synchronized int size() {
+        return getEntries().size();
+    }
+
+    private LinkedHashMap<String, Entry> getEntries() {
+        if (entries == null) {
+            entries = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > maxEntries;
+                }
+            };
+            if (Files.exists(file)) load();
+        }
+        return entries;
+    }
+
+    private void load() {
+        ImageType[] types = ImageType.values();
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (input.readInt() != MAGIC) return;
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = input.readUTF();
+                long size = input.readLong();
+                long modifiedTime = input.readLong();
+                byte typeOrdinal = input.readByte();
+                ImageType type = typeOrdinal == NO_TYPE ? null : types[typeOrdinal];
+                ImageMetadata metadata = null;
+                if (input.readBoolean()) {
+                    int width = input.readInt();
+                    int height = input.readInt();
+                    long dateTaken = input.readLong();
+                    int keywordCount = input.readUnsignedShort();
+                    List<String> keywords = new ArrayList<>(keywordCount);
+                    for (int k = 0; k < keywordCount; k++) {
+                        keywords.add(input.readUTF());
+                    }
+                    metadata = new ImageMetadata(type, width, height, dateTaken, keywords);
+                }
+                entries.put(path, new Entry(size, modifiedTime, type, metadata));
+            }
+        } catch (IOException | RuntimeException e) {
+            // a damaged cache is rebuilt
+            logger.warn("Metadata cache {} is damaged and will be rebuilt: {}", file, e.toString());
+            entries.clear();
+        }
+    }
+
+    /**
+     * This method is used to write the cache to the file if it was changed. Entries are written from the least
+     * recently used, so the order of eviction survives restarts. The file is replaced atomically.
+     *
+     * @throws IOException cache can not be written
+     */
+    public synchronized void save() throws IOException {
+        if (!changed) return;
+
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(temporary)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(entries.size());
+            for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+                Entry entry = mapEntry.getValue();
+                output.writeUTF(mapEntry.getKey());
+                output.writeLong(entry.size);
+                output.writeLong(entry.modifiedTime);
+                output.writeByte(entry.type == null ? NO_TYPE : entry.type.ordinal());
+                output.writeBoolean(entry.metadata != null);
+                if (entry.metadata != null) {
+                    output.writeInt(entry.metadata.getWidth());
+                    output.writeInt(entry.metadata.getHeight());
+                    output.writeLong(entry.metadata.getDateTaken());
+                    List<String> keywords = entry.metadata.getKeywords();
+                    int keywordCount = Math.min(keywords.size(), 0xFFFF);
+                    output.writeShort(keywordCount);
+                    for (int k = 0; k < keywordCount; k++) {
+                        output.writeUTF(keywords.get(k));
+                    }
+                }
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        changed = false;
+    }
+
+    private static class Key {
+        private final String path;
+        private final long size;
+        private final long modifiedTime;
+
+        private Key(File file) {
+            this.path = file.getAbsolutePath();
+            this.size = file.length();
+            this.modifiedTime = file.lastModified();
+        }
+    }
+
+    private static class Entry {
+        private final long size;
+        private final long modifiedTime;
+        private final ImageType type;
+        private final ImageMetadata metadata;
+
+        private Entry(long size, long modifiedTime, ImageType type, ImageMetadata metadata) {
+            this.size = size;
+            this.modifiedTime = modifiedTime;
+            this.type = type;
+            this.metadata = metadata;
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package kpi.manfredi.metadata;
+
+import com.adobe.internal.xmp.XMPConst;
+import com.adobe.internal.xmp.XMPException;
+import com.adobe.internal.xmp.XMPMeta;
+import com.drew.imaging.ImageMetadataReader;
+import com.drew.imaging.ImageProcessingException;
+import com.drew.imaging.jpeg.JpegMetadataReader;
+import com.drew.imaging.jpeg.JpegSegmentMetadataReader;
+import com.drew.metadata.Metadata;
+import com.drew.metadata.exif.ExifReader;
+import com.drew.metadata.exif.ExifSubIFDDirectory;
+import com.drew.metadata.iptc.IptcDirectory;
+import com.drew.metadata.iptc.IptcReader;
+import com.drew.metadata.xmp.XmpDirectory;
+import com.drew.metadata.xmp.XmpReader;
+import kpi.manfredi.utils.ImageType;
+import kpi.manfredi.utils.ImageTypeDetector;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * This class is used to read metadata of image files. Only headers and metadata segments are read, pixels are
+ * not decoded. Segments of JPEG files are parsed only by the readers of EXIF, IPTC and XMP.
+ *
+ * @author manfredi
+ */
+public abstract class MetadataReader {
+    private static final List<JpegSegmentMetadataReader> JPEG_SEGMENT_READERS =
+            List.of(new ExifReader(), new IptcReader(), new XmpReader());
+
+    /**
+     * This method is used to read metadata of the file
+     *
+     * @param file image file
+     * @return metadata; only the type is {@code null} for files that are not recognized images
+     * @throws IOException file can not be read
+     */
+    public static ImageMetadata read(File file) throws IOException {
+        ImageType type = ImageTypeDetector.detect(file);
+        if (type == null) {
+            return new ImageMetadata(null, ImageMetadata.UNKNOWN_SIZE, ImageMetadata.UNKNOWN_SIZE,
+                    ImageMetadata.UNKNOWN_DATE, List.of());
+        }
+
+        int width = ImageMetadata.UNKNOWN_SIZE;
+        int height = ImageMetadata.UNKNOWN_SIZE;
+        try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+            Iterator<ImageReader> readers = input == null ? null : ImageIO.getImageReaders(input);
+            if (readers != null && readers.hasNext()) {
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(input, true, true);
+                    width = reader.getWidth(0);
+                    height = reader.getHeight(0);
+                } finally {
+                    reader.dispose();
+                }
+            }
+        }
+
+        long dateTaken = ImageMetadata.UNKNOWN_DATE;
+        List<String> keywords = new ArrayList<>();
+        try {
+            Metadata metadata = type == ImageType.JPEG
+                    ? JpegMetadataReader.readMetadata(file, JPEG_SEGMENT_READERS)
+                    : ImageMetadataReader.readMetadata(file);
+            ExifSubIFDDirectory exif = metadata.getFirstDirectoryOfType(ExifSubIFDDirectory.class);
+            Date date = exif == null ? null : exif.getDateOriginal();
+            if (date != null) dateTaken = date.getTime();
+
+            for (IptcDirectory iptc : metadata.getDirectoriesOfType(IptcDirectory.class)) {
+                List<String> iptcKeywords = iptc.getKeywords();
+                if (iptcKeywords != null) keywords.addAll(iptcKeywords);
+            }
+            for (XmpDirectory xmp : metadata.getDirectoriesOfType(XmpDirectory.class)) {
+                addSubjects(xmp.getXMPMeta(), keywords);
+            }
+        } catch (ImageProcessingException e) {
+            // the format has no metadata supported by the library
+        }
+        return new ImageMetadata(type, width, height, dateTaken, keywords);
+    }
+
+    /**
+     * This method is used to add keywords kept in XMP as the "{@code dc:subject}" bag. Keywords that are already
+     * in the list (e.g. the same keywords in IPTC) are not added twice.
+     *
+     * @param xmp      XMP packet
+     * @param keywords list to add keywords into
+     */
+    private static void addSubjects(XMPMeta xmp, List<String> keywords) {
+        if (xmp == null) return;
+        try {
+            int count = xmp.countArrayItems(XMPConst.NS_DC, "subject");
+            for (int i = 1; i <= count; i++) {
+                String subject = xmp.getArrayItem(XMPConst.NS_DC, "subject", i).getValue();
+                if (subject != null && !keywords.contains(subject)) keywords.add(subject);
+            }
+        } catch (XMPException e) {
+            // a broken packet does not prevent other metadata from reading
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package kpi.manfredi.monitoring;
+
+import kpi.manfredi.renaming.DirectoryNameIndex;
+import kpi.manfredi.utils.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+
+/**
+ * This class is used to rename files that already exist in a directory, the same way as {@link MonitoringService}
+ * renames new files. The directory is walked in the calling thread while files are renamed by a pool of workers.
+ * Files are passed to the workers as they are read from the directory. The queue of files waiting for the workers
+ * is bounded (the walker renames a file itself when the queue is full), and only names of sub-directories waiting
+ * for the walk are kept, so memory use does not depend on the number of files.
+ * <br><br>
+ * Renamed files may be read from the directory again while it is walked. The new name of a file is recorded
+ * before the file is moved, so such files are skipped and not counted; the record is dropped when the file is
+ * read again or the directory is finished.
+ */
+public class BatchTagger {
+    private static final Logger logger = LoggerFactory.getLogger(BatchTagger.class);
+    private static final int QUEUE_SIZE_PER_WORKER = 64;
+    private static final AtomicInteger workerCount = new AtomicInteger();
+    private static final Pattern RENAMED_NAME = Pattern.compile("^#[^\\s#]+( #[^\\s#]+)*( \\d{3,})?$");
+
+    private final FilenameHandler filenameHandler;
+    private final int workers;
+    private final AtomicInteger scanned = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger renamed = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private long elapsedNanos;
+
+    public BatchTagger(FilenameHandler filenameHandler, int workers) {
+        this.filenameHandler = filenameHandler;
+        this.workers = workers;
+    }
+
+    /**
+     * This method is used to rename untagged files of the directory and wait until all of them are renamed.
+     * Hidden files and directories are skipped.
+     *
+     * @param dir       directory
+     * @param recursive {@code true} to rename files of sub-directories too
+     * @throws IOException directory can not be read
+     */
+    public void tag(Path dir, boolean recursive) throws IOException {
+        long start = System.nanoTime();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(workers * QUEUE_SIZE_PER_WORKER), runnable -> {
+            Thread thread = new Thread(runnable, "batch-tagger-" + workerCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        try {
+            walk(dir, recursive, executor);
+        } finally {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                executor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+            elapsedNanos = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * This method is used to pass untagged files of the directory to the workers while the directory is read,
+     * then walk its sub-directories
+     */
+    private void walk(Path dir, boolean recursive, ThreadPoolExecutor executor) throws IOException {
+        List<Path> directories = new ArrayList<>();
+        Set<Path> newPaths = ConcurrentHashMap.newKeySet(); // new paths of the files of this walk
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path child : stream) {
+                if (child.getFileName().toString().startsWith(".")) continue;
+                if (newPaths.remove(child)) continue; // renamed by this walk
+                if (Files.isDirectory(child, NOFOLLOW_LINKS)) {
+                    if (recursive) directories.add(child);
+                } else if (Files.isRegularFile(child, NOFOLLOW_LINKS)) {
+                    scanned.incrementAndGet();
+                    if (isTagged(child)) {
+                        skipped.incrementAndGet();
+                    } else {
+                        executor.execute(() -> rename(child, newPaths));
+                    }
+                }
+            }
+        }
+
+        for (Path directory : directories) {
+            try {
+                walk(directory, true, executor);
+            } catch (IOException e) {
+                logger.warn("Directory {} was not read: {}", directory, e.toString());
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} when the file is already named by tags (maybe with a number) or has no extension
+     */
+    private static boolean isTagged(Path file) {
+        String name = file.getFileName().toString();
+        int indexOfLastDot = name.lastIndexOf('.');
+        return indexOfLastDot <= 0 || RENAMED_NAME.matcher(name.substring(0, indexOfLastDot)).matches();
+    }
+
+    /**
+     * This method is used to rename the file the same way as {@link FilenameHandler#handleFile(File)} does,
+     * recording the new path before the file is moved
+     *
+     * @param file     file to rename
+     * @param newPaths new paths of the renamed files
+     */
+    private void rename(Path file, Set<Path> newPaths) {
+        long start = System.nanoTime();
+        try {
+            String name = file.getFileName().toString();
+            int indexOfLastDot = name.lastIndexOf('.');
+            String baseName = filenameHandler.handleFilename(name.substring(0, indexOfLastDot),
+                    filenameHandler.readKeywords(file.toFile()));
+            DirectoryNameIndex nameIndex = DirectoryNameIndex.of(file.toAbsolutePath().getParent());
+            while (true) {
+                String newName = nameIndex.reserve(baseName, name.substring(indexOfLastDot));
+                Path newPath = file.resolveSibling(newName);
+                newPaths.add(newPath);
+                try {
+                    nameIndex.moveReserved(file, newName);
+                    logger.debug("File '{}' was renamed to '{}'", file, newName);
+                    break;
+                } catch (FileAlreadyExistsException e) {
+                    newPaths.remove(newPath); // the name was taken from outside
+                } catch (IOException e) {
+                    newPaths.remove(newPath);
+                    throw e;
+                }
+            }
+            renamed.incrementAndGet();
+        } catch (IOException | RuntimeException e) {
+            failed.incrementAndGet();
+            logger.warn("File '{}' was not renamed: {}", file, e.toString());
+        } finally {
+            latencies.record((System.nanoTime() - start) / 1_000);
+        }
+    }
+
+    public int getScanned() {
+        return scanned.get();
+    }
+
+    public int getSkipped() {
+        return skipped.get();
+    }
+
+    public int getRenamed() {
+        return renamed.get();
+    }
+
+    public int getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * @return latencies of renaming of files in microseconds
+     */
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+}
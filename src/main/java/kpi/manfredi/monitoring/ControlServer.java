@@ -0,0 +1,170 @@
+package kpi.manfredi.monitoring;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class is used to control the running {@link MonitoringService} through a socket that accepts connections
+ * from the local machine only. The protocol is line based: a client sends a command and gets one line of reply
+ * that starts with {@code OK} or {@code ERROR}. Commands are:
+ * <ul>
+ * <li>{@code status} - state of the service, number of watched directories, pending, renamed and failed files</li>
+ * <li>{@code pause} and {@code resume} - suspend and continue renaming; new files are still detected</li>
+ * <li>{@code reload} - read tags again, the next batches are renamed with new tags</li>
+ * <li>{@code rescan <path>} - rename files of the path that were not renamed yet; the path must be watched by
+ * the service</li>
+ * <li>{@code stop} - rename files that were already detected and stop the service</li>
+ * </ul>
+ * Each connection is served by its own thread, so the service keeps monitoring and renaming meanwhile and one
+ * client does not block the others. Connections that send no command for {@value #IDLE_TIMEOUT_MILLIS} ms are
+ * closed.
+ */
+public class ControlServer implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(ControlServer.class);
+    static final int IDLE_TIMEOUT_MILLIS = 60_000;
+    private static final AtomicInteger connectionCount = new AtomicInteger();
+
+    private final MonitoringService service;
+    private final Callable<FilenameHandler> tagsLoader;
+    private final ServerSocket serverSocket;
+    private int idleTimeoutMillis = IDLE_TIMEOUT_MILLIS;
+
+    /**
+     * @param service    service to control
+     * @param port       port on the loopback interface; {@code 0} to pick a free port
+     * @param tagsLoader loader of the handler with actual tags (used by {@code reload})
+     * @throws IOException port can not be bound
+     */
+    public ControlServer(MonitoringService service, int port, Callable<FilenameHandler> tagsLoader)
+            throws IOException {
+        this.service = service;
+        this.tagsLoader = tagsLoader;
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    void setIdleTimeoutMillis(int idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+    }
+
+    /**
+     * This method is used to start accepting connections in the background
+     */
+    public void start() {
+        Thread thread = new Thread(this::acceptConnections, "control-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void acceptConnections() {
+        while (!serverSocket.isClosed()) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (SocketException e) {
+                if (!serverSocket.isClosed()) logger.warn("Control connection failed: {}", e.toString());
+                continue;
+            } catch (IOException e) {
+                logger.warn("Control connection failed: {}", e.toString());
+                continue;
+            }
+
+            Thread thread = new Thread(() -> serve(socket),
+                    "control-connection-" + connectionCount.incrementAndGet());
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            socket.setSoTimeout(idleTimeoutMillis);
+            serveCommands(socket);
+        } catch (SocketTimeoutException e) {
+            logger.info("Idle control connection was closed");
+        } catch (IOException e) {
+            logger.warn("Control connection failed: {}", e.toString());
+        }
+    }
+
+    private void serveCommands(Socket socket) throws IOException {
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        PrintWriter writer = new PrintWriter(new BufferedWriter(
+                new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8)), true);
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.trim().isEmpty()) continue;
+            writer.println(execute(line.trim()));
+        }
+    }
+
+    /**
+     * This method is used to execute the command
+     *
+     * @param line command with its argument
+     * @return reply
+     */
+    String execute(String line) {
+        int indexOfSpace = line.indexOf(' ');
+        String command = (indexOfSpace < 0 ? line : line.substring(0, indexOfSpace)).toLowerCase(Locale.ROOT);
+        String argument = indexOfSpace < 0 ? "" : line.substring(indexOfSpace + 1).trim();
+        try {
+            switch (command) {
+                case "status":
+                    return "OK " + getStatus();
+                case "pause":
+                    service.pause();
+                    return "OK paused";
+                case "resume":
+                    service.resume();
+                    return "OK resumed";
+                case "reload":
+                    service.setFilenameHandler(tagsLoader.call());
+                    return "OK tags reloaded";
+                case "rescan":
+                    if (argument.isEmpty()) return "ERROR path is missing";
+                    Path path = Paths.get(argument);
+                    if (!Files.exists(path)) return "ERROR path not found: " + argument;
+                    return "OK " + service.rescan(path) + " files passed to renaming";
+                case "stop":
+                    service.stop();
+                    return "OK stopping after " + service.getPendingFiles() + " pending files";
+                default:
+                    return "ERROR unknown command: " + command;
+            }
+        } catch (Exception e) {
+            logger.warn("Command '{}' failed: {}", line, e.toString());
+            return "ERROR " + e.getMessage();
+        }
+    }
+
+    private String getStatus() {
+        String state = service.isStopping() ? "stopping" : service.isPaused() ? "paused" : "running";
+        return String.format("%s, directories: %d, pending: %d, renamed: %d, failed: %d", state,
+                service.getWatchedDirectories(), service.getPendingFiles(),
+                service.getRenamedFiles(), service.getFailedFiles());
+    }
+}
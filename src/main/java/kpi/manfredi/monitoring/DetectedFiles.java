@@ -0,0 +1,41 @@
+package kpi.manfredi.monitoring;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * This class is used to represent files detected by {@link MonitoringService} together: new files of one
+ * directory or files found by a rescan
+ */
+public final class DetectedFiles {
+    private final List<Path> files;
+    private final Instant detectedAt;
+    private final long detectedNanos;
+
+    DetectedFiles(List<Path> files) {
+        this.files = List.copyOf(files);
+        this.detectedAt = Instant.now();
+        this.detectedNanos = System.nanoTime();
+    }
+
+    public List<Path> getFiles() {
+        return files;
+    }
+
+    public Instant getDetectedAt() {
+        return detectedAt;
+    }
+
+    /**
+     * @return value of {@link System#nanoTime()} when the files were detected
+     */
+    long getDetectedNanos() {
+        return detectedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return files.toString();
+    }
+}
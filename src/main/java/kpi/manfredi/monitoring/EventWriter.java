@@ -0,0 +1,134 @@
+package kpi.manfredi.monitoring;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class is used to write rename events as JSON lines (one JSON object per line) in the background, so
+ * renaming does not wait for the output. Events are serialized and written by a separate thread through a buffer
+ * that is flushed whenever there are no more events in the queue, so consumers get events without a delay.
+ * Producers wait only when the queue of {@code capacity} events is full and the writing thread is alive: events
+ * are dropped once the thread died, and {@link #close()} waits for it at most 10 seconds.
+ */
+public class EventWriter implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(EventWriter.class);
+    private static final int DEFAULT_CAPACITY = 8192;
+    private static final long OFFER_TIMEOUT_MILLIS = 100; // liveness of the writing thread is checked so often
+    private static final long CLOSE_TIMEOUT_MILLIS = 10_000;
+    private static final RenameEvent END = new RenameEvent(Paths.get(""), null, List.of(), Instant.EPOCH, 0, 0,
+            "end");
+
+    private final Writer writer;
+    private final BlockingQueue<RenameEvent> queue;
+    private final Thread thread;
+    private volatile boolean failed;
+    private volatile boolean dropping;
+    private volatile boolean finished; // all events before the end were taken
+
+    /**
+     * @param writer   destination of events; it is closed by {@link #close()}
+     * @param capacity maximal number of events waiting for writing
+     */
+    public EventWriter(Writer writer, int capacity) {
+        this.writer = writer instanceof BufferedWriter ? writer : new BufferedWriter(writer);
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.thread = new Thread(this::writeEvents, "event-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * This method is used to open the writer of events to the file or to the standard output
+     *
+     * @param target path to file (events are appended) or {@code "-"} for the standard output
+     * @return event writer
+     * @throws IOException file can not be opened
+     */
+    public static EventWriter open(String target) throws IOException {
+        OutputStream output = target.equals("-")
+                ? new FileOutputStream(FileDescriptor.out)
+                : Files.newOutputStream(Paths.get(target), StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        return new EventWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), DEFAULT_CAPACITY);
+    }
+
+    /**
+     * This method is used to pass the event to writing
+     *
+     * @param event rename event
+     */
+    public void write(RenameEvent event) {
+        if (dropping) return;
+        try {
+            while (!queue.offer(event, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (!thread.isAlive()) {
+                    if (!dropping) logger.error("Event writer stopped, events are dropped");
+                    dropping = true;
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * This method is used to write events that were passed before and close the destination
+     *
+     * @throws IOException destination can not be closed, or not all events were written
+     */
+    @Override
+    public void close() throws IOException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_TIMEOUT_MILLIS);
+        try {
+            if (thread.isAlive() && queue.offer(END, CLOSE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                thread.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            writer.close();
+        }
+        if (thread.isAlive()) {
+            throw new IOException("Events were not written within " + CLOSE_TIMEOUT_MILLIS + " ms");
+        }
+        if (!finished || failed || dropping) {
+            throw new IOException("Not all events were written, see the log for details");
+        }
+    }
+
+    private void writeEvents() {
+        while (true) {
+            RenameEvent event;
+            try {
+                event = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (event == END) {
+                finished = true;
+                return;
+            }
+            if (failed) continue; // events are dropped, so producers are not blocked
+
+            try {
+                writer.write(event.toJson());
+                writer.write('\n');
+                if (queue.isEmpty()) writer.flush();
+            } catch (IOException | RuntimeException e) {
+                logger.error("Events are not written any more: {}", e.toString());
+                failed = true;
+            }
+        }
+    }
+}
@@ -1,22 +1,79 @@
 package kpi.manfredi.monitoring;
 
+import kpi.manfredi.metadata.MetadataCache;
+import kpi.manfredi.renaming.DirectoryNameIndex;
+import kpi.manfredi.renaming.RenameTransaction;
+import kpi.manfredi.tags.AliasDictionary;
+import kpi.manfredi.tags.OffHeapAliasDictionary;
 import kpi.manfredi.tags.TagsAdapter;
 import kpi.manfredi.tags.map.Tag;
 import kpi.manfredi.tags.map.TagsMap;
 import kpi.manfredi.utils.FileManipulation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.FileSystemException;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 public class FilenameHandler {
-    private final HashMap<String, Tag> reversedTagsMap;
+    private static final Logger logger = LoggerFactory.getLogger(FilenameHandler.class);
+    private static final Pattern TAGGED_NAME = Pattern.compile("^#[a-zA-Z_\\d]+( #[a-zA-Z_\\d]+)+$");
+    private final AliasDictionary aliasDictionary;
+    private boolean readingKeywords;
 
     public FilenameHandler(TagsMap tagsMap) {
-        reversedTagsMap = TagsAdapter.getReversedTagsMap(tagsMap);
+        this(TagsAdapter.getAliasDictionary(tagsMap));
+    }
+
+    public FilenameHandler(AliasDictionary aliasDictionary) {
+        this.aliasDictionary = aliasDictionary;
+    }
+
+    /**
+     * This method is used to enable an additional source of tags: keywords embedded into images (IPTC and XMP).
+     * Keywords are matched with aliases the same way as words of filenames.
+     *
+     * @param readingKeywords {@code true} to read keywords of files
+     */
+    public void setReadingKeywords(boolean readingKeywords) {
+        this.readingKeywords = readingKeywords;
+    }
+
+    public boolean isReadingKeywords() {
+        return readingKeywords;
+    }
+
+    /**
+     * This method is used to check if the file is already named by tags (like {@code "#animal #food"})
+     *
+     * @param filename name of file without extension
+     * @return {@code true} when the name consists of at least two tags
+     */
+    public static boolean isTagged(String filename) {
+        return TAGGED_NAME.matcher(filename).matches();
+    }
+
+    /**
+     * This method is used to read keywords embedded into the file when reading of keywords is enabled
+     *
+     * @param file image file
+     * @return keywords of the file; an empty list when reading is disabled or the file has no readable keywords
+     */
+    public List<String> readKeywords(File file) {
+        if (!readingKeywords) return List.of();
+        try {
+            return MetadataCache.getDefault().getMetadata(file).getKeywords();
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Keywords of {} were not read: {}", file, e.toString());
+            return List.of();
+        }
     }
 
     /**
@@ -27,11 +84,84 @@ public class FilenameHandler {
      * @throws FileSystemException   file renaming failed
      */
     public File handleFile(File file) throws IOException {
+        return handleFile(file, readKeywords(file));
+    }
+
+    /**
+     * This method is used to rename file by changing certain words or phrases of its name and keywords into tags
+     * in the correct order
+     *
+     * @param file     file to rename
+     * @param keywords keywords of the file
+     * @throws FileNotFoundException file not found
+     * @throws FileSystemException   file renaming failed
+     */
+    public File handleFile(File file, List<String> keywords) throws IOException {
+        return renameFile(file, handleFilename(getBaseName(file.getName()), keywords));
+    }
+
+    /**
+     * This method is used to rename file to the given base name, adding a number when the name is taken
+     *
+     * @param file     file to rename
+     * @param baseName new name of the file without extension
+     * @throws FileNotFoundException file not found
+     * @throws FileSystemException   file renaming failed
+     */
+    public File renameFile(File file, String baseName) throws IOException {
+        if (file.exists()) {
+            return FileManipulation.renameFileUntilSuccessful(file, baseName);
+        } else {
+            throw new FileNotFoundException("File " + file.getName() + " not found!");
+        }
+    }
+
+    /**
+     * This method is used to plan renaming of the file within the batch. The new name is reserved in the index
+     * of the directory, so other files of the batch get different names.
+     *
+     * @param file        file to rename
+     * @param transaction batch renaming
+     * @return planned path of the file
+     * @throws FileNotFoundException file not found
+     * @throws IOException           directory can not be read
+     */
+    public Path planFile(File file, RenameTransaction transaction) throws IOException {
+        return planFile(file, readKeywords(file), transaction);
+    }
+
+    /**
+     * This method is used to plan renaming of the file within the batch using its name and keywords
+     *
+     * @param file        file to rename
+     * @param keywords    keywords of the file
+     * @param transaction batch renaming
+     * @return planned path of the file
+     * @throws FileNotFoundException file not found
+     * @throws IOException           directory can not be read
+     */
+    public Path planFile(File file, List<String> keywords, RenameTransaction transaction) throws IOException {
+        return planFile(file, handleFilename(getBaseName(file.getName()), keywords), transaction);
+    }
+
+    /**
+     * This method is used to plan renaming of the file within the batch to the given base name
+     *
+     * @param file        file to rename
+     * @param baseName    new name of the file without extension
+     * @param transaction batch renaming
+     * @return planned path of the file
+     * @throws FileNotFoundException file not found
+     * @throws IOException           directory can not be read
+     */
+    public Path planFile(File file, String baseName, RenameTransaction transaction) throws IOException {
         String name = file.getName();
         if (file.exists()) {
-            name = name.substring(0, name.lastIndexOf('.'));
-            name = handleFilename(name);
-            return FileManipulation.renameFileUntilSuccessful(file, name);
+            int indexOfLastDot = name.lastIndexOf('.');
+            DirectoryNameIndex nameIndex = DirectoryNameIndex.of(file.getAbsoluteFile().toPath().getParent());
+            Path target = file.toPath().resolveSibling(nameIndex.reserve(baseName, name.substring(indexOfLastDot)));
+            transaction.add(file.toPath(), target);
+            return target;
         } else {
             throw new FileNotFoundException("File " + name + " not found!");
         }
@@ -44,9 +174,49 @@ public class FilenameHandler {
      * @return transformed filename
      */
     public String handleFilename(String filename) {
+        return assembleString(findTags(filename));
+    }
+
+    /**
+     * This method is used to transform filename by changing certain words or phrases of the filename and
+     * keywords into tags in the correct order
+     *
+     * @param filename name of file
+     * @param keywords keywords of file
+     * @return transformed filename
+     */
+    public String handleFilename(String filename, List<String> keywords) {
+        return assembleFilename(findTagNames(filename, keywords));
+    }
+
+    /**
+     * This method is used to find tags of the filename and keywords
+     *
+     * @param filename name of file
+     * @param keywords keywords of file
+     * @return names of found tags without repetitions in the correct order; an empty list when no tag was found
+     */
+    public List<String> findTagNames(String filename, List<String> keywords) {
+        List<Tag> tags = findTags(filename);
+        for (String keyword : keywords) {
+            tags.addAll(findTags(keyword));
+        }
+        return getSortedNames(tags);
+    }
+
+    /**
+     * This method is used to find tags in the text (filename or keyword)
+     *
+     * @param text text
+     * @return list of found tags
+     */
+    private List<Tag> findTags(String text) {
+        if (aliasDictionary instanceof OffHeapAliasDictionary) {
+            return extractTags((OffHeapAliasDictionary) aliasDictionary, text);
+        }
 
         List<Tag> resultList = new ArrayList<>();
-        List<String> elements = new ArrayList<>(List.of(filename.split("[ _+\\-().,#]+")));
+        List<String> elements = new ArrayList<>(List.of(text.split("[ _+\\-().,#]+")));
 
         while (!elements.isEmpty()) {
             Tag resultTag = extractLongestTag(elements);
@@ -57,7 +227,7 @@ public class FilenameHandler {
             }
         }
 
-        return assembleString(resultList);
+        return resultList;
     }
 
     /**
@@ -72,7 +242,7 @@ public class FilenameHandler {
         int j = 1;
         Tag resultTag = null;
         while (j <= elements.size()) {
-            Tag tempTag = reversedTagsMap.get(String.join("_", elements.subList(0, j)));
+            Tag tempTag = aliasDictionary.get(String.join("_", elements.subList(0, j)));
             if (tempTag != null) {
                 resultTag = tempTag;
                 indexOfLastElement = j;
@@ -85,6 +255,112 @@ public class FilenameHandler {
         return resultTag;
     }
 
+    /**
+     * This method is used to find tags in the filename working directly with its UTF-8 bytes, so no strings are
+     * created for words and their combinations. It gives the same result as {@link #extractLongestTag(List)}
+     * applied repeatedly to the list of words.
+     *
+     * @param dictionary off-heap dictionary of aliases
+     * @param filename   name of file
+     * @return list of found tags
+     */
+    private List<Tag> extractTags(OffHeapAliasDictionary dictionary, String filename) {
+        byte[] bytes = filename.getBytes(StandardCharsets.UTF_8);
+
+        // bounds of words, the same as String.split() with the separators regex gives
+        int[] starts = new int[bytes.length / 2 + 2];
+        int[] ends = new int[starts.length];
+        int count = 0;
+        int i = 0;
+        while (i < bytes.length) {
+            int start = i;
+            while (i < bytes.length && !isSeparator(bytes[i])) i++;
+            if (i > start || start == 0) {
+                starts[count] = start;
+                ends[count++] = i;
+            }
+            while (i < bytes.length && isSeparator(bytes[i])) i++;
+        }
+        if (count == 1 && ends[0] == 0) {
+            count = 0; // filename consists of separators only
+        }
+
+        int[] elements = new int[count];
+        for (int k = 0; k < count; k++) elements[k] = k;
+
+        List<Tag> result = new ArrayList<>();
+        byte[] candidate = new byte[bytes.length + count];
+        while (count > 0) {
+            int longest = 0;
+            int tagId = -1;
+            int length = 0;
+            int limit = Math.min(count, dictionary.getMaxParts());
+            for (int j = 0; j < limit; j++) {
+                if (j > 0) candidate[length++] = '_';
+                int element = elements[j];
+                int elementLength = ends[element] - starts[element];
+                System.arraycopy(bytes, starts[element], candidate, length, elementLength);
+                length += elementLength;
+
+                int id = dictionary.findTagId(candidate, 0, length);
+                if (id != -1) {
+                    tagId = id;
+                    longest = j + 1;
+                }
+            }
+
+            if (tagId != -1) {
+                result.add(dictionary.getTag(tagId));
+                // the same as List.removeAll(subList(0, longest)) in extractLongestTag() does
+                int w = 0;
+                for (int r = 0; r < count; r++) {
+                    if (!containsEqual(bytes, starts, ends, elements, longest, elements[r])) {
+                        elements[w++] = elements[r];
+                    }
+                }
+                count = w;
+            } else {
+                System.arraycopy(elements, 1, elements, 0, --count);
+            }
+        }
+        return result;
+    }
+
+    private static boolean containsEqual(byte[] bytes, int[] starts, int[] ends,
+                                         int[] elements, int size, int element) {
+        int length = ends[element] - starts[element];
+        for (int k = 0; k < size; k++) {
+            int other = elements[k];
+            if (ends[other] - starts[other] == length
+                    && Arrays.equals(bytes, starts[other], ends[other], bytes, starts[element], ends[element])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String getBaseName(String name) {
+        int indexOfLastDot = name.lastIndexOf('.');
+        return indexOfLastDot < 0 ? name : name.substring(0, indexOfLastDot);
+    }
+
+    private static boolean isSeparator(byte b) {
+        switch (b) {
+            case ' ':
+            case '_':
+            case '+':
+            case '-':
+            case '(':
+            case ')':
+            case '.':
+            case ',':
+            case '#':
+                return true;
+            default:
+                return false;
+        }
+    }
+
     /**
      * This method is used to retrieve a string from a list of tags in the correct order
      *
@@ -92,14 +368,27 @@ public class FilenameHandler {
      * @return string from tags; "{@code #tagme}" string when list is empty
      */
     private String assembleString(List<Tag> tags) {
-        if (tags == null || tags.isEmpty()) {
-            return "#tagme";
-        }
+        return assembleFilename(getSortedNames(tags));
+    }
 
+    private static List<String> getSortedNames(List<Tag> tags) {
         HashSet<Tag> uniqueTags = new HashSet<>(tags);
-        List<Tag> sortedTags = uniqueTags.stream()
+        return uniqueTags.stream()
                 .sorted(Comparator.comparingInt(Tag::getPriority))
+                .map(Tag::getName)
                 .collect(Collectors.toList());
-        return sortedTags.stream().map(Tag::getName).collect(Collectors.joining(" "));
+    }
+
+    /**
+     * This method is used to retrieve a filename from names of tags
+     *
+     * @param tagNames names of tags in the correct order
+     * @return string from tags; "{@code #tagme}" string when list is empty
+     */
+    public static String assembleFilename(List<String> tagNames) {
+        if (tagNames.isEmpty()) {
+            return "#tagme";
+        }
+        return String.join(" ", tagNames);
     }
 }
@@ -1,30 +1,65 @@
 package kpi.manfredi.monitoring;
 
+import kpi.manfredi.renaming.DirectoryNameIndex;
+import kpi.manfredi.renaming.RenameTransaction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
 import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
 import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
 
+/**
+ * This class is used to watch directories for new files and rename them by tags. Detected files and results of
+ * renaming are published as {@link Flow.Publisher}s, so other consumers (e.g. indexing or thumbnails) may follow
+ * them; renaming itself is one of subscribers of detected files. Every subscriber has its own bounded buffer and
+ * gets events as it requests them. When the buffer of a subscriber is full, events for it are dropped, so a slow
+ * subscriber never stalls the watcher.
+ */
 public class MonitoringService implements Runnable {
+    private static final Logger logger = LoggerFactory.getLogger(MonitoringService.class);
+    private static final int RENAME_WORKERS = 4;
+    private static final AtomicInteger renameWorkerCount = new AtomicInteger();
+    private static final AtomicInteger publisherThreadCount = new AtomicInteger();
 
     private final WatchService watcher;
+    private final Path root; // real path of the watched directory
     private final Map<WatchKey, Path> keys;
     private final boolean recursive;
     private final boolean trace;
-    private final FilenameHandler filenameHandler;
-    private final ArrayList<Path> changedWithinService;
+    private final Set<Path> changedWithinService;
+    private final ExecutorService batchExecutor;
+    private final ExecutorService renameWorkers;
     private final ArrayList<String> ignoreTypes;
     private final DateTimeFormatter timeFormatter;
+    private final SubmissionPublisher<DetectedFiles> detectedFiles;
+    private final SubmissionPublisher<RenameEvent> renameEvents;
+    private final RenamePipeline renamePipeline;
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final AtomicInteger pendingFiles = new AtomicInteger();
+    private final AtomicInteger renamedFiles = new AtomicInteger();
+    private final AtomicInteger failedFiles = new AtomicInteger();
+    private final Object pauseLock = new Object();
+    private volatile FilenameHandler filenameHandler;
+    private volatile EventWriter eventWriter;
+    private volatile boolean stopping;
+    private volatile long settleMillis = TimeUnit.SECONDS.toMillis(5);
+    private boolean paused; // guarded by pauseLock
 
     /**
      * Register the given directory with the WatchService
@@ -67,16 +102,27 @@ public class MonitoringService implements Runnable {
             throws IOException {
 
         this.recursive = recursive;
-        this.keys = new HashMap<>();
+        this.root = dir.toRealPath();
+        this.keys = new ConcurrentHashMap<>();
         this.filenameHandler = filenameHandler;
-        this.changedWithinService = new ArrayList<>();
+        this.changedWithinService = ConcurrentHashMap.newKeySet();
+        this.batchExecutor = Executors.newSingleThreadExecutor(runnable -> newThread(runnable, "rename-batches"));
+        this.renameWorkers = Executors.newFixedThreadPool(RENAME_WORKERS, runnable -> newThread(runnable,
+                "rename-worker-" + renameWorkerCount.incrementAndGet()));
         this.watcher = FileSystems.getDefault().newWatchService();
         this.timeFormatter = DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm:ss");
         this.ignoreTypes = new ArrayList<>();
         ignoreTypes.add(".crdownload"); // todo read ignore types from file
 
+        // delivery to a slow subscriber occupies only its own thread
+        ExecutorService publisherExecutor = Executors.newCachedThreadPool(runnable -> newThread(runnable,
+                "monitoring-events-" + publisherThreadCount.incrementAndGet()));
+        this.detectedFiles = new SubmissionPublisher<>(publisherExecutor, Flow.defaultBufferSize());
+        this.renameEvents = new SubmissionPublisher<>(publisherExecutor, Flow.defaultBufferSize());
+        this.renamePipeline = new RenamePipeline();
+        detectedFiles.subscribe(renamePipeline);
+
         if (recursive) {
-            // todo pass notifications about events (not handle within this class)
             System.out.format("Scanning %s ...\n", dir);
             registerAll(dir);
             System.out.println("Done.");
@@ -101,9 +147,12 @@ public class MonitoringService implements Runnable {
             WatchKey key;
             try {
                 key = watcher.take();
-                TimeUnit.SECONDS.sleep(5);
+                TimeUnit.MILLISECONDS.sleep(settleMillis);
             } catch (InterruptedException x) {
+                shutdown();
                 return;
+            } catch (ClosedWatchServiceException x) {
+                break; // stopped by stop()
             }
 
             Path dir = keys.get(key);
@@ -112,11 +161,10 @@ public class MonitoringService implements Runnable {
                 continue;
             }
 
+            List<Path> newFiles = new ArrayList<>();
             for (WatchEvent<?> event : key.pollEvents()) {
                 WatchEvent.Kind<?> kind = event.kind();
 
-                // todo extract checks into method
-
                 // No matter what events the key has registered for, it is possible to receive an OVERFLOW even
                 if (kind == OVERFLOW) {
                     continue;
@@ -131,40 +179,29 @@ public class MonitoringService implements Runnable {
                     continue;
                 }
 
-                String filename = name.getFileName().toString();
-                String type = filename.substring(filename.lastIndexOf('.'));
-                if (ignoreTypes.contains(type)) {
-                    continue; // ignore some types
-                }
-
-                if (filename.replace(type, "").matches("^#[a-zA-Z_\\d]+( #[a-zA-Z_\\d]+)+$")) {
-                    // todo add numbers in the end
-                    // todo merge with existing tags map
-                    continue; // file already fine named
-                }
-
-                try {
-                    File handledFile = filenameHandler.handleFile(child.toFile());
-                    changedWithinService.add(handledFile.toPath());
-                    System.out.format(timeFormatter.format(LocalDateTime.now()) +
-                            "\nNew file: %s\nRenamed to: %s\n\n", child, handledFile.getPath());
-                } catch (IOException e) {
-                    System.err.println(e.getMessage());
-                }
-
                 // if directory is created, and watching recursively, then
                 // register it and its sub-directories
-                if (recursive && (kind == ENTRY_CREATE)) {
-                    try {
-                        if (Files.isDirectory(child, NOFOLLOW_LINKS)) {
+                if (Files.isDirectory(child, NOFOLLOW_LINKS)) {
+                    if (recursive && (kind == ENTRY_CREATE)) {
+                        try {
                             registerAll(child);
+                        } catch (IOException x) {
+                            // ignore to keep sample readable
                         }
-                    } catch (IOException x) {
-                        // ignore to keep sample readable
                     }
+                    continue;
+                }
+
+                // todo add numbers in the end
+                // todo merge with existing tags map
+                if (isToRename(name.getFileName().toString())) {
+                    newFiles.add(child);
                 }
             }
 
+            // files are renamed by the workers, so reading of their metadata does not delay next events
+            publish(newFiles);
+
             // reset key and remove from set if directory no longer accessible
             boolean valid = key.reset();
             if (!valid) {
@@ -176,5 +213,435 @@ public class MonitoringService implements Runnable {
                 }
             }
         }
+        shutdown();
+    }
+
+    /**
+     * This method is used to check if the file should be renamed: files of ignored types and files that are already
+     * fine named are skipped
+     *
+     * @param filename name of file
+     * @return {@code true} when the file should be renamed
+     */
+    private boolean isToRename(String filename) {
+        int indexOfLastDot = filename.lastIndexOf('.');
+        if (indexOfLastDot <= 0) return false;
+        return !ignoreTypes.contains(filename.substring(indexOfLastDot))
+                && !FilenameHandler.isTagged(filename.substring(0, indexOfLastDot));
+    }
+
+    /**
+     * This method is used to publish detected files to the subscribers. Files are never dropped for renaming: when
+     * the buffer of the rename pipeline is full, they are passed to renaming directly.
+     *
+     * @param files detected files
+     */
+    private void publish(List<Path> files) {
+        if (files.isEmpty()) return;
+        pendingFiles.addAndGet(files.size());
+        try {
+            detectedFiles.offer(new DetectedFiles(files), (subscriber, event) -> {
+                if (subscriber == renamePipeline) {
+                    submit(event);
+                } else {
+                    onDrop(subscriber, event);
+                }
+                return false;
+            });
+        } catch (IllegalStateException e) {
+            pendingFiles.addAndGet(-files.size()); // the service is stopped
+            throw e;
+        }
+    }
+
+    /**
+     * This method is used to pass the files to the batch executor, so they are renamed in a single batch
+     *
+     * @param event detected files
+     */
+    private void submit(DetectedFiles event) {
+        List<Path> files = event.getFiles();
+        try {
+            batchExecutor.execute(() -> {
+                try {
+                    awaitResumed();
+                    renameFiles(files, event.getDetectedNanos(), event.getDetectedAt());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    pendingFiles.addAndGet(-files.size());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            pendingFiles.addAndGet(-files.size());
+            throw e;
+        }
+    }
+
+    private void onDrop(Flow.Subscriber<?> subscriber, Object event) {
+        if (droppedEvents.incrementAndGet() % 1000 == 1) {
+            logger.warn("Subscriber {} is too slow, event {} was dropped ({} events dropped in total)",
+                    subscriber, event, droppedEvents.get());
+        }
+    }
+
+    /**
+     * This method is used to return the publisher of detected files. Files already named by tags and files of
+     * ignored types are not published.
+     *
+     * @return publisher of detected files
+     */
+    public Flow.Publisher<DetectedFiles> getDetectedFiles() {
+        return detectedFiles;
+    }
+
+    /**
+     * This method is used to return the publisher of results of renaming
+     *
+     * @return publisher of rename events
+     */
+    public Flow.Publisher<RenameEvent> getRenameEvents() {
+        return renameEvents;
+    }
+
+    /**
+     * @return number of events that were dropped because subscribers did not keep up
+     */
+    public long getDroppedEvents() {
+        return droppedEvents.get();
+    }
+
+    /**
+     * This method is used to rename files of the path that were not renamed yet (e.g. files that were created while
+     * the service was stopped or paused). Sub-directories are scanned when the service monitors recursively.
+     *
+     * @param path directory or file watched by the service
+     * @return number of files passed to renaming
+     * @throws IOException              path can not be read
+     * @throws IllegalArgumentException path is not watched by the service
+     */
+    public int rescan(Path path) throws IOException {
+        if (stopping) throw new IllegalStateException("Monitoring service is stopping");
+        if (!isWatched(path)) throw new IllegalArgumentException("Path is not watched: " + path);
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(path, recursive ? Integer.MAX_VALUE : 1)) {
+            files = walk.filter(file -> Files.isRegularFile(file, NOFOLLOW_LINKS))
+                    .filter(file -> isToRename(file.getFileName().toString()))
+                    .collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        publish(files);
+        return files.size();
+    }
+
+    /**
+     * This method is used to check if the path is within the watched directory (the directory itself or its file
+     * when the service does not watch recursively). Links are resolved, so they do not lead outside.
+     *
+     * @param path directory or file
+     * @return {@code true} when the path is watched
+     * @throws IOException path can not be resolved
+     */
+    public boolean isWatched(Path path) throws IOException {
+        Path realPath = path.toRealPath();
+        if (!realPath.startsWith(root)) return false;
+        return recursive || realPath.equals(root)
+                || realPath.getParent().equals(root) && !Files.isDirectory(realPath, NOFOLLOW_LINKS);
+    }
+
+    /**
+     * This method is used to suspend renaming. New files are still detected and wait for {@link #resume()}.
+     * A stopping service is not paused.
+     */
+    public void pause() {
+        synchronized (pauseLock) {
+            if (stopping) return;
+            paused = true;
+        }
+    }
+
+    /**
+     * This method is used to continue renaming suspended by {@link #pause()}
+     */
+    public void resume() {
+        synchronized (pauseLock) {
+            paused = false;
+            pauseLock.notifyAll();
+        }
+    }
+
+    public boolean isPaused() {
+        synchronized (pauseLock) {
+            return paused;
+        }
+    }
+
+    private void awaitResumed() throws InterruptedException {
+        synchronized (pauseLock) {
+            while (paused) pauseLock.wait();
+        }
+    }
+
+    /**
+     * This method is used to stop monitoring. Files that were already detected are renamed (renaming is resumed
+     * if it was paused), then {@link #run()} returns.
+     *
+     * @throws IOException watch service can not be closed
+     */
+    public void stop() throws IOException {
+        stopping = true;
+        resume();
+        watcher.close();
+    }
+
+    public boolean isStopping() {
+        return stopping;
+    }
+
+    /**
+     * This method is used to change the time the watcher waits after a signal, so files that are still being
+     * written are not renamed (e.g. in tests)
+     *
+     * @param settleMillis time in milliseconds
+     */
+    void setSettleMillis(long settleMillis) {
+        this.settleMillis = settleMillis;
+    }
+
+    /**
+     * This method is used to replace the handler of filenames (e.g. after tags were reloaded). Batches that are
+     * already being renamed are finished with the previous handler.
+     *
+     * @param filenameHandler new handler
+     */
+    public void setFilenameHandler(FilenameHandler filenameHandler) {
+        this.filenameHandler = filenameHandler;
+    }
+
+    /**
+     * This method is used to enable the structured output: results of renaming are passed to the writer as events
+     * instead of being printed to the console
+     *
+     * @param eventWriter writer of events; {@code null} to print results to the console
+     */
+    public void setEventWriter(EventWriter eventWriter) {
+        this.eventWriter = eventWriter;
+    }
+
+    public int getWatchedDirectories() {
+        return keys.size();
+    }
+
+    /**
+     * @return number of detected files that wait for renaming or are being renamed
+     */
+    public int getPendingFiles() {
+        return pendingFiles.get();
+    }
+
+    public int getRenamedFiles() {
+        return renamedFiles.get();
+    }
+
+    public int getFailedFiles() {
+        return failedFiles.get();
+    }
+
+    /**
+     * This method is used to finish renaming of the files that were already detected and stop the workers.
+     * Renaming is resumed first, because paused batches would never finish otherwise.
+     */
+    private void shutdown() {
+        stopping = true;
+        resume();
+        detectedFiles.close();
+        try {
+            renamePipeline.awaitCompletion();
+            batchExecutor.shutdown();
+            batchExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            batchExecutor.shutdown();
+            Thread.currentThread().interrupt();
+        }
+        renameWorkers.shutdown();
+        renameEvents.close();
+    }
+
+    private static Thread newThread(Runnable runnable, String name) {
+        Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    /**
+     * This method is used to read keywords of the files in parallel by the rename workers
+     *
+     * @param files new files
+     * @return keywords of each file; empty lists when reading of keywords is disabled
+     */
+    private List<List<String>> readKeywords(List<Path> files, FilenameHandler filenameHandler) {
+        List<List<String>> keywords = new ArrayList<>(files.size());
+        if (!filenameHandler.isReadingKeywords()) {
+            for (int i = 0; i < files.size(); i++) keywords.add(List.of());
+            return keywords;
+        }
+
+        List<Future<List<String>>> futures = new ArrayList<>(files.size());
+        for (Path file : files) {
+            futures.add(renameWorkers.submit(() -> filenameHandler.readKeywords(file.toFile())));
+        }
+        for (Future<List<String>> future : futures) {
+            try {
+                keywords.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                keywords.add(List.of());
+            } catch (ExecutionException e) {
+                keywords.add(List.of());
+            }
+        }
+        return keywords;
+    }
+
+    /**
+     * This method is used to rename new files of one watch key in a single journaled batch. Files that were not
+     * renamed within the batch (e.g. their new names were taken from outside) are renamed one by one.
+     *
+     * @param detectedFiles new files
+     * @param detectedNanos value of {@link System#nanoTime()} when the files were detected
+     * @param detectedAt    time when the files were detected
+     */
+    private void renameFiles(List<Path> detectedFiles, long detectedNanos, Instant detectedAt) {
+        long startNanos = System.nanoTime();
+        long queuedNanos = startNanos - detectedNanos;
+        FilenameHandler filenameHandler = this.filenameHandler;
+        List<List<String>> detectedKeywords = readKeywords(detectedFiles, filenameHandler);
+        RenameTransaction transaction = new RenameTransaction();
+        List<Path> newFiles = new ArrayList<>();
+        List<List<String>> tags = new ArrayList<>();
+        for (int i = 0; i < detectedFiles.size(); i++) {
+            Path child = detectedFiles.get(i);
+            String name = child.getFileName().toString();
+            int indexOfLastDot = name.lastIndexOf('.');
+            List<String> tagNames = filenameHandler.findTagNames(
+                    indexOfLastDot < 0 ? name : name.substring(0, indexOfLastDot), detectedKeywords.get(i));
+            try {
+                // registered before the move, so the watcher never sees the new name as a new file
+                changedWithinService.add(filenameHandler.planFile(child.toFile(),
+                        FilenameHandler.assembleFilename(tagNames), transaction));
+                newFiles.add(child);
+                tags.add(tagNames);
+            } catch (IOException e) {
+                report(new RenameEvent(child, null, List.of(), detectedAt, queuedNanos, 0, e.toString()));
+            }
+        }
+        if (newFiles.isEmpty()) return;
+
+        RenameTransaction.Result result;
+        try {
+            result = transaction.commit();
+        } catch (IOException e) {
+            for (int i = 0; i < newFiles.size(); i++) {
+                Path child = newFiles.get(i);
+                changedWithinService.remove(transaction.getTarget(i));
+                DirectoryNameIndex.release(transaction.getTarget(i));
+                report(new RenameEvent(child, null, List.of(), detectedAt, queuedNanos, 0, e.toString()));
+            }
+            return;
+        }
+
+        for (int i = 0; i < newFiles.size(); i++) {
+            Path child = newFiles.get(i);
+            if (result.isRenamed(i)) {
+                Path target = transaction.getTarget(i);
+                report(new RenameEvent(child, target, tags.get(i), detectedAt, queuedNanos, result.getMoveNanos(i),
+                        null));
+                continue;
+            }
+
+            changedWithinService.remove(transaction.getTarget(i));
+            DirectoryNameIndex.release(transaction.getTarget(i));
+            long renameStart = System.nanoTime();
+            try {
+                File handledFile = filenameHandler.renameFile(child.toFile(),
+                        FilenameHandler.assembleFilename(tags.get(i)));
+                changedWithinService.add(handledFile.toPath());
+                report(new RenameEvent(child, handledFile.toPath(), tags.get(i), detectedAt, queuedNanos,
+                        System.nanoTime() - renameStart, null));
+            } catch (IOException e) {
+                report(new RenameEvent(child, null, List.of(), detectedAt, queuedNanos,
+                        System.nanoTime() - renameStart, e.toString()));
+            }
+        }
+    }
+
+    /**
+     * This method is used to count the result of renaming and pass it to the event writer or print it
+     *
+     * @param event result of renaming
+     */
+    private void report(RenameEvent event) {
+        if (event.isRenamed()) {
+            renamedFiles.incrementAndGet();
+        } else {
+            failedFiles.incrementAndGet();
+        }
+
+        renameEvents.offer(event, (subscriber, dropped) -> {
+            onDrop(subscriber, dropped);
+            return false;
+        });
+
+        EventWriter writer = eventWriter;
+        if (writer != null) {
+            writer.write(event);
+        } else if (event.isRenamed()) {
+            System.out.format(timeFormatter.format(LocalDateTime.now()) +
+                    "\nNew file: %s\nRenamed to: %s\n\n", event.getSource(), event.getTarget());
+        } else {
+            System.err.println(event.getError());
+        }
+    }
+
+    /**
+     * This class is used to pass detected files to renaming. Files wait for renaming in the queue of the batch
+     * executor, so the pipeline requests all events at once and its buffer does not fill up.
+     */
+    private class RenamePipeline implements Flow.Subscriber<DetectedFiles> {
+        private final CountDownLatch completed = new CountDownLatch(1);
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(DetectedFiles event) {
+            submit(event);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            logger.error("Renaming of detected files failed", throwable);
+            completed.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            completed.countDown();
+        }
+
+        /**
+         * This method is used to wait until all published files were passed to the batch executor
+         */
+        private void awaitCompletion() throws InterruptedException {
+            completed.await();
+        }
+
+        @Override
+        public String toString() {
+            return "rename pipeline";
+        }
     }
 }
@@ -0,0 +1,155 @@
+package kpi.manfredi.monitoring;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * This class is used to represent the result of renaming of a file detected by {@link MonitoringService}
+ */
+public final class RenameEvent {
+    private final Path source;
+    private final Path target;
+    private final List<String> tags;
+    private final Instant detectedAt;
+    private final long queuedNanos;
+    private final long renameNanos;
+    private final String error;
+
+    /**
+     * @param source      detected file
+     * @param target      renamed file; {@code null} when renaming failed
+     * @param tags        names of tags that were found for the file; an empty list when no tag was found
+     * @param detectedAt  time when the file was detected
+     * @param queuedNanos time from detection to the start of renaming
+     * @param renameNanos time of renaming of this file (its own move, not the whole batch)
+     * @param error       cause of the failure (e.g. {@link Exception#toString()}, messages of some exceptions are
+     *                    {@code null}); {@code null} when the file was renamed
+     */
+    public RenameEvent(Path source, Path target, List<String> tags, Instant detectedAt, long queuedNanos,
+                       long renameNanos, String error) {
+        this.source = source;
+        this.target = target;
+        this.tags = List.copyOf(tags);
+        this.detectedAt = detectedAt;
+        this.queuedNanos = queuedNanos;
+        this.renameNanos = renameNanos;
+        this.error = error;
+    }
+
+    public Path getSource() {
+        return source;
+    }
+
+    public Path getTarget() {
+        return target;
+    }
+
+    public Instant getDetectedAt() {
+        return detectedAt;
+    }
+
+    public long getQueuedNanos() {
+        return queuedNanos;
+    }
+
+    public long getRenameNanos() {
+        return renameNanos;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public boolean isRenamed() {
+        return target != null;
+    }
+
+    /**
+     * This method is used to return tags that were found for the file. A fallback name like {@code #tagme} is
+     * not a found tag.
+     *
+     * @return names of tags in the order of the new name; an empty list when renaming failed
+     */
+    public List<String> getTags() {
+        return target == null ? List.of() : tags;
+    }
+
+    /**
+     * This method is used to represent the event as a JSON object in one line, like
+     * <pre>
+     * {"time":"2020-05-01T10:15:30Z","source":"/dir/cat.jpg","target":"/dir/#animal.jpg","tags":["#animal"],
+     * "queuedMs":5000.125,"renameMs":0.250,"outcome":"renamed"}
+     * </pre>
+     *
+     * @return JSON object
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder(256);
+        json.append("{\"time\":");
+        appendString(json, detectedAt.toString());
+        json.append(",\"source\":");
+        appendString(json, source.toString());
+        json.append(",\"target\":");
+        appendString(json, target == null ? null : target.toString());
+        json.append(",\"tags\":[");
+        List<String> tags = getTags();
+        for (int i = 0; i < tags.size(); i++) {
+            if (i > 0) json.append(',');
+            appendString(json, tags.get(i));
+        }
+        json.append("],\"queuedMs\":").append(toMillis(queuedNanos));
+        json.append(",\"renameMs\":").append(toMillis(renameNanos));
+        json.append(",\"outcome\":").append(isRenamed() ? "\"renamed\"" : "\"failed\"");
+        if (error != null) {
+            json.append(",\"error\":");
+            appendString(json, error);
+        }
+        return json.append('}').toString();
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        if (value == null) {
+            json.append("null");
+            return;
+        }
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+            }
+        }
+        json.append('"');
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+}
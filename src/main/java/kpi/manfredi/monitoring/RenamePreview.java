@@ -0,0 +1,69 @@
+package kpi.manfredi.monitoring;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class is used to show how files would be named by {@link FilenameHandler} together with additional
+ * (e.g. checked by the user) tags. New names are remembered, so when the list of files changes only the added
+ * files are handled; all names are handled again only when the additional tags change.
+ *
+ * @author manfredi
+ */
+public class RenamePreview {
+    private final FilenameHandler filenameHandler;
+    private Map<File, String> newNames;
+    private List<String> tags;
+
+    public RenamePreview(FilenameHandler filenameHandler) {
+        this.filenameHandler = filenameHandler;
+        this.newNames = new HashMap<>();
+        this.tags = List.of();
+    }
+
+    /**
+     * This method is used to return new names of the files. Names of the files that are not in the list anymore
+     * are forgotten.
+     *
+     * @param files files to rename
+     * @param tags  tags to be added to the tags found in the names of the files
+     * @return new names (with extensions) in the order of the files
+     */
+    public synchronized List<String> getNewNames(List<File> files, List<String> tags) {
+        if (!tags.equals(this.tags)) {
+            this.tags = List.copyOf(tags);
+            newNames.clear();
+        }
+
+        Map<File, String> currentNames = new HashMap<>(files.size() * 2);
+        List<String> result = new ArrayList<>(files.size());
+        for (File file : files) {
+            String newName = currentNames.get(file);
+            if (newName == null) newName = newNames.get(file);
+            if (newName == null) newName = getNewName(file, this.tags);
+            currentNames.put(file, newName);
+            result.add(newName);
+        }
+        newNames = currentNames;
+        return result;
+    }
+
+    /**
+     * This method is used to handle the name of the file; additional tags are matched with aliases the same way
+     * as keywords of the file
+     *
+     * @param file file to rename
+     * @param tags additional tags
+     * @return new name with the extension of the file
+     */
+    protected String getNewName(File file, List<String> tags) {
+        String name = file.getName();
+        int indexOfLastDot = name.lastIndexOf('.');
+        String baseName = indexOfLastDot == -1 ? name : name.substring(0, indexOfLastDot);
+        String extension = indexOfLastDot == -1 ? "" : name.substring(indexOfLastDot);
+        return filenameHandler.handleFilename(baseName, tags) + extension;
+    }
+}
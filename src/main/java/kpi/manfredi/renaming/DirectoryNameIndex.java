@@ -0,0 +1,370 @@
+package kpi.manfredi.renaming;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class is used to keep names of files in a directory, so free names can be found without asking
+ * the file system about each candidate.
+ * <br><br>
+ * Names are listed once, when the index of the directory is requested for the first time, and are kept current
+ * as files are renamed through the index. The index is reloaded when the directory is changed from outside;
+ * names reserved for moves that are not performed yet and the remembered numbers survive the reload. Changes
+ * made while moves of this process are in progress can not be told from those moves, so they are not taken for
+ * changes from outside. Files are moved with no-replace semantics, so a name taken by another process at the
+ * same moment is never overwritten: it is marked as taken and the next free name is used.
+ *
+ * @author manfredi
+ */
+public class DirectoryNameIndex {
+    private static final int MAX_CACHED_DIRECTORIES = 64;
+    private static final Pattern NUMBER = Pattern.compile(" \\d{3,}");
+    private static final Pattern NUMBERED = Pattern.compile("(.*) (\\d{3,})");
+    private static final Map<Path, DirectoryNameIndex> indexes =
+            new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Path, DirectoryNameIndex> eldest) {
+                    return size() > MAX_CACHED_DIRECTORIES;
+                }
+            };
+
+    private final Path dir;
+    private final Set<String> names;
+    private final Set<String> reservedNames; // reserved for moves that are not performed yet
+    private final Map<String, Integer> nextSuffixes;
+    private FileTime lastModifiedTime;
+    private int pendingMoves; // moves of this process into or out of the directory
+
+    private DirectoryNameIndex(Path dir) throws IOException {
+        this.dir = dir;
+        this.names = new HashSet<>();
+        this.reservedNames = new HashSet<>();
+        this.nextSuffixes = new HashMap<>();
+        load();
+    }
+
+    private synchronized void load() throws IOException {
+        lastModifiedTime = Files.getLastModifiedTime(dir); // before listing, so later changes are not missed
+        names.clear();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                names.add(path.getFileName().toString());
+            }
+        }
+        names.addAll(reservedNames);
+    }
+
+    /**
+     * This method is used to return index of the directory
+     *
+     * @param dir directory
+     * @return index of the directory
+     * @throws IOException directory can not be read
+     */
+    public static DirectoryNameIndex of(Path dir) throws IOException {
+        Path key = dir.toAbsolutePath().normalize();
+        synchronized (indexes) {
+            DirectoryNameIndex index = indexes.get(key);
+            if (index == null) {
+                index = new DirectoryNameIndex(key);
+                indexes.put(key, index);
+            } else if (index.isChangedFromOutside()) {
+                index.load();
+            }
+            return index;
+        }
+    }
+
+    /**
+     * This method is used to remove the name of deleted file from the index of its directory (if it is loaded)
+     *
+     * @param file deleted file
+     */
+    public static void forget(Path file) {
+        DirectoryNameIndex index = getLoaded(file);
+        if (index != null) {
+            index.remove(file.getFileName().toString());
+        }
+    }
+
+    private static DirectoryNameIndex getLoaded(Path file) {
+        Path parent = file.toAbsolutePath().normalize().getParent();
+        synchronized (indexes) {
+            return indexes.get(parent);
+        }
+    }
+
+    /**
+     * This method is used to release the name reserved for a move that was skipped or failed, so it may be
+     * reserved again. The name stays taken when the file exists (e.g. it was created from outside).
+     *
+     * @param file planned path of the file
+     */
+    public static void release(Path file) {
+        if (Files.exists(file, LinkOption.NOFOLLOW_LINKS)) return;
+        DirectoryNameIndex index = getLoaded(file);
+        if (index != null) {
+            index.releaseName(file.getFileName().toString());
+        }
+    }
+
+    /**
+     * This method is used to remove the name from the index and rewind the remembered number of its base name,
+     * so the number is given again
+     */
+    private synchronized void releaseName(String name) {
+        names.remove(name);
+        reservedNames.remove(name);
+
+        int indexOfLastDot = name.lastIndexOf('.');
+        String stem = indexOfLastDot == -1 ? name : name.substring(0, indexOfLastDot);
+        String extension = name.substring(stem.length());
+        Matcher matcher = NUMBERED.matcher(stem);
+        if (matcher.matches()) {
+            String key = matcher.group(1) + '/' + extension;
+            int suffix = Integer.parseInt(matcher.group(2));
+            Integer next = nextSuffixes.get(key);
+            if (next != null && next > suffix) nextSuffixes.put(key, suffix);
+        } else {
+            nextSuffixes.remove(stem + '/' + extension); // the name without a number is free again
+        }
+    }
+
+    /**
+     * This method is used to check if the name is one of the names {@link #reserve(String, String)} gives for
+     * the base name, i.e. "{@code baseName extension}" or "{@code baseName NNNextension}"
+     *
+     * @param name      name of file
+     * @param baseName  name without number and extension
+     * @param extension extension with a leading dot
+     * @return {@code true} when the name consists of the base name, an optional number and the extension
+     */
+    public static boolean isNameOf(String name, String baseName, String extension) {
+        int numberLength = name.length() - baseName.length() - extension.length();
+        if (numberLength < 0 || !name.startsWith(baseName) || !name.endsWith(extension)) return false;
+        return numberLength == 0 || NUMBER.matcher(name)
+                .region(baseName.length(), name.length() - extension.length())
+                .matches();
+    }
+
+    /**
+     * This method is used to move the file without replacing an existing one and update loaded indexes of both
+     * directories, so the move is not taken for a change from outside
+     *
+     * @param source file to move
+     * @param target new path
+     * @throws FileAlreadyExistsException target already exists
+     * @throws IOException                file moving failed
+     */
+    static void moveAndUpdate(Path source, Path target) throws IOException {
+        moveAndUpdate(source, target, getLoaded(source), getLoaded(target));
+    }
+
+    private static void moveAndUpdate(Path source, Path target,
+                                      DirectoryNameIndex sourceIndex, DirectoryNameIndex targetIndex)
+            throws IOException {
+        if (sourceIndex != null) sourceIndex.beginMove();
+        if (targetIndex != null && targetIndex != sourceIndex) targetIndex.beginMove();
+        try {
+            moveNoReplace(source, target);
+            if (sourceIndex != null) sourceIndex.remove(source.getFileName().toString());
+            if (targetIndex != null) targetIndex.add(target.getFileName().toString());
+        } finally {
+            if (sourceIndex != null) sourceIndex.endMove();
+            if (targetIndex != null && targetIndex != sourceIndex) targetIndex.endMove();
+        }
+    }
+
+    /**
+     * This method is used to check if the name is taken
+     *
+     * @param name name of file
+     * @return {@code true} when the directory contains a file with this name
+     */
+    public synchronized boolean contains(String name) {
+        return names.contains(name);
+    }
+
+    /**
+     * This method is used to reserve a free name like "{@code baseName extension}" or
+     * "{@code baseName 001extension}", "{@code baseName 002extension}", etc. The last used number is remembered
+     * for each base name, so reservation takes constant time.
+     *
+     * @param baseName  name without number and extension
+     * @param extension extension with a leading dot
+     * @return reserved name
+     */
+    public synchronized String reserve(String baseName, String extension) {
+        String key = baseName + '/' + extension;
+        Integer next = nextSuffixes.get(key);
+        String name;
+        if (next == null && !names.contains(baseName + extension)) {
+            name = baseName + extension;
+        } else {
+            int suffix = next == null ? 1 : next;
+            do {
+                name = baseName + String.format(" %03d", suffix++) + extension;
+            } while (names.contains(name));
+            nextSuffixes.put(key, suffix);
+        }
+        names.add(name);
+        reservedNames.add(name);
+        return name;
+    }
+
+    /**
+     * This method is used to reserve the exact name
+     *
+     * @param name name of file
+     * @return {@code true} when the name was free and now is reserved
+     */
+    public synchronized boolean reserve(String name) {
+        if (!names.add(name)) return false;
+        reservedNames.add(name);
+        return true;
+    }
+
+    /**
+     * This method is used to return path of the file with the given name in this directory
+     *
+     * @param name name of file
+     * @return path of the file
+     */
+    public Path resolve(String name) {
+        return dir.resolve(name);
+    }
+
+    /**
+     * This method is used to move the file into this directory under the exact name
+     *
+     * @param source file to move
+     * @param name   new name
+     * @return moved file
+     * @throws FileAlreadyExistsException file with this name already exists
+     * @throws IOException                file moving failed
+     */
+    public Path move(Path source, String name) throws IOException {
+        synchronized (this) {
+            if (!names.add(name)) {
+                throw new FileAlreadyExistsException(dir.resolve(name).toString());
+            }
+        }
+        return moveReserved(source, name);
+    }
+
+    /**
+     * This method is used to move the file into this directory under the first free name like
+     * "{@code baseName extension}" or "{@code baseName 001extension}", etc.
+     *
+     * @param source    file to move
+     * @param baseName  name without number and extension
+     * @param extension extension with a leading dot
+     * @return moved file
+     * @throws IOException file moving failed
+     */
+    public Path move(Path source, String baseName, String extension) throws IOException {
+        while (true) {
+            try {
+                return moveReserved(source, reserve(baseName, extension));
+            } catch (FileAlreadyExistsException e) {
+                // the name was taken from outside, it stays marked as taken
+            }
+        }
+    }
+
+    /**
+     * This method is used to move the file into this directory under the name reserved by
+     * {@link #reserve(String, String)}. The name is released when the move fails, unless it was taken from outside.
+     *
+     * @param source file to move
+     * @param name   reserved name
+     * @return moved file
+     * @throws FileAlreadyExistsException the name was taken from outside
+     * @throws IOException                file moving failed
+     */
+    public Path moveReserved(Path source, String name) throws IOException {
+        Path target = dir.resolve(name);
+        Path sourceDir = source.toAbsolutePath().normalize().getParent();
+        try {
+            moveAndUpdate(source, target, dir.equals(sourceDir) ? this : getLoaded(source), this);
+        } catch (FileAlreadyExistsException e) {
+            throw e;
+        } catch (IOException e) {
+            releaseName(name);
+            throw e;
+        }
+        return target;
+    }
+
+    /**
+     * This method is used to move file without replacing an existing one. A hard link is created first, because
+     * its creation atomically fails when the target exists; file systems without hard links fall back to
+     * {@link Files#move(Path, Path, CopyOption...)}.
+     *
+     * @param source file to move
+     * @param target new path
+     * @throws FileAlreadyExistsException target already exists
+     * @throws IOException                file moving failed
+     */
+    public static void moveNoReplace(Path source, Path target) throws IOException {
+        boolean linked;
+        try {
+            Files.createLink(target, source);
+            linked = true;
+        } catch (FileAlreadyExistsException e) {
+            throw e;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            linked = false;
+        }
+
+        if (!linked) {
+            Files.move(source, target);
+            return;
+        }
+
+        try {
+            Files.delete(source);
+        } catch (IOException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+    }
+
+    private synchronized void remove(String name) {
+        names.remove(name);
+    }
+
+    private synchronized void add(String name) {
+        names.add(name);
+        reservedNames.remove(name);
+    }
+
+    private synchronized void beginMove() {
+        pendingMoves++;
+    }
+
+    private synchronized void endMove() {
+        if (--pendingMoves == 0) updateLastModifiedTime();
+    }
+
+    private synchronized boolean isChangedFromOutside() {
+        if (pendingMoves > 0) return false; // the change can not be told from the moves
+        try {
+            return !Files.getLastModifiedTime(dir).equals(lastModifiedTime);
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private synchronized void updateLastModifiedTime() {
+        try {
+            lastModifiedTime = Files.getLastModifiedTime(dir);
+        } catch (IOException e) {
+            lastModifiedTime = null;
+        }
+    }
+}
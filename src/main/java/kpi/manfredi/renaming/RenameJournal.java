@@ -0,0 +1,211 @@
+package kpi.manfredi.renaming;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * This class is used to write and read an append-only journal of a batch renaming.
+ * <br><br>
+ * Each record is stored as its length, CRC32 and payload, so a record torn by a crash is recognized and
+ * ignored on reading. Records are collected in memory and written to the file by {@link #write()};
+ * {@link #sync()} forces them to the storage device.
+ * <br><br>
+ * The journal is locked while it is open, so recovery started by another process (or another part of this one)
+ * does not take the journal of a running batch for the journal of a crashed one.
+ */
+class RenameJournal implements Closeable {
+    private static final byte PLAN = 1;
+    private static final byte DONE = 2;
+    private static final byte FAIL = 3;
+    private static final byte COMMIT = 4;
+
+    private final Path file;
+    private final FileChannel channel;
+    private final ByteArrayOutputStream buffer;
+    private final DataOutputStream output;
+    private final CRC32 crc;
+    private long nanos;
+
+    RenameJournal(Path file) throws IOException {
+        this.file = file;
+
+        // the journal gets its name only when it is locked, so recovery never sees it unlocked
+        Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+        this.channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        try {
+            if (!tryLock(channel)) throw new IOException("Journal " + temporary + " is locked");
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            channel.close();
+            Files.deleteIfExists(temporary);
+            throw e;
+        }
+        this.buffer = new ByteArrayOutputStream();
+        this.output = new DataOutputStream(buffer);
+        this.crc = new CRC32();
+    }
+
+    void plan(int seq, Path source, Path target) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(payload);
+        data.writeByte(PLAN);
+        data.writeInt(seq);
+        data.writeUTF(source.toString());
+        data.writeUTF(target.toString());
+        append(payload.toByteArray());
+    }
+
+    void done(int seq) throws IOException {
+        append(new byte[]{DONE, (byte) (seq >>> 24), (byte) (seq >>> 16), (byte) (seq >>> 8), (byte) seq});
+    }
+
+    void fail(int seq) throws IOException {
+        append(new byte[]{FAIL, (byte) (seq >>> 24), (byte) (seq >>> 16), (byte) (seq >>> 8), (byte) seq});
+    }
+
+    void commit() throws IOException {
+        append(new byte[]{COMMIT});
+    }
+
+    private void append(byte[] payload) throws IOException {
+        long start = System.nanoTime();
+        crc.reset();
+        crc.update(payload, 0, payload.length);
+        output.writeInt(payload.length);
+        output.writeInt((int) crc.getValue());
+        output.write(payload);
+        nanos += System.nanoTime() - start;
+    }
+
+    /**
+     * This method is used to write collected records to the file (without forcing them to the device)
+     */
+    void write() throws IOException {
+        long start = System.nanoTime();
+        ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        buffer.reset();
+        nanos += System.nanoTime() - start;
+    }
+
+    /**
+     * This method is used to write collected records and force the file to the storage device
+     */
+    void sync() throws IOException {
+        write();
+        long start = System.nanoTime();
+        channel.force(false);
+        nanos += System.nanoTime() - start;
+    }
+
+    /**
+     * This method is used to return the time spent on the journal
+     *
+     * @return time in nanoseconds
+     */
+    long getNanos() {
+        return nanos;
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * This method is used to lock the journal for the life of the channel
+     *
+     * @param channel writable channel of the journal
+     * @return {@code true} when the lock was taken; {@code false} when the journal is locked by somebody else
+     * @throws IOException lock can not be taken
+     */
+    static boolean tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock() != null;
+        } catch (OverlappingFileLockException e) {
+            return false; // locked within this process
+        }
+    }
+
+    /**
+     * This method is used to read the journal from the beginning. Reading stops at the first damaged record.
+     * The channel is left open, so the lock of the journal is kept.
+     *
+     * @param channel channel of the journal file
+     * @return content of the journal
+     * @throws IOException file can not be read
+     */
+    static Content read(FileChannel channel) throws IOException {
+        Content content = new Content();
+        channel.position(0);
+        DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        CRC32 crc = new CRC32();
+        while (true) {
+            byte[] payload;
+            try {
+                int length = input.readInt();
+                int checksum = input.readInt();
+                if (length <= 0 || length > 0x3_0000) break;
+                payload = new byte[length];
+                input.readFully(payload);
+                crc.reset();
+                crc.update(payload, 0, payload.length);
+                if ((int) crc.getValue() != checksum) break;
+            } catch (EOFException e) {
+                break;
+            }
+
+            DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+            switch (record.readByte()) {
+                case PLAN:
+                    record.readInt();
+                    content.sources.add(Paths.get(record.readUTF()));
+                    content.targets.add(Paths.get(record.readUTF()));
+                    break;
+                case DONE:
+                    content.done.add(record.readInt());
+                    break;
+                case FAIL:
+                    content.failed.add(record.readInt());
+                    break;
+                case COMMIT:
+                    content.committed = true;
+                    break;
+                default:
+                    return content;
+            }
+        }
+        return content;
+    }
+
+    /**
+     * This class is used to contain records read from the journal
+     */
+    static class Content {
+        final List<Path> sources = new ArrayList<>();
+        final List<Path> targets = new ArrayList<>();
+        final Set<Integer> done = new HashSet<>();
+        final Set<Integer> failed = new HashSet<>();
+        boolean committed;
+    }
+}
@@ -0,0 +1,116 @@
+package kpi.manfredi.renaming;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * This class is used to order moves of a batch renaming in which files take names that other files of the same
+ * batch hold now (e.g. re-sequencing {@code img_001..img_500}).
+ * <br><br>
+ * When the target of a file is held by another file of the batch, that file has to be moved first. Such
+ * dependencies form chains, which are performed from their free end, and cycles, each of which is broken with
+ * a single temporary name.
+ *
+ * @author manfredi
+ */
+public abstract class RenamePlanner {
+    private static final int NONE = -1;
+
+    /**
+     * This method is used to plan moves of the files into the transaction in a correct order
+     *
+     * @param sources     current paths of the files
+     * @param targets     new paths of the files; they must be unique and either free or held by the files of
+     *                    this batch
+     * @param transaction transaction to add moves into
+     * @return for each file, indices of its moves in the transaction (two moves when the file goes through
+     * a temporary name, none when the file already has its target path)
+     * @throws IOException directory of a temporary name can not be read
+     */
+    public static int[][] plan(List<Path> sources, List<Path> targets, RenameTransaction transaction)
+            throws IOException {
+        int size = sources.size();
+        Map<Path, Integer> sourceIndices = new HashMap<>(size * 2);
+        for (int i = 0; i < size; i++) {
+            sourceIndices.put(normalize(sources.get(i)), i);
+        }
+
+        // blocker holds the target of the file; waiter is the file whose target is held by this one
+        int[] blockers = new int[size];
+        int[] waiters = new int[size];
+        Arrays.fill(waiters, NONE);
+        for (int i = 0; i < size; i++) {
+            Integer blocker = sourceIndices.get(normalize(targets.get(i)));
+            blockers[i] = blocker == null ? NONE : blocker;
+            if (blocker != null && blocker != i) {
+                waiters[blocker] = i;
+            }
+        }
+
+        int[][] moves = new int[size][];
+        for (int i = 0; i < size; i++) {
+            if (blockers[i] == i) {
+                moves[i] = new int[0];
+            }
+        }
+
+        // chains start with a file whose target is free
+        for (int i = 0; i < size; i++) {
+            if (blockers[i] != NONE) continue;
+            for (int k = i; k != NONE; k = waiters[k]) {
+                moves[k] = new int[]{transaction.add(sources.get(k), targets.get(k))};
+            }
+        }
+
+        // the rest of files are in cycles
+        for (int i = 0; i < size; i++) {
+            if (moves[i] != null) continue;
+
+            Path source = sources.get(i);
+            String extension = getExtension(source.getFileName().toString());
+            DirectoryNameIndex nameIndex = DirectoryNameIndex.of(normalize(source).getParent());
+            String temporaryName;
+            do {
+                temporaryName = "~" + UUID.randomUUID() + extension;
+            } while (!nameIndex.reserve(temporaryName));
+            Path temporary = source.resolveSibling(temporaryName);
+
+            int toTemporary = transaction.add(source, temporary);
+            for (int k = waiters[i]; k != i; k = waiters[k]) {
+                moves[k] = new int[]{transaction.add(sources.get(k), targets.get(k))};
+            }
+            moves[i] = new int[]{toTemporary, transaction.add(temporary, targets.get(i))};
+        }
+        return moves;
+    }
+
+    /**
+     * This method is used to release temporary names of the batch in the indexes of their directories after
+     * the batch was committed (or failed). Names of temporary files that are still present (e.g. the second move of
+     * the file failed) stay taken.
+     *
+     * @param moves       moves returned by {@link #plan(List, List, RenameTransaction)}
+     * @param transaction transaction of the moves
+     */
+    public static void releaseTemporaryNames(int[][] moves, RenameTransaction transaction) {
+        for (int[] fileMoves : moves) {
+            if (fileMoves.length == 2) {
+                DirectoryNameIndex.release(transaction.getTarget(fileMoves[0]));
+            }
+        }
+    }
+
+    private static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    private static String getExtension(String name) {
+        int indexOfLastDot = name.lastIndexOf('.');
+        return indexOfLastDot == -1 ? "" : name.substring(indexOfLastDot);
+    }
+}
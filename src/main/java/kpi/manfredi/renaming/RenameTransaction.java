@@ -0,0 +1,352 @@
+package kpi.manfredi.renaming;
+
+import kpi.manfredi.utils.ProgressListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * This class is used to rename a batch of files with a write-ahead journal, so a batch interrupted by a crash
+ * can be finished or undone on the next start.
+ * <br><br>
+ * All planned moves are written to the journal and synced to the device once before the first file is moved.
+ * Progress records are appended without syncing, except before a move into a name that an earlier move of the
+ * batch freed: such a move makes the file system state of the earlier moves ambiguous (e.g. in a cycle the source
+ * of the first move is present again), so their records are synced first. After a crash recorded moves are
+ * trusted, and only the state of moves after the last record is checked in the file system. The journal is
+ * deleted when the batch is completed.
+ *
+ * @author manfredi
+ */
+public class RenameTransaction {
+    private static final Logger logger = LoggerFactory.getLogger(RenameTransaction.class);
+    private static final Path DEFAULT_JOURNAL_DIR =
+            Paths.get(System.getProperty("user.home"), ".image-handler", "journal");
+    private static final String JOURNAL_EXTENSION = ".journal";
+    private static final int WRITE_INTERVAL = 64;
+
+    private final Path journalDir;
+    private final List<Path> sources;
+    private final List<Path> targets;
+
+    public RenameTransaction() {
+        this(DEFAULT_JOURNAL_DIR);
+    }
+
+    public RenameTransaction(Path journalDir) {
+        this.journalDir = journalDir;
+        this.sources = new ArrayList<>();
+        this.targets = new ArrayList<>();
+    }
+
+    /**
+     * This method is used to plan moving of the file. Moves are performed in the order they were planned.
+     *
+     * @param source file to move
+     * @param target new path of the file; it must not exist when the move is performed
+     * @return index of the move in the batch
+     */
+    public int add(Path source, Path target) {
+        sources.add(source);
+        targets.add(target);
+        return sources.size() - 1;
+    }
+
+    /**
+     * This method is used to return the planned path of the file
+     *
+     * @param index index of the move returned by {@link #add(Path, Path)}
+     * @return new path of the file
+     */
+    public Path getTarget(int index) {
+        return targets.get(index);
+    }
+
+    /**
+     * This method is used to return the number of planned moves
+     *
+     * @return number of moves
+     */
+    public int size() {
+        return sources.size();
+    }
+
+    /**
+     * This method is used to perform all planned moves. A move whose target already exists or which fails for
+     * another reason is skipped, and the next moves are performed.
+     *
+     * @return result of the batch
+     * @throws IOException journal can not be written; files are not moved in this case
+     */
+    public Result commit() throws IOException {
+        return commit(ProgressListener.NONE);
+    }
+
+    /**
+     * This method is used to perform planned moves, like {@link #commit()}, reporting the progress. When the
+     * listener is cancelled, the remaining moves are skipped and the moves that were already performed stay.
+     *
+     * @param listener listener of the number of processed moves
+     * @return result of the batch
+     * @throws IOException journal can not be written; files are not moved in this case
+     */
+    public Result commit(ProgressListener listener) throws IOException {
+        BitSet renamed = new BitSet(sources.size());
+        long[] moveNanos = new long[sources.size()];
+        if (sources.isEmpty()) return new Result(renamed, moveNanos, 0);
+
+        Files.createDirectories(journalDir);
+        Path file = journalDir.resolve(System.currentTimeMillis() + "-" + UUID.randomUUID() + JOURNAL_EXTENSION);
+        long journalNanos;
+        try (RenameJournal journal = new RenameJournal(file)) {
+            for (int i = 0; i < sources.size(); i++) {
+                journal.plan(i, sources.get(i).toAbsolutePath(), targets.get(i).toAbsolutePath());
+            }
+            journal.sync();
+
+            Set<Path> freedPaths = new HashSet<>();
+            boolean cancelled = false;
+            for (int i = 0; i < sources.size(); i++) {
+                if (!cancelled) cancelled = listener.isCancelled();
+                if (cancelled) {
+                    journal.fail(i); // skipped moves are not performed on recovery
+                    continue;
+                }
+
+                // records of the earlier moves must survive a crash, the file system can not tell them apart
+                if (freedPaths.contains(normalize(targets.get(i)))) {
+                    journal.sync();
+                }
+
+                long start = System.nanoTime();
+                try {
+                    DirectoryNameIndex.moveAndUpdate(sources.get(i), targets.get(i));
+                    freedPaths.add(normalize(sources.get(i)));
+                    moveNanos[i] = System.nanoTime() - start;
+                    renamed.set(i);
+                    journal.done(i);
+                } catch (IOException e) {
+                    moveNanos[i] = System.nanoTime() - start;
+                    logger.error("File '{}' was not renamed to '{}': {}",
+                            sources.get(i), targets.get(i), e.toString());
+                    journal.fail(i);
+                }
+
+                if ((i + 1) % WRITE_INTERVAL == 0) {
+                    journal.write();
+                }
+                listener.update(i + 1);
+            }
+
+            journal.commit();
+            journal.write();
+            journalNanos = journal.getNanos();
+            Files.delete(file); // while the journal is locked, so recovery can not take it
+        }
+
+        Result result = new Result(renamed, moveNanos, journalNanos);
+        int[] files = getFiles(sources, targets);
+        int fileCount = 0;
+        BitSet notRenamedFiles = new BitSet();
+        for (int i = 0; i < files.length; i++) {
+            fileCount = Math.max(fileCount, files[i] + 1);
+            if (!renamed.get(i)) notRenamedFiles.set(files[i]);
+        }
+        logger.info("Renamed {} of {} files in {} ms, journal took {} ms ({}% of renaming)",
+                fileCount - notRenamedFiles.cardinality(), fileCount, result.getMoveNanos() / 1_000_000,
+                journalNanos / 1_000_000, String.format("%.1f", result.getJournalOverhead() * 100));
+        return result;
+    }
+
+    /**
+     * This method is used to finish or undo batches that were interrupted by a crash
+     *
+     * @param undo {@code true} to return renamed files to their previous names;
+     *             {@code false} to perform the remaining moves
+     * @return number of processed batches
+     * @throws IOException journal directory can not be read
+     */
+    public static int recover(boolean undo) throws IOException {
+        return recover(DEFAULT_JOURNAL_DIR, undo);
+    }
+
+    /**
+     * This method is used to finish or undo batches that were interrupted by a crash. Journals locked by running
+     * batches (e.g. of another running instance of the application) are skipped.
+     *
+     * @param journalDir directory with journals
+     * @param undo       {@code true} to return renamed files to their previous names;
+     *                   {@code false} to perform the remaining moves
+     * @return number of processed batches
+     * @throws IOException journal directory can not be read
+     */
+    public static int recover(Path journalDir, boolean undo) throws IOException {
+        if (!Files.isDirectory(journalDir)) return 0;
+
+        int batches = 0;
+        try (DirectoryStream<Path> journals = Files.newDirectoryStream(journalDir, "*" + JOURNAL_EXTENSION)) {
+            for (Path journal : journals) {
+                try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE)) {
+                    if (!RenameJournal.tryLock(channel)) {
+                        logger.info("Journal {} belongs to a running batch and was skipped", journal);
+                        continue;
+                    }
+                    RenameJournal.Content content = RenameJournal.read(channel);
+                    if (!content.committed) {
+                        recover(content, undo);
+                        batches++;
+                    }
+                    Files.delete(journal);
+                } catch (NoSuchFileException e) {
+                    // the batch was completed meanwhile
+                }
+            }
+        }
+        return batches;
+    }
+
+    private static void recover(RenameJournal.Content content, boolean undo) {
+        // moves are performed one by one, so moves up to the last recorded one were processed; records of moves
+        // into freed names are synced before them, so the rest can be told by the file system
+        int size = content.sources.size();
+        int doneCount = 0;
+        for (int i : content.done) doneCount = Math.max(doneCount, i + 1);
+        for (int i : content.failed) doneCount = Math.max(doneCount, i + 1);
+        while (doneCount < size && Files.notExists(content.sources.get(doneCount))
+                && Files.exists(content.targets.get(doneCount))) {
+            doneCount++;
+        }
+
+        int fileCount = 0;
+        for (int file : getFiles(content.sources, content.targets)) fileCount = Math.max(fileCount, file + 1);
+        int moves = 0;
+        if (undo) {
+            for (int i = doneCount - 1; i >= 0; i--) {
+                if (!content.failed.contains(i) && move(content.targets.get(i), content.sources.get(i))) moves++;
+            }
+            logger.info("Interrupted renaming of {} files was undone, {} moves were reverted", fileCount, moves);
+        } else {
+            for (int i = doneCount; i < size; i++) {
+                if (!content.failed.contains(i) && move(content.sources.get(i), content.targets.get(i))) moves++;
+            }
+            logger.info("Interrupted renaming of {} files was finished, {} moves were performed", fileCount, moves);
+        }
+    }
+
+    /**
+     * This method is used to find which file each move belongs to: a file may be moved more than once (e.g.
+     * through a temporary name), then the source of its next move is the target of the previous one
+     *
+     * @param sources sources of the moves
+     * @param targets targets of the moves
+     * @return for each move, number of its file
+     */
+    private static int[] getFiles(List<Path> sources, List<Path> targets) {
+        int[] files = new int[sources.size()];
+        Map<Path, Integer> filesByTarget = new HashMap<>(sources.size() * 2);
+        int fileCount = 0;
+        for (int i = 0; i < sources.size(); i++) {
+            Integer file = filesByTarget.remove(normalize(sources.get(i)));
+            files[i] = file == null ? fileCount++ : file;
+            filesByTarget.put(normalize(targets.get(i)), files[i]);
+        }
+        return files;
+    }
+
+    private static Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    private static boolean move(Path source, Path target) {
+        try {
+            DirectoryNameIndex.moveNoReplace(source, target);
+            return true;
+        } catch (IOException e) {
+            logger.error("File '{}' was not renamed to '{}': {}", source, target, e.toString());
+            return false;
+        }
+    }
+
+    /**
+     * This class is used to contain the result of a batch renaming
+     */
+    public static class Result {
+        private final BitSet renamed;
+        private final long[] moveNanos; // by index of the move
+        private final long totalMoveNanos;
+        private final long journalNanos;
+
+        private Result(BitSet renamed, long[] moveNanos, long journalNanos) {
+            this.renamed = renamed;
+            this.moveNanos = moveNanos;
+            this.totalMoveNanos = Arrays.stream(moveNanos).sum();
+            this.journalNanos = journalNanos;
+        }
+
+        /**
+         * This method is used to check if the move was performed
+         *
+         * @param index index of the move returned by {@link #add(Path, Path)}
+         * @return {@code true} when the file was renamed
+         */
+        public boolean isRenamed(int index) {
+            return renamed.get(index);
+        }
+
+        public int getRenamedCount() {
+            return renamed.cardinality();
+        }
+
+        public int size() {
+            return moveNanos.length;
+        }
+
+        /**
+         * @return time spent on moving all files of the batch
+         */
+        public long getMoveNanos() {
+            return totalMoveNanos;
+        }
+
+        /**
+         * This method is used to return time spent on the single move
+         *
+         * @param index index of the move returned by {@link #add(Path, Path)}
+         * @return time of the move; {@code 0} when the move was skipped
+         */
+        public long getMoveNanos(int index) {
+            return moveNanos[index];
+        }
+
+        public long getJournalNanos() {
+            return journalNanos;
+        }
+
+        /**
+         * This method is used to return time spent on the journal relative to time spent on moving files
+         *
+         * @return journal overhead (e.g. {@code 0.05} when the journal took 5% of the moving time)
+         */
+        public double getJournalOverhead() {
+            return totalMoveNanos == 0 ? 0 : (double) journalNanos / totalMoveNanos;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package kpi.manfredi.tags;
+
+import kpi.manfredi.tags.map.Tag;
+
+/**
+ * This interface is used to describe a lookup structure that maps aliases to tags
+ */
+public interface AliasDictionary {
+
+    /**
+     * This method is used to return the tag that corresponds to the alias
+     *
+     * @param alias alias (words joined with '{@code _}')
+     * @return tag; {@code null} when the alias is unknown
+     */
+    Tag get(String alias);
+
+    /**
+     * This method is used to return the number of aliases in the dictionary
+     *
+     * @return number of aliases
+     */
+    int size();
+}
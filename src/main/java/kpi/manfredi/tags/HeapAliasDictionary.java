@@ -0,0 +1,27 @@
+package kpi.manfredi.tags;
+
+import kpi.manfredi.tags.map.Tag;
+import kpi.manfredi.tags.map.TagsMap;
+
+import java.util.HashMap;
+
+/**
+ * This class is used to keep aliases in an ordinary {@code HashMap}. It suits tags maps of a usual size.
+ */
+public class HeapAliasDictionary implements AliasDictionary {
+    private final HashMap<String, Tag> reversedTagsMap;
+
+    public HeapAliasDictionary(TagsMap tagsMap) {
+        reversedTagsMap = TagsAdapter.getReversedTagsMap(tagsMap);
+    }
+
+    @Override
+    public Tag get(String alias) {
+        return reversedTagsMap.get(alias);
+    }
+
+    @Override
+    public int size() {
+        return reversedTagsMap.size();
+    }
+}
@@ -0,0 +1,262 @@
+package kpi.manfredi.tags;
+
+import kpi.manfredi.tags.map.Tag;
+import kpi.manfredi.tags.map.TagsMap;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * This class is used to keep a huge number of aliases outside of the Java heap.
+ * <br><br>
+ * UTF-8 bytes of aliases are appended to direct memory arenas, and an open-addressing hash table
+ * (also located in direct memory) maps them to tag ids. The heap holds only the list of tags and a few
+ * buffer objects, so its usage stays nearly flat regardless of the dictionary size.
+ * <br><br>
+ * Direct memory is limited by the {@code -XX:MaxDirectMemorySize} JVM option.
+ */
+public class OffHeapAliasDictionary implements AliasDictionary {
+    private static final int ARENA_SIZE = 1 << 24;
+    private static final int MAX_ALIAS_LENGTH = 0xFFFF;
+    private static final int SLOT_SIZE = 16;
+    private static final int MAX_CAPACITY = 1 << 26; // positions of slots (up to 2^30) must fit into int
+    private static final int INITIAL_CAPACITY = 1 << 10;
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int NOT_FOUND = -1;
+
+    private final List<ByteBuffer> arenas;
+    private final List<Tag> tags;
+    private final HashMap<String, Integer> tagIds; // by tag name, so source tags are not referenced
+
+    private ByteBuffer slots;
+    private int capacity;
+    private int size;
+    private int maxParts;
+
+    public OffHeapAliasDictionary() {
+        arenas = new ArrayList<>();
+        tags = new ArrayList<>();
+        tagIds = new HashMap<>();
+        capacity = INITIAL_CAPACITY;
+        slots = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+    }
+
+    public OffHeapAliasDictionary(TagsMap tagsMap) {
+        this();
+        for (Tag tag : tagsMap.getTag()) {
+            for (String alias : tag.getAlias()) {
+                put(alias, tag);
+            }
+        }
+    }
+
+    /**
+     * This method is used to add alias of the tag. A previous mapping of the same alias is replaced.
+     * <br><br>
+     * Only the name and the priority of the tag are kept, so the source {@code TagsMap} can be released after
+     * the dictionary is filled.
+     *
+     * @param alias alias (words joined with '{@code _}')
+     * @param tag   tag
+     */
+    public void put(String alias, Tag tag) {
+        byte[] bytes = alias.getBytes(StandardCharsets.UTF_8);
+        put(bytes, 0, bytes.length, getTagId(tag));
+    }
+
+    @Override
+    public Tag get(String alias) {
+        byte[] bytes = alias.getBytes(StandardCharsets.UTF_8);
+        int tagId = findTagId(bytes, 0, bytes.length);
+        return tagId == NOT_FOUND ? null : tags.get(tagId);
+    }
+
+    /**
+     * This method is used to find id of the tag by the alias bytes without creating any objects
+     *
+     * @param bytes  array that contains UTF-8 bytes of the alias
+     * @param offset offset of the alias within the array
+     * @param length length of the alias
+     * @return id of the tag; {@code -1} when the alias is unknown
+     */
+    public int findTagId(byte[] bytes, int offset, int length) {
+        if (length > MAX_ALIAS_LENGTH) return NOT_FOUND;
+
+        int hash = hash(bytes, offset, length);
+        int mask = capacity - 1;
+        for (int index = hash & mask; ; index = (index + 1) & mask) {
+            int position = index * SLOT_SIZE;
+            long reference = slots.getLong(position);
+            if (reference == 0) {
+                return NOT_FOUND;
+            }
+            if (slots.getInt(position + 8) == hash && aliasEquals(reference - 1, bytes, offset, length)) {
+                return slots.getInt(position + 12);
+            }
+        }
+    }
+
+    /**
+     * This method is used to return the tag by its id
+     *
+     * @param tagId id of the tag returned by {@link #findTagId(byte[], int, int)}
+     * @return tag
+     */
+    public Tag getTag(int tagId) {
+        return tags.get(tagId);
+    }
+
+    /**
+     * This method is used to return the largest number of words (separated by '{@code _}') in a single alias.
+     * Longer sequences of words can not match any alias.
+     *
+     * @return largest number of words in an alias
+     */
+    public int getMaxParts() {
+        return maxParts;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * This method is used to return id of the tag, registering a lightweight copy of it when it is met first time.
+     * Tags are identified by their names.
+     *
+     * @param tag tag
+     * @return id of the tag
+     */
+    private int getTagId(Tag tag) {
+        Integer tagId = tagIds.get(tag.getName());
+        if (tagId == null) {
+            Tag copy = new Tag();
+            copy.setName(tag.getName());
+            copy.setPriority(tag.getPriority());
+            tagId = tags.size();
+            tags.add(copy);
+            tagIds.put(copy.getName(), tagId);
+        }
+        return tagId;
+    }
+
+    private void put(byte[] bytes, int offset, int length, int tagId) {
+        if (length > MAX_ALIAS_LENGTH) {
+            throw new IllegalArgumentException("Alias is longer than " + MAX_ALIAS_LENGTH + " bytes");
+        }
+
+        int hash = hash(bytes, offset, length);
+        int mask = capacity - 1;
+        int index = hash & mask;
+        for (; ; index = (index + 1) & mask) {
+            int position = index * SLOT_SIZE;
+            long reference = slots.getLong(position);
+            if (reference == 0) {
+                break;
+            }
+            if (slots.getInt(position + 8) == hash && aliasEquals(reference - 1, bytes, offset, length)) {
+                slots.putInt(position + 12, tagId);
+                return;
+            }
+        }
+
+        int position = index * SLOT_SIZE;
+        slots.putLong(position, appendAlias(bytes, offset, length) + 1);
+        slots.putInt(position + 8, hash);
+        slots.putInt(position + 12, tagId);
+        maxParts = Math.max(maxParts, countParts(bytes, offset, length));
+
+        if (++size > capacity * LOAD_FACTOR) {
+            grow();
+        }
+    }
+
+    /**
+     * This method is used to copy the alias into the current arena
+     *
+     * @return reference to the alias: index of the arena in the high half and offset in the low half
+     */
+    private long appendAlias(byte[] bytes, int offset, int length) {
+        ByteBuffer arena = arenas.isEmpty() ? null : arenas.get(arenas.size() - 1);
+        if (arena == null || arena.remaining() < length + 2) {
+            arena = ByteBuffer.allocateDirect(Math.max(ARENA_SIZE, length + 2));
+            arenas.add(arena);
+        }
+        long reference = ((long) (arenas.size() - 1) << 32) | arena.position();
+        arena.putShort((short) length);
+        arena.put(bytes, offset, length);
+        return reference;
+    }
+
+    private boolean aliasEquals(long reference, byte[] bytes, int offset, int length) {
+        ByteBuffer arena = arenas.get((int) (reference >>> 32));
+        int position = (int) reference;
+        if ((arena.getShort(position) & 0xFFFF) != length) {
+            return false;
+        }
+        position += 2;
+        for (int i = 0; i < length; i++) {
+            if (arena.get(position + i) != bytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * This method is used to double the hash table. Stored hashes are reused, so aliases are not read again.
+     */
+    private void grow() {
+        if (capacity >= MAX_CAPACITY) {
+            throw new IllegalStateException("Alias dictionary can not contain more than "
+                    + (int) (MAX_CAPACITY * LOAD_FACTOR) + " aliases");
+        }
+        int newCapacity = capacity << 1;
+        int mask = newCapacity - 1;
+        ByteBuffer newSlots = ByteBuffer.allocateDirect(newCapacity * SLOT_SIZE);
+        for (int i = 0; i < capacity; i++) {
+            int position = i * SLOT_SIZE;
+            long reference = slots.getLong(position);
+            if (reference == 0) continue;
+
+            int hash = slots.getInt(position + 8);
+            int index = hash & mask;
+            while (newSlots.getLong(index * SLOT_SIZE) != 0) {
+                index = (index + 1) & mask;
+            }
+            int newPosition = index * SLOT_SIZE;
+            newSlots.putLong(newPosition, reference);
+            newSlots.putInt(newPosition + 8, hash);
+            newSlots.putInt(newPosition + 12, slots.getInt(position + 12));
+        }
+        slots = newSlots;
+        capacity = newCapacity;
+    }
+
+    private static int countParts(byte[] bytes, int offset, int length) {
+        int parts = 1;
+        for (int i = offset; i < offset + length; i++) {
+            if (bytes[i] == '_') parts++;
+        }
+        return parts;
+    }
+
+    /**
+     * FNV-1a hash with a final avalanche step, so that linear probing works well with sequential aliases
+     */
+    private static int hash(byte[] bytes, int offset, int length) {
+        int hash = 0x811C9DC5;
+        for (int i = offset; i < offset + length; i++) {
+            hash ^= bytes[i];
+            hash *= 0x01000193;
+        }
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+}
@@ -0,0 +1,153 @@
+package kpi.manfredi.tags;
+
+import javafx.collections.ObservableList;
+import javafx.collections.ObservableSet;
+import javafx.collections.SetChangeListener;
+import javafx.collections.WeakSetChangeListener;
+import javafx.scene.control.CheckBoxTreeItem;
+import javafx.scene.control.TreeItem;
+import kpi.manfredi.tags.tree.Category;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is used to represent a category or a tag as {@code CheckBoxTreeItem} whose children are created
+ * only when they are requested for the first time (usually on the first expansion).
+ * <br><br>
+ * The checked state is kept in the set of checked values shared by all items of the tree, so it is known even
+ * for the items that have not been created yet. Items follow changes of this set, so several trees built over
+ * the same set (e.g. the whole tree and the search result) show the same state.
+ */
+public class TagTreeItem extends CheckBoxTreeItem<Object> {
+    private final ObservableSet<Object> checkedValues;
+    private final SetChangeListener<Object> checkedValuesListener;
+    private boolean leaf;
+    private List<Category> categories;
+    private List<String> tags;
+
+    /**
+     * @param value         category, tag or root caption
+     * @param categories    child categories
+     * @param tags          child tags
+     * @param checkedValues set of checked categories and tags
+     */
+    public TagTreeItem(Object value,
+                       List<Category> categories,
+                       List<String> tags,
+                       ObservableSet<Object> checkedValues) {
+        super(value);
+        this.categories = categories;
+        this.tags = tags;
+        this.checkedValues = checkedValues;
+        this.leaf = categories.isEmpty() && tags.isEmpty();
+        setIndependent(true);
+        selectedProperty().addListener((observable, oldValue, newValue) -> {
+            if (newValue) {
+                checkedValues.add(getValue());
+            } else {
+                checkedValues.remove(getValue());
+            }
+        });
+
+        checkedValuesListener = change -> {
+            if (change.wasAdded() && getValue().equals(change.getElementAdded())) {
+                setSelected(true);
+            } else if (change.wasRemoved() && getValue().equals(change.getElementRemoved())) {
+                setSelected(false);
+            }
+        };
+        checkedValues.addListener(new WeakSetChangeListener<>(checkedValuesListener));
+    }
+
+    /**
+     * This method is used to create tree item that contains only the given children instead of the whole content
+     * of the value
+     *
+     * @param value         category or root caption
+     * @param children      child items
+     * @param checkedValues set of checked categories and tags
+     * @return tree item
+     */
+    public static TagTreeItem withChildren(Object value,
+                                           List<TreeItem<Object>> children,
+                                           ObservableSet<Object> checkedValues) {
+        TagTreeItem treeItem = new TagTreeItem(value, List.of(), List.of(), checkedValues, children.isEmpty());
+        treeItem.attachChildren(children);
+        return treeItem;
+    }
+
+    private TagTreeItem(Object value,
+                        List<Category> categories,
+                        List<String> tags,
+                        ObservableSet<Object> checkedValues,
+                        boolean leaf) {
+        this(value, categories, tags, checkedValues);
+        this.leaf = leaf;
+    }
+
+    /**
+     * This method is used to create tree item of the category
+     *
+     * @param category      category
+     * @param checkedValues set of checked categories and tags
+     * @return tree item
+     */
+    public static TagTreeItem of(Category category, ObservableSet<Object> checkedValues) {
+        return new TagTreeItem(category, category.getCategory(), category.getTag(), checkedValues);
+    }
+
+    /**
+     * This method is used to create tree item of the tag
+     *
+     * @param tag           tag
+     * @param checkedValues set of checked categories and tags
+     * @return tree item
+     */
+    public static TagTreeItem of(String tag, ObservableSet<Object> checkedValues) {
+        return new TagTreeItem(tag, List.of(), List.of(), checkedValues);
+    }
+
+    @Override
+    public boolean isLeaf() {
+        return leaf;
+    }
+
+    @Override
+    public ObservableList<TreeItem<Object>> getChildren() {
+        ObservableList<TreeItem<Object>> children = super.getChildren();
+        if (categories != null) {
+            List<TreeItem<Object>> childItems = new ArrayList<>(categories.size() + tags.size());
+            for (Category category : categories) {
+                childItems.add(of(category, checkedValues));
+            }
+            for (String tag : tags) {
+                childItems.add(of(tag, checkedValues));
+            }
+            attachChildren(childItems);
+        }
+        return children;
+    }
+
+    private void attachChildren(List<TreeItem<Object>> childItems) {
+        categories = null;
+        tags = null;
+        super.getChildren().setAll(childItems);
+
+        // items are checked after they are attached, so the event reaches the check model of the tree view
+        for (TreeItem<Object> childItem : childItems) {
+            if (checkedValues.contains(childItem.getValue())) {
+                ((CheckBoxTreeItem<Object>) childItem).setSelected(true);
+            }
+        }
+    }
+
+    /**
+     * This method is used to return the set of checked categories and tags (including not created items)
+     *
+     * @return set of checked values
+     */
+    public ObservableSet<Object> getCheckedValues() {
+        return checkedValues;
+    }
+}
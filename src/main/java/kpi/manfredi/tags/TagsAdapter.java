@@ -1,73 +1,85 @@
 package kpi.manfredi.tags;
 
-import javafx.collections.FXCollections;
-import javafx.collections.ObservableList;
-import javafx.scene.control.CheckBoxTreeItem;
+import javafx.collections.ObservableSet;
 import javafx.scene.control.TreeItem;
 import kpi.manfredi.tags.map.Tag;
 import kpi.manfredi.tags.map.TagsMap;
 import kpi.manfredi.tags.tree.Category;
 import kpi.manfredi.tags.tree.TagsTree;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 import java.util.stream.Collectors;
 
 /**
  * This class is used to provide methods to represent tags as {@code CheckTreeView}
  */
 public abstract class TagsAdapter {
+    private static final int OFF_HEAP_ALIASES_THRESHOLD = 1_000_000;
 
     /**
-     * This method is used to represent {@code TagsStorage} in the form of a {@code CheckTreeView}
-     * by creating an appropriate hierarchy of tree items
+     * This method is used to represent {@code TagsStorage} in the form of a {@code CheckTreeView}.
+     * Items of categories and tags are created lazily, when their parent is expanded for the first time.
      *
-     * @param tagsTree instance that contains categories and tags
+     * @param tagsTree      instance that contains categories and tags
+     * @param checkedValues set of checked categories and tags
      * @return {@code CheckTreeView} root item
      */
-    public static CheckBoxTreeItem<Object> getRootItem(TagsTree tagsTree) {
-        CheckBoxTreeItem<Object> root = new CheckBoxTreeItem<>("Root");
-        ObservableList<TreeItem<Object>> childItems = root.getChildren();
-        for (Category category : tagsTree.getCategory()) {
-            childItems.add(handleCategory(category));
-        }
-        return root;
+    public static TagTreeItem getRootItem(TagsTree tagsTree, ObservableSet<Object> checkedValues) {
+        return new TagTreeItem("Root", tagsTree.getCategory(), List.of(), checkedValues);
     }
 
     /**
-     * This method is used to recursively bypass the hierarchy of each category
-     * to represent it as {@code CheckBoxTreeItem} elements
+     * This method is used to represent search results in the form of a {@code CheckTreeView}. Found tags and
+     * categories are shown together with their ancestor categories; found categories keep their whole content.
      *
-     * @param category the category that will be processed
-     * @return {@code CheckBoxTreeItem} element that represent the {@code category}
+     * @param entries       found categories and tags
+     * @param checkedValues set of checked categories and tags
+     * @return {@code CheckTreeView} root item
      */
-    private static CheckBoxTreeItem<Object> handleCategory(Category category) {
-        CheckBoxTreeItem<Object> categoryTreeItem = new CheckBoxTreeItem<>(category);
-        categoryTreeItem.setIndependent(true);
-        ObservableList<TreeItem<Object>> childItems = categoryTreeItem.getChildren();
-
-        for (Category childCategory : category.getCategory()) {
-            childItems.add(handleCategory(childCategory));
+    public static TagTreeItem getFilteredRootItem(List<TagsSearchIndex.Entry> entries,
+                                                  ObservableSet<Object> checkedValues) {
+        Set<Object> foundCategories = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (TagsSearchIndex.Entry entry : entries) {
+            if (entry.getValue() instanceof Category) foundCategories.add(entry.getValue());
         }
 
-        childItems.addAll(handleTags(category.getTag()));
+        List<TreeItem<Object>> rootChildren = new ArrayList<>();
+        Map<Category, List<TreeItem<Object>>> childrenOfPath = new LinkedHashMap<>();
+        Map<Category, List<TreeItem<Object>>> childrenOfParent = new IdentityHashMap<>();
+        Map<Category, Integer> depths = new IdentityHashMap<>();
+        for (TagsSearchIndex.Entry entry : entries) {
+            if (entry.getPath().stream().anyMatch(foundCategories::contains)) {
+                continue; // the entry is shown within the found category
+            }
 
-        return categoryTreeItem;
-    }
+            List<TreeItem<Object>> children = rootChildren;
+            for (int depth = 0; depth < entry.getPath().size(); depth++) {
+                Category category = entry.getPath().get(depth);
+                childrenOfParent.putIfAbsent(category, children);
+                depths.put(category, depth);
+                children = childrenOfPath.computeIfAbsent(category, c -> new ArrayList<>());
+            }
 
-    /**
-     * This method is used to to represent tags as {@code CheckBoxTreeItem} elements
-     *
-     * @param tags list of items
-     * @return list of tree items
-     */
-    private static ObservableList<TreeItem<Object>> handleTags(List<String> tags) {
-        ObservableList<TreeItem<Object>> treeItems = FXCollections.observableArrayList();
-        for (String tag : tags) {
-            treeItems.add(new CheckBoxTreeItem<>(tag, null, false, true));
+            if (entry.getValue() instanceof Category) {
+                children.add(TagTreeItem.of((Category) entry.getValue(), checkedValues));
+            } else {
+                children.add(TagTreeItem.of((String) entry.getValue(), checkedValues));
+            }
+        }
+
+        // ancestor items are created from the deepest ones, when their children are already known
+        List<Category> ancestors = new ArrayList<>(childrenOfPath.keySet());
+        Collections.reverse(ancestors);
+        ancestors.sort(Comparator.comparingInt(category -> -depths.get(category)));
+        for (Category category : ancestors) {
+            TagTreeItem ancestorItem = TagTreeItem.withChildren(category, childrenOfPath.get(category), checkedValues);
+            ancestorItem.setExpanded(true);
+            childrenOfParent.get(category).add(0, ancestorItem);
         }
-        return treeItems;
+
+        TagTreeItem root = TagTreeItem.withChildren("Root", rootChildren, checkedValues);
+        root.setExpanded(true);
+        return root;
     }
 
     /**
@@ -99,6 +111,54 @@ public abstract class TagsAdapter {
         return tagsMap;
     }
 
+    /**
+     * This method is used to collect names of all tags of the tree
+     *
+     * @param tagsTree instance that contains categories and tags
+     * @return names of tags in the order of the tree
+     */
+    public static Set<String> getTagNames(TagsTree tagsTree) {
+        Set<String> tags = new LinkedHashSet<>();
+        Deque<Category> categories = new ArrayDeque<>(tagsTree.getCategory());
+        while (!categories.isEmpty()) {
+            Category category = categories.poll();
+            tags.addAll(category.getTag());
+            categories.addAll(category.getCategory());
+        }
+        return tags;
+    }
+
+    /**
+     * This method is used to carry checked values over to the reloaded tree. Checked categories are replaced with
+     * the categories of the same name, and categories and tags that are absent in the tree are unchecked.
+     *
+     * @param tagsTree      reloaded instance that contains categories and tags
+     * @param checkedValues set of checked categories and tags
+     */
+    public static void remapCheckedValues(TagsTree tagsTree, ObservableSet<Object> checkedValues) {
+        Map<String, Category> categoriesByName = new HashMap<>();
+        Set<String> tags = new HashSet<>();
+        Deque<Category> categories = new ArrayDeque<>(tagsTree.getCategory());
+        while (!categories.isEmpty()) {
+            Category category = categories.poll();
+            categoriesByName.putIfAbsent(category.getName(), category);
+            tags.addAll(category.getTag());
+            categories.addAll(category.getCategory());
+        }
+
+        List<Object> remapped = new ArrayList<>();
+        for (Object value : checkedValues) {
+            if (value instanceof Category) {
+                Category category = categoriesByName.get(((Category) value).getName());
+                if (category != null) remapped.add(category);
+            } else if (tags.contains(value)) {
+                remapped.add(value);
+            }
+        }
+        checkedValues.retainAll(remapped);
+        checkedValues.addAll(remapped);
+    }
+
     /**
      * This method is used to create map of aliases and tags
      *
@@ -115,4 +175,23 @@ public abstract class TagsAdapter {
         return map;
     }
 
+    /**
+     * This method is used to create dictionary of aliases that suits the size of the tags map. Huge maps are kept
+     * outside of the Java heap.
+     *
+     * @param tagsMap {@code TagsMap} instance
+     * @return dictionary of aliases
+     */
+    public static AliasDictionary getAliasDictionary(TagsMap tagsMap) {
+        long aliases = 0;
+        for (Tag tag : tagsMap.getTag()) {
+            aliases += tag.getAlias().size();
+        }
+        if (aliases > OFF_HEAP_ALIASES_THRESHOLD) {
+            return new OffHeapAliasDictionary(tagsMap);
+        } else {
+            return new HeapAliasDictionary(tagsMap);
+        }
+    }
+
 }
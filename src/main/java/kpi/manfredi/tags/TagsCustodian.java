@@ -2,7 +2,7 @@ package kpi.manfredi.tags;
 
 import kpi.manfredi.tags.map.TagsMap;
 import kpi.manfredi.tags.tree.TagsTree;
-import kpi.manfredi.utils.FileManipulation;
+import kpi.manfredi.utils.ResourceCache;
 import org.xml.sax.SAXException;
 
 import javax.xml.XMLConstants;
@@ -15,6 +15,8 @@ import javax.xml.validation.SchemaFactory;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.lang.reflect.InvocationTargetException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static kpi.manfredi.utils.MessageUtil.formatMessage;
 
@@ -25,6 +27,8 @@ public abstract class TagsCustodian {
     private static final String TAGS_TREE_XSD = "/tags/tagsTree.xsd";
     private static final String TAGS_MAP_XSD = "/tags/tagsMap.xsd";
     private static final String TAGS_XML = "tags.xml";
+    private static final Map<String, Schema> schemas = new ConcurrentHashMap<>();
+    private static final Map<Class<?>, JAXBContext> contexts = new ConcurrentHashMap<>();
 
     /**
      * This method is used to parse data from XML file
@@ -39,17 +43,14 @@ public abstract class TagsCustodian {
     public static Object getTags(File xmlFile, Class<?> targetClass)
             throws FileNotFoundException, JAXBException, IllegalAccessException {
         Object tags;
-        File schemaFile = FileManipulation.getResourceFile(getSchemaLocation(targetClass));
 
         if (xmlFile.exists()) {
             try {
 
-                JAXBContext jaxbContext = JAXBContext.newInstance(targetClass);
+                JAXBContext jaxbContext = getContext(targetClass);
 
                 Unmarshaller jaxbUnmarshaller = jaxbContext.createUnmarshaller();
-                Schema schema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI)
-                        .newSchema(schemaFile);
-                jaxbUnmarshaller.setSchema(schema);
+                jaxbUnmarshaller.setSchema(getSchema(getSchemaLocation(targetClass)));
                 tags = targetClass.cast(jaxbUnmarshaller.unmarshal(xmlFile));
 
             } catch (JAXBException | SAXException e) {
@@ -92,17 +93,13 @@ public abstract class TagsCustodian {
     public static void saveTags(Object tags, File file) throws FileNotFoundException, JAXBException {
         try {
 
-            File schemaFile = FileManipulation.getResourceFile(getSchemaLocation(tags.getClass()));
-
-            JAXBContext jaxbContext = JAXBContext.newInstance(tags.getClass());
+            JAXBContext jaxbContext = getContext(tags.getClass());
             Marshaller jaxbMarshaller = jaxbContext.createMarshaller();
 
             // output pretty printed
             jaxbMarshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
 
-            Schema schema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI)
-                    .newSchema(schemaFile);
-            jaxbMarshaller.setSchema(schema);
+            jaxbMarshaller.setSchema(getSchema(getSchemaLocation(tags.getClass())));
 
             jaxbMarshaller.marshal(tags, file);
 
@@ -111,6 +108,60 @@ public abstract class TagsCustodian {
         }
     }
 
+    /**
+     * This method is used to prepare JAXB context and schema of the class in advance (e.g. in the background
+     * at startup), so the first reading or saving of tags does not wait for them. The schema is compiled before
+     * the context is created, so the warm-up runs in parallel with reading of tags, which needs the context first.
+     *
+     * @param targetClass class of tags
+     * @throws FileNotFoundException schema file not found
+     * @throws JAXBException         context can not be created or schema is not valid
+     */
+    public static void warmUp(Class<?> targetClass) throws FileNotFoundException, JAXBException {
+        try {
+            getSchema(getSchemaLocation(targetClass));
+        } catch (SAXException e) {
+            throw new JAXBException(e);
+        }
+        getContext(targetClass);
+    }
+
+    /**
+     * This method is used to return JAXB context of the class. The context is created once and then shared,
+     * because it is expensive to create and thread-safe.
+     *
+     * @param targetClass class of tags
+     * @return JAXB context
+     * @throws JAXBException context can not be created
+     */
+    private static JAXBContext getContext(Class<?> targetClass) throws JAXBException {
+        JAXBContext context = contexts.get(targetClass);
+        if (context == null) {
+            context = JAXBContext.newInstance(targetClass);
+            contexts.putIfAbsent(targetClass, context);
+        }
+        return context;
+    }
+
+    /**
+     * This method is used to return compiled schema. The schema is compiled from the in-memory copy of the resource
+     * once and then shared, because {@code Schema} is immutable and thread-safe.
+     *
+     * @param schemaLocation schema location
+     * @return compiled schema
+     * @throws FileNotFoundException schema file not found
+     * @throws SAXException          schema is not valid
+     */
+    private static Schema getSchema(String schemaLocation) throws FileNotFoundException, SAXException {
+        Schema schema = schemas.get(schemaLocation);
+        if (schema == null) {
+            schema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI)
+                    .newSchema(ResourceCache.getSource(schemaLocation));
+            schemas.putIfAbsent(schemaLocation, schema);
+        }
+        return schema;
+    }
+
     /**
      * This method is used to return appropriate schema location
      *
@@ -0,0 +1,238 @@
+package kpi.manfredi.tags;
+
+import kpi.manfredi.utils.CompressedBitmap;
+
+import java.io.File;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class is used to filter files by tags of their names (like {@code "#animal #food 001.jpg"}). Each file gets
+ * a number, and each tag is mapped to the bitmap of numbers of the files that have it, so a query is answered
+ * by a few operations over bitmaps.
+ * <br><br>
+ * Query syntax (tags are compared ignoring case):
+ * <ul>
+ * <li>{@code #animal #food} - files with both tags</li>
+ * <li>{@code #animal | #food} - files with any of the tags</li>
+ * <li>{@code #animal -#food} or {@code #animal !#food} - files with the first tag but without the second one</li>
+ * <li>{@code (#cat | #dog) -#food} - parentheses group subqueries</li>
+ * </ul>
+ *
+ * @author manfredi
+ */
+public class TagsFilterIndex {
+    private static final Pattern TAG_PATTERN = Pattern.compile("#[^\\s#]+");
+    private static final Pattern TOKEN_PATTERN = Pattern.compile("\\s*(\\(|\\)|\\||[-!]|#[^\\s#()|]+)");
+
+    private final Map<File, Integer> numbers = new HashMap<>();
+    private final Map<String, CompressedBitmap> bitmaps = new HashMap<>();
+    private final CompressedBitmap allFiles = new CompressedBitmap();
+    private final Deque<Integer> freeNumbers = new ArrayDeque<>();
+    private int nextNumber;
+    private long modificationCount;
+
+    /**
+     * This method is used to index tags of the file
+     *
+     * @param file file to index
+     */
+    public void add(File file) {
+        if (numbers.containsKey(file)) return;
+
+        Integer number = freeNumbers.poll();
+        if (number == null) number = nextNumber++;
+        numbers.put(file, number);
+        allFiles.add(number);
+        for (String tag : getTags(file)) {
+            bitmaps.computeIfAbsent(tag, t -> new CompressedBitmap()).add(number);
+        }
+        modificationCount++;
+    }
+
+    /**
+     * This method is used to forget the file
+     *
+     * @param file file to forget
+     */
+    public void remove(File file) {
+        Integer number = numbers.remove(file);
+        if (number == null) return;
+
+        allFiles.remove(number);
+        for (String tag : getTags(file)) {
+            CompressedBitmap bitmap = bitmaps.get(tag);
+            bitmap.remove(number);
+            if (bitmap.isEmpty()) bitmaps.remove(tag);
+        }
+        freeNumbers.push(number);
+        modificationCount++;
+    }
+
+    /**
+     * This method is used to index the new name of the renamed file
+     *
+     * @param file        old file
+     * @param renamedFile new file
+     */
+    public void rename(File file, File renamedFile) {
+        remove(file);
+        add(renamedFile);
+    }
+
+    public int size() {
+        return numbers.size();
+    }
+
+    /**
+     * This method is used to return the number of indexed files with the tag
+     *
+     * @param tag tag
+     * @return number of files
+     */
+    public int count(String tag) {
+        CompressedBitmap bitmap = bitmaps.get(tag.toLowerCase(Locale.ROOT));
+        return bitmap == null ? 0 : bitmap.getCardinality();
+    }
+
+    /**
+     * This method is used to create a filter of files by the query. The filter follows changes of the index:
+     * the query is evaluated again when the filter is used after the index was changed.
+     *
+     * @param query tags query
+     * @return filter that accepts indexed files matching the query
+     * @throws IllegalArgumentException query is not valid
+     */
+    public Predicate<File> filter(String query) {
+        Node node = new Parser(query).parse();
+        return new Predicate<>() {
+            private CompressedBitmap result;
+            private long resultModificationCount = -1;
+
+            @Override
+            public boolean test(File file) {
+                if (resultModificationCount != modificationCount) {
+                    result = node.evaluate();
+                    resultModificationCount = modificationCount;
+                }
+                Integer number = numbers.get(file);
+                return number != null && result.contains(number);
+            }
+        };
+    }
+
+    /**
+     * This method is used to parse tags from the name of the file
+     *
+     * @param file file
+     * @return tags in lower case
+     */
+    static Set<String> getTags(File file) {
+        String name = file.getName();
+        int indexOfLastDot = name.lastIndexOf('.');
+        if (indexOfLastDot > 0) name = name.substring(0, indexOfLastDot);
+
+        Set<String> tags = new HashSet<>();
+        Matcher matcher = TAG_PATTERN.matcher(name);
+        while (matcher.find()) {
+            tags.add(matcher.group().toLowerCase(Locale.ROOT));
+        }
+        return tags;
+    }
+
+    private CompressedBitmap getBitmap(String tag) {
+        CompressedBitmap bitmap = bitmaps.get(tag);
+        return bitmap == null ? new CompressedBitmap() : bitmap;
+    }
+
+    private interface Node {
+        CompressedBitmap evaluate();
+    }
+
+    /**
+     * This class is used to parse the query by the grammar:
+     * <pre>
+     * query  = term ('|' term)*
+     * term   = factor factor*
+     * factor = ('-' | '!') factor | '(' query ')' | tag
+     * </pre>
+     */
+    private class Parser {
+        private final String query;
+        private final List<String> tokens = new ArrayList<>();
+        private int position;
+
+        private Parser(String query) {
+            this.query = query;
+            Matcher matcher = TOKEN_PATTERN.matcher(query);
+            int end = 0;
+            while (matcher.find() && matcher.start() == end) {
+                tokens.add(matcher.group(1));
+                end = matcher.end();
+            }
+            if (!query.substring(end).trim().isEmpty()) {
+                throw new IllegalArgumentException("Unexpected text at " + end + " in query: " + query);
+            }
+        }
+
+        private Node parse() {
+            if (tokens.isEmpty()) throw new IllegalArgumentException("Query is empty");
+            Node node = parseQuery();
+            if (position < tokens.size()) throw unexpected();
+            return node;
+        }
+
+        private Node parseQuery() {
+            Node node = parseTerm();
+            while (accept("|")) {
+                Node left = node;
+                Node right = parseTerm();
+                node = () -> left.evaluate().or(right.evaluate());
+            }
+            return node;
+        }
+
+        private Node parseTerm() {
+            Node node = parseFactor();
+            while (position < tokens.size() && !tokens.get(position).equals("|")
+                    && !tokens.get(position).equals(")")) {
+                Node left = node;
+                Node right = parseFactor();
+                node = () -> left.evaluate().and(right.evaluate());
+            }
+            return node;
+        }
+
+        private Node parseFactor() {
+            if (accept("-") || accept("!")) {
+                Node negated = parseFactor();
+                return () -> allFiles.andNot(negated.evaluate());
+            }
+            if (accept("(")) {
+                Node node = parseQuery();
+                if (!accept(")")) throw unexpected();
+                return node;
+            }
+            if (position < tokens.size() && tokens.get(position).startsWith("#")) {
+                String tag = tokens.get(position++).toLowerCase(Locale.ROOT);
+                return () -> getBitmap(tag);
+            }
+            throw unexpected();
+        }
+
+        private boolean accept(String token) {
+            if (position < tokens.size() && tokens.get(position).equals(token)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private IllegalArgumentException unexpected() {
+            String token = position < tokens.size() ? "'" + tokens.get(position) + "'" : "end";
+            return new IllegalArgumentException("Unexpected " + token + " in query: " + query);
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package kpi.manfredi.tags;
+
+import kpi.manfredi.tags.tree.Category;
+import kpi.manfredi.tags.tree.TagsTree;
+
+import java.util.*;
+
+/**
+ * This class is used to find categories and tags by any part of their names.
+ * <br><br>
+ * The index is a sorted array of all suffixes of the names, so both prefix and infix queries are answered by
+ * a binary search. Instances are immutable: {@link #update(TagsTree)} returns a new index that reuses entries
+ * and sorted suffixes of the unchanged part of the tree, so the index can be built in the background and
+ * published to the FX thread.
+ */
+public class TagsSearchIndex {
+    private static final int MAX_NAME_LENGTH = 0xFFFF;
+    private static final TagsSearchIndex EMPTY =
+            new TagsSearchIndex(new ArrayList<>(), new HashMap<>(), new long[0], 0);
+
+    private final List<Entry> entries;
+    private final Map<String, Integer> entryIds;
+    private final long[] suffixes;
+    private final int removed;
+
+    private TagsSearchIndex(List<Entry> entries, Map<String, Integer> entryIds, long[] suffixes, int removed) {
+        this.entries = entries;
+        this.entryIds = entryIds;
+        this.suffixes = suffixes;
+        this.removed = removed;
+    }
+
+    /**
+     * This method is used to build index of categories and tags
+     *
+     * @param tagsTree instance that contains categories and tags
+     * @return index
+     */
+    public static TagsSearchIndex build(TagsTree tagsTree) {
+        return EMPTY.update(tagsTree);
+    }
+
+    /**
+     * This method is used to build index of the reloaded tree. Suffixes are sorted only for the names that were
+     * added since this index was built; the rest are merged from this index.
+     *
+     * @param tagsTree instance that contains categories and tags
+     * @return new index
+     */
+    public TagsSearchIndex update(TagsTree tagsTree) {
+        LinkedHashMap<String, Entry> actualEntries = new LinkedHashMap<>();
+        collectEntries(tagsTree.getCategory(), new ArrayList<>(), actualEntries);
+
+        // compact the index when too many entries were removed
+        int kept = countKept(actualEntries);
+        int removedEntries = removed + entryIds.size() - kept;
+        if (removedEntries * 2 > entries.size() + actualEntries.size() - kept) {
+            return EMPTY.update(actualEntries);
+        }
+        return update(actualEntries);
+    }
+
+    private TagsSearchIndex update(LinkedHashMap<String, Entry> actualEntries) {
+        List<Entry> newEntries = new ArrayList<>(entries);
+        Map<String, Integer> newEntryIds = new HashMap<>(actualEntries.size() * 2);
+        int newRemoved = removed;
+
+        for (Map.Entry<String, Integer> entryId : entryIds.entrySet()) {
+            Entry actualEntry = actualEntries.get(entryId.getKey());
+            if (actualEntry == null) {
+                newEntries.set(entryId.getValue(), null);
+                newRemoved++;
+            } else {
+                // values are new objects after the tree reloading
+                newEntries.set(entryId.getValue(), actualEntry);
+                newEntryIds.put(entryId.getKey(), entryId.getValue());
+            }
+        }
+
+        List<Long> addedSuffixes = new ArrayList<>();
+        for (Map.Entry<String, Entry> actualEntry : actualEntries.entrySet()) {
+            if (newEntryIds.containsKey(actualEntry.getKey())) continue;
+
+            int id = newEntries.size();
+            newEntries.add(actualEntry.getValue());
+            newEntryIds.put(actualEntry.getKey(), id);
+            int length = Math.min(actualEntry.getValue().name.length(), MAX_NAME_LENGTH);
+            for (int offset = 0; offset < length; offset++) {
+                addedSuffixes.add(((long) id << 16) | offset);
+            }
+        }
+
+        Comparator<Long> comparator = (a, b) -> compareSuffixes(newEntries, a, b);
+        addedSuffixes.sort(comparator);
+
+        // merge sorted suffixes of kept entries with the sorted suffixes of added ones
+        long[] newSuffixes = new long[suffixes.length + addedSuffixes.size()];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < suffixes.length || j < addedSuffixes.size()) {
+            if (i < suffixes.length && newEntries.get(getEntryId(suffixes[i])) == null) {
+                i++;
+            } else if (j == addedSuffixes.size()
+                    || i < suffixes.length && comparator.compare(suffixes[i], addedSuffixes.get(j)) <= 0) {
+                newSuffixes[size++] = suffixes[i++];
+            } else {
+                newSuffixes[size++] = addedSuffixes.get(j++);
+            }
+        }
+
+        return new TagsSearchIndex(newEntries, newEntryIds, Arrays.copyOf(newSuffixes, size), newRemoved);
+    }
+
+    /**
+     * This method is used to find categories and tags whose names contain the query. Names that start with the
+     * query go first.
+     *
+     * @param query       part of the name (case insensitive)
+     * @param limit       maximum number of results
+     * @param budgetNanos time given for the search; results found within this time are returned
+     * @return list of found entries
+     */
+    public List<Entry> search(String query, int limit, long budgetNanos) {
+        long deadline = System.nanoTime() + budgetNanos;
+        String normalizedQuery = query.trim().toLowerCase();
+        List<Entry> result = new ArrayList<>();
+        if (normalizedQuery.isEmpty()) return result;
+
+        int from = lowerBound(normalizedQuery);
+        BitSet found = new BitSet(entries.size());
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = from; i < suffixes.length && result.size() < limit; i++) {
+                if ((i & 0xFF) == 0 && System.nanoTime() > deadline) return result;
+
+                long suffix = suffixes[i];
+                if (!startsWith(suffix, normalizedQuery)) break;
+
+                boolean prefix = getOffset(suffix) == 0;
+                int id = getEntryId(suffix);
+                if ((pass == 0) == prefix && !found.get(id)) {
+                    found.set(id);
+                    result.add(entries.get(id));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * This method is used to return the number of indexed categories and tags
+     *
+     * @return number of entries
+     */
+    public int size() {
+        return entryIds.size();
+    }
+
+    private int countKept(Map<String, Entry> actualEntries) {
+        int kept = 0;
+        for (String key : entryIds.keySet()) {
+            if (actualEntries.containsKey(key)) kept++;
+        }
+        return kept;
+    }
+
+    private int lowerBound(String query) {
+        int low = 0;
+        int high = suffixes.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (compareSuffix(suffixes[middle], query) < 0) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private boolean startsWith(long suffix, String query) {
+        String name = entries.get(getEntryId(suffix)).name;
+        return name.startsWith(query, getOffset(suffix));
+    }
+
+    private int compareSuffix(long suffix, String query) {
+        String name = entries.get(getEntryId(suffix)).name;
+        int offset = getOffset(suffix);
+        int length = Math.min(name.length() - offset, query.length());
+        for (int i = 0; i < length; i++) {
+            int difference = name.charAt(offset + i) - query.charAt(i);
+            if (difference != 0) return difference;
+        }
+        return (name.length() - offset) - query.length();
+    }
+
+    private static int compareSuffixes(List<Entry> entries, long a, long b) {
+        String first = entries.get(getEntryId(a)).name;
+        String second = entries.get(getEntryId(b)).name;
+        int i = getOffset(a);
+        int j = getOffset(b);
+        while (i < first.length() && j < second.length()) {
+            int difference = first.charAt(i++) - second.charAt(j++);
+            if (difference != 0) return difference;
+        }
+        return (first.length() - i) - (second.length() - j);
+    }
+
+    private static int getEntryId(long suffix) {
+        return (int) (suffix >>> 16);
+    }
+
+    private static int getOffset(long suffix) {
+        return (int) (suffix & 0xFFFF);
+    }
+
+    /**
+     * This method is used to recursively bypass the hierarchy of categories and collect entries by their keys
+     */
+    private static void collectEntries(List<Category> categories,
+                                       List<Category> path,
+                                       Map<String, Entry> result) {
+        StringBuilder pathKey = new StringBuilder();
+        for (Category category : path) {
+            pathKey.append(category.getName()).append('/');
+        }
+
+        for (Category category : categories) {
+            result.put("c:" + pathKey + category.getName(), new Entry(category, category.getName(), path));
+
+            List<Category> childPath = new ArrayList<>(path);
+            childPath.add(category);
+            collectEntries(category.getCategory(), childPath, result);
+
+            String categoryKey = "t:" + pathKey + category.getName() + '/';
+            for (String tag : category.getTag()) {
+                result.put(categoryKey + tag, new Entry(tag, tag, childPath));
+            }
+        }
+    }
+
+    /**
+     * This class is used to represent found category or tag
+     */
+    public static class Entry {
+        private final Object value;
+        private final String name;
+        private final List<Category> path;
+
+        private Entry(Object value, String name, List<Category> path) {
+            this.value = value;
+            this.name = name.toLowerCase();
+            this.path = path;
+        }
+
+        /**
+         * This method is used to return the found category or tag
+         *
+         * @return {@code Category} or {@code String} (tag)
+         */
+        public Object getValue() {
+            return value;
+        }
+
+        /**
+         * This method is used to return categories from the root to the parent of the found value
+         *
+         * @return list of ancestors
+         */
+        public List<Category> getPath() {
+            return path;
+        }
+    }
+}
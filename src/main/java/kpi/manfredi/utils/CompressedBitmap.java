@@ -0,0 +1,381 @@
+package kpi.manfredi.utils;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * This class is used to keep a set of non-negative integers in a compact form. Values are split into chunks of
+ * 65536 by their high bits; a sparse chunk is kept as a sorted array of the low bits, a dense chunk as a bitmap
+ * of 8 KB. Set operations work chunk by chunk, so they are proportional to the size of the sets, not to the
+ * range of values.
+ *
+ * @author manfredi
+ */
+public class CompressedBitmap {
+    private static final int ARRAY_LIMIT = 4096; // an array of more values would take more than a bitmap
+    private static final int BITMAP_WORDS = 1 << 10;
+
+    private Chunk[] chunks;
+
+    public CompressedBitmap() {
+        this.chunks = new Chunk[0];
+    }
+
+    private CompressedBitmap(Chunk[] chunks) {
+        this.chunks = chunks;
+    }
+
+    /**
+     * This method is used to add the value
+     *
+     * @param value non-negative value
+     */
+    public void add(int value) {
+        int high = value >>> 16;
+        if (high >= chunks.length) chunks = Arrays.copyOf(chunks, high + 1);
+        Chunk chunk = chunks[high];
+        chunks[high] = chunk == null ? new ArrayChunk().add((char) value) : chunk.add((char) value);
+    }
+
+    /**
+     * This method is used to remove the value
+     *
+     * @param value non-negative value
+     */
+    public void remove(int value) {
+        int high = value >>> 16;
+        if (high >= chunks.length || chunks[high] == null) return;
+        chunks[high] = chunks[high].remove((char) value);
+    }
+
+    public boolean contains(int value) {
+        int high = value >>> 16;
+        return value >= 0 && high < chunks.length && chunks[high] != null && chunks[high].contains((char) value);
+    }
+
+    public int getCardinality() {
+        int cardinality = 0;
+        for (Chunk chunk : chunks) {
+            if (chunk != null) cardinality += chunk.cardinality();
+        }
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return getCardinality() == 0;
+    }
+
+    /**
+     * This method is used to pass the values to the consumer in ascending order
+     *
+     * @param consumer consumer of values
+     */
+    public void forEach(IntConsumer consumer) {
+        for (int high = 0; high < chunks.length; high++) {
+            if (chunks[high] != null) chunks[high].forEach(high << 16, consumer);
+        }
+    }
+
+    /**
+     * @param other other bitmap
+     * @return new bitmap of the values contained in both bitmaps
+     */
+    public CompressedBitmap and(CompressedBitmap other) {
+        Chunk[] result = new Chunk[Math.min(chunks.length, other.chunks.length)];
+        for (int high = 0; high < result.length; high++) {
+            if (chunks[high] != null && other.chunks[high] != null) {
+                result[high] = normalize(chunks[high].and(other.chunks[high]));
+            }
+        }
+        return new CompressedBitmap(result);
+    }
+
+    /**
+     * @param other other bitmap
+     * @return new bitmap of the values contained in any of the bitmaps
+     */
+    public CompressedBitmap or(CompressedBitmap other) {
+        Chunk[] result = new Chunk[Math.max(chunks.length, other.chunks.length)];
+        for (int high = 0; high < result.length; high++) {
+            Chunk chunk = high < chunks.length ? chunks[high] : null;
+            Chunk otherChunk = high < other.chunks.length ? other.chunks[high] : null;
+            if (chunk == null) {
+                result[high] = otherChunk == null ? null : otherChunk.copy();
+            } else {
+                result[high] = otherChunk == null ? chunk.copy() : normalize(chunk.or(otherChunk));
+            }
+        }
+        return new CompressedBitmap(result);
+    }
+
+    /**
+     * @param other other bitmap
+     * @return new bitmap of the values contained in this bitmap but not in the other one
+     */
+    public CompressedBitmap andNot(CompressedBitmap other) {
+        Chunk[] result = new Chunk[chunks.length];
+        for (int high = 0; high < result.length; high++) {
+            if (chunks[high] == null) continue;
+            Chunk otherChunk = high < other.chunks.length ? other.chunks[high] : null;
+            result[high] = otherChunk == null ? chunks[high].copy() : normalize(chunks[high].andNot(otherChunk));
+        }
+        return new CompressedBitmap(result);
+    }
+
+    /**
+     * This method is used to keep the chunk in the most compact form; empty chunks are dropped
+     */
+    private static Chunk normalize(Chunk chunk) {
+        int cardinality = chunk.cardinality();
+        if (cardinality == 0) return null;
+        if (chunk instanceof BitmapChunk && cardinality <= ARRAY_LIMIT) return ((BitmapChunk) chunk).toArrayChunk();
+        if (chunk instanceof ArrayChunk && cardinality > ARRAY_LIMIT) return ((ArrayChunk) chunk).toBitmapChunk();
+        return chunk;
+    }
+
+    private interface Chunk {
+        Chunk add(char value);
+
+        Chunk remove(char value);
+
+        boolean contains(char value);
+
+        int cardinality();
+
+        void forEach(int base, IntConsumer consumer);
+
+        Chunk copy();
+
+        Chunk and(Chunk other);
+
+        Chunk or(Chunk other);
+
+        Chunk andNot(Chunk other);
+    }
+
+    private static final class ArrayChunk implements Chunk {
+        private char[] values;
+        private int size;
+
+        private ArrayChunk() {
+            this(new char[4], 0);
+        }
+
+        private ArrayChunk(char[] values, int size) {
+            this.values = values;
+            this.size = size;
+        }
+
+        @Override
+        public Chunk add(char value) {
+            int index = Arrays.binarySearch(values, 0, size, value);
+            if (index >= 0) return this;
+            if (size == ARRAY_LIMIT) return toBitmapChunk().add(value);
+
+            index = -index - 1;
+            if (size == values.length) values = Arrays.copyOf(values, Math.min(size * 2, ARRAY_LIMIT));
+            System.arraycopy(values, index, values, index + 1, size - index);
+            values[index] = value;
+            size++;
+            return this;
+        }
+
+        @Override
+        public Chunk remove(char value) {
+            int index = Arrays.binarySearch(values, 0, size, value);
+            if (index < 0) return this;
+            System.arraycopy(values, index + 1, values, index, size - index - 1);
+            size--;
+            return size == 0 ? null : this;
+        }
+
+        @Override
+        public boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, size, value) >= 0;
+        }
+
+        @Override
+        public int cardinality() {
+            return size;
+        }
+
+        @Override
+        public void forEach(int base, IntConsumer consumer) {
+            for (int i = 0; i < size; i++) consumer.accept(base | values[i]);
+        }
+
+        @Override
+        public Chunk copy() {
+            return new ArrayChunk(Arrays.copyOf(values, Math.max(size, 1)), size);
+        }
+
+        @Override
+        public Chunk and(Chunk other) {
+            char[] result = new char[size];
+            int count = 0;
+            if (other instanceof ArrayChunk) {
+                ArrayChunk array = (ArrayChunk) other;
+                int i = 0;
+                int j = 0;
+                while (i < size && j < array.size) {
+                    if (values[i] < array.values[j]) {
+                        i++;
+                    } else if (values[i] > array.values[j]) {
+                        j++;
+                    } else {
+                        result[count++] = values[i++];
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < size; i++) {
+                    if (other.contains(values[i])) result[count++] = values[i];
+                }
+            }
+            return new ArrayChunk(result, count);
+        }
+
+        @Override
+        public Chunk or(Chunk other) {
+            if (other instanceof BitmapChunk) return other.or(this);
+
+            ArrayChunk array = (ArrayChunk) other;
+            char[] result = new char[size + array.size];
+            int count = 0;
+            int i = 0;
+            int j = 0;
+            while (i < size || j < array.size) {
+                if (j == array.size || (i < size && values[i] < array.values[j])) {
+                    result[count++] = values[i++];
+                } else if (i == size || values[i] > array.values[j]) {
+                    result[count++] = array.values[j++];
+                } else {
+                    result[count++] = values[i++];
+                    j++;
+                }
+            }
+            return new ArrayChunk(result, count);
+        }
+
+        @Override
+        public Chunk andNot(Chunk other) {
+            char[] result = new char[size];
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                if (!other.contains(values[i])) result[count++] = values[i];
+            }
+            return new ArrayChunk(result, count);
+        }
+
+        private BitmapChunk toBitmapChunk() {
+            long[] words = new long[BITMAP_WORDS];
+            for (int i = 0; i < size; i++) words[values[i] >>> 6] |= 1L << values[i];
+            return new BitmapChunk(words, size);
+        }
+    }
+
+    private static final class BitmapChunk implements Chunk {
+        private final long[] words;
+        private int cardinality;
+
+        private BitmapChunk(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        private BitmapChunk(long[] words) {
+            this(words, 0);
+            for (long word : words) cardinality += Long.bitCount(word);
+        }
+
+        @Override
+        public Chunk add(char value) {
+            long word = words[value >>> 6];
+            long bit = 1L << value;
+            if ((word & bit) == 0) {
+                words[value >>> 6] = word | bit;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        public Chunk remove(char value) {
+            long word = words[value >>> 6];
+            long bit = 1L << value;
+            if ((word & bit) != 0) {
+                words[value >>> 6] = word & ~bit;
+                cardinality--;
+            }
+            return cardinality <= ARRAY_LIMIT ? normalize(this) : this;
+        }
+
+        @Override
+        public boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        public int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        public void forEach(int base, IntConsumer consumer) {
+            for (int i = 0; i < words.length; i++) {
+                long word = words[i];
+                while (word != 0) {
+                    consumer.accept(base | (i << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        public Chunk copy() {
+            return new BitmapChunk(words.clone(), cardinality);
+        }
+
+        @Override
+        public Chunk and(Chunk other) {
+            if (other instanceof ArrayChunk) return other.and(this);
+            long[] otherWords = ((BitmapChunk) other).words;
+            long[] result = new long[BITMAP_WORDS];
+            for (int i = 0; i < BITMAP_WORDS; i++) result[i] = words[i] & otherWords[i];
+            return new BitmapChunk(result);
+        }
+
+        @Override
+        public Chunk or(Chunk other) {
+            long[] result = words.clone();
+            if (other instanceof ArrayChunk) {
+                ArrayChunk array = (ArrayChunk) other;
+                for (int i = 0; i < array.size; i++) result[array.values[i] >>> 6] |= 1L << array.values[i];
+            } else {
+                long[] otherWords = ((BitmapChunk) other).words;
+                for (int i = 0; i < BITMAP_WORDS; i++) result[i] |= otherWords[i];
+            }
+            return new BitmapChunk(result);
+        }
+
+        @Override
+        public Chunk andNot(Chunk other) {
+            long[] result = words.clone();
+            if (other instanceof ArrayChunk) {
+                ArrayChunk array = (ArrayChunk) other;
+                for (int i = 0; i < array.size; i++) result[array.values[i] >>> 6] &= ~(1L << array.values[i]);
+            } else {
+                long[] otherWords = ((BitmapChunk) other).words;
+                for (int i = 0; i < BITMAP_WORDS; i++) result[i] &= ~otherWords[i];
+            }
+            return new BitmapChunk(result);
+        }
+
+        private ArrayChunk toArrayChunk() {
+            char[] values = new char[Math.max(cardinality, 1)];
+            int[] count = {0};
+            forEach(0, value -> values[count[0]++] = (char) value);
+            return new ArrayChunk(values, count[0]);
+        }
+    }
+}
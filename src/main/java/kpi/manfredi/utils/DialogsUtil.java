@@ -1,7 +1,11 @@
 package kpi.manfredi.utils;
 
+import javafx.concurrent.Task;
 import javafx.scene.control.Alert;
 import javafx.scene.control.ButtonType;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.layout.VBox;
 
 import java.io.File;
 import java.util.Optional;
@@ -100,4 +104,31 @@ public abstract class DialogsUtil {
                 formatMessage("file.not.found.extended", file)
         );
     }
+
+    /**
+     * This method is used to show progress of the task. The dialog is closed when the task is finished; the
+     * "Cancel" button cancels the task. It has to be called before the task is started.
+     *
+     * @param title title of window
+     * @param task  task to follow
+     */
+    public static void showProgressDialog(String title, Task<?> task) {
+        Label message = new Label();
+        message.textProperty().bind(task.messageProperty());
+        ProgressBar progressBar = new ProgressBar();
+        progressBar.setPrefWidth(360);
+        progressBar.progressProperty().bind(task.progressProperty());
+
+        Alert alert = new Alert(Alert.AlertType.NONE);
+        alert.setTitle(title);
+        alert.getDialogPane().setContent(new VBox(8, message, progressBar));
+        alert.getButtonTypes().setAll(ButtonType.CANCEL);
+        alert.setOnHidden(event -> {
+            if (task.isRunning()) task.cancel();
+        });
+        task.runningProperty().addListener((observable, wasRunning, isRunning) -> {
+            if (!isRunning) alert.close();
+        });
+        alert.show();
+    }
 }
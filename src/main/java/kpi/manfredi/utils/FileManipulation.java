@@ -1,80 +1,320 @@
 package kpi.manfredi.utils;
 
-import com.drew.imaging.ImageMetadataReader;
-import com.drew.metadata.Metadata;
-import com.drew.metadata.Tag;
-import com.drew.metadata.file.FileTypeDirectory;
 import javafx.collections.FXCollections;
 import javafx.scene.image.Image;
+import kpi.manfredi.metadata.MetadataCache;
+import kpi.manfredi.renaming.DirectoryNameIndex;
+import kpi.manfredi.renaming.RenamePlanner;
+import kpi.manfredi.renaming.RenameTransaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.net.URI;
 import java.net.URL;
-import java.nio.file.FileAlreadyExistsException;
-import java.nio.file.FileSystemException;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static kpi.manfredi.utils.DialogsUtil.showFileNotFoundAlert;
-import static kpi.manfredi.utils.MessageUtil.formatMessage;
 
 public abstract class FileManipulation {
     private static final Logger logger = LoggerFactory.getLogger(FileManipulation.class);
+    private static final int IO_PARALLELISM = 8;
+    private static final String TRASH_ORIGIN_FILE = ".origin";
+    public static final Path DEFAULT_TRASH_DIR = Paths.get(System.getProperty("user.home"), ".image-handler", "trash");
 
     public static List<File> removeDuplicates(List<File> list) {
         return list.stream().distinct().collect(Collectors.toList());
     }
 
+    /**
+     * This method is used to list files to be imported. Files are taken as is, directories are replaced by the
+     * files they contain. Hidden subdirectories and subdirectories that can not be read are skipped.
+     *
+     * @param roots     files and directories
+     * @param recursive {@code true} to list files of subdirectories too
+     * @param listener  listener of the number of listed files; listing stops when it is cancelled
+     * @return regular files in the order they were found
+     */
+    public static List<File> listFiles(List<File> roots, boolean recursive, ProgressListener listener) {
+        List<File> files = new ArrayList<>();
+        for (File root : roots) {
+            if (listener.isCancelled()) break;
+            if (!root.isDirectory()) {
+                files.add(root);
+                listener.update(files.size());
+                continue;
+            }
+
+            Path start = root.toPath();
+            try {
+                Files.walkFileTree(start, EnumSet.noneOf(FileVisitOption.class), recursive ? Integer.MAX_VALUE : 1,
+                        new SimpleFileVisitor<>() {
+                            @Override
+                            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                                if (listener.isCancelled()) return FileVisitResult.TERMINATE;
+                                boolean hidden = !dir.equals(start) && dir.getFileName().toString().startsWith(".");
+                                return hidden ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                            }
+
+                            @Override
+                            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                                if (attrs.isRegularFile()) {
+                                    files.add(file.toFile());
+                                    listener.update(files.size());
+                                }
+                                return listener.isCancelled() ? FileVisitResult.TERMINATE : FileVisitResult.CONTINUE;
+                            }
+
+                            @Override
+                            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                                logger.warn("{} was skipped: {}", file, e.toString());
+                                return FileVisitResult.CONTINUE;
+                            }
+                        });
+            } catch (IOException e) {
+                logger.warn("{} was not listed: {}", root, e.toString());
+            }
+        }
+        return files;
+    }
+
+    /**
+     * This method is used to keep only image files. Formats are recognized by the file headers, which are read
+     * in parallel by at most {@value IO_PARALLELISM} threads. Formats of files that were seen before are taken
+     * from {@link MetadataCache}.
+     *
+     * @param files list of files
+     * @return list of images in the same order
+     */
     public static List<File> filterImages(List<File> files) {
-        return files.stream().filter(FileManipulation::isImage).collect(Collectors.toList());
+        return filterImages(files, true);
+    }
+
+    /**
+     * This method is used to keep only image files, like {@link #filterImages(List)}. Files that are checked in
+     * several chunks may skip saving of the metadata cache until the last chunk.
+     *
+     * @param files        list of files
+     * @param saveMetadata {@code true} to save the metadata cache after checking
+     * @return list of images in the same order
+     */
+    public static List<File> filterImages(List<File> files, boolean saveMetadata) {
+        ForkJoinPool pool = new ForkJoinPool(IO_PARALLELISM);
+        try {
+            return pool.submit(() -> files.parallelStream()
+                    .filter(FileManipulation::isImage)
+                    .collect(Collectors.toList())).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new ArrayList<>();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdown();
+            if (saveMetadata) saveMetadataCache();
+        }
     }
 
     private static boolean isImage(File file) {
         try {
-            Metadata metadata = ImageMetadataReader.readMetadata(file);
-            FileTypeDirectory fileTypeDirectory = metadata.getFirstDirectoryOfType(FileTypeDirectory.class);
-            ArrayList<Tag> tags = new ArrayList<>(fileTypeDirectory.getTags());
-            String description = tags.get(0).getDescription();
-            switch (description) {
-                case "PNG":
-                    logger.debug("PNG file. {}", file);
-                    break;
-                case "JPEG":
-                    logger.debug("JPEG file. {}", file);
-                    break;
-                default:
-                    logger.debug("File is not image! {}", file);
-                    return false;
+            ImageType type = MetadataCache.getDefault().getType(file);
+            if (type != null && type.isDisplayable()) {
+                logger.debug("{} file. {}", type, file);
+                return true;
+            } else {
+                logger.debug("File is not image! {}", file);
+                return false;
             }
-            return true;
-        } catch (Exception ex) {
+        } catch (IOException ex) {
             logger.warn(ex.getMessage());
             return false;
         }
     }
 
+    /**
+     * This method is used to save the metadata cache, so formats of checked files are known in the next session
+     */
+    public static void saveMetadataCache() {
+        try {
+            MetadataCache.getDefault().save();
+        } catch (IOException e) {
+            logger.warn("Metadata cache was not saved: {}", e.toString());
+        }
+    }
+
     public static List<File> deleteFiles(List<File> fileArrayList) {
-        List<File> notDeletedFiles = new ArrayList<>();
-        fileArrayList.forEach(file -> {
-            if (file.exists()) {
-                logger.debug("-- Deleting file " + file);
-                boolean isDeleted = file.delete();
-                if (isDeleted) {
-                    logger.debug("---- File was deleted successfully");
-                } else {
-                    logger.error("---- Error. The file was not deleted!");
-                    notDeletedFiles.add(file);
+        return deleteFiles(fileArrayList, ProgressListener.NONE);
+    }
+
+    /**
+     * This method is used to delete files permanently. Files are deleted in parallel by at most
+     * {@value IO_PARALLELISM} threads.
+     *
+     * @param files    files to delete
+     * @param listener receiver of progress
+     * @return files that were not deleted (including files skipped after cancellation)
+     */
+    public static List<File> deleteFiles(List<File> files, ProgressListener listener) {
+        AtomicInteger processed = new AtomicInteger();
+        List<File> notDeletedFiles = runInParallel(files, file -> {
+            boolean isDeleted = false;
+            if (!listener.isCancelled()) {
+                try {
+                    Files.delete(file.toPath());
+                    DirectoryNameIndex.forget(file.toPath());
+                    isDeleted = true;
+                } catch (NoSuchFileException e) {
+                    logger.warn("File does not exist! {}", file);
+                    isDeleted = true;
+                } catch (IOException e) {
+                    logger.error("File {} was not deleted: {}", file, e.toString());
                 }
-            } else {
-                logger.error("-- File does not exist! " + file);
             }
+            listener.update(processed.incrementAndGet());
+            return isDeleted;
         });
+        logger.info("{} of {} files were deleted", files.size() - notDeletedFiles.size(), files.size());
         return notDeletedFiles;
     }
 
+    /**
+     * This method is used to move files into the trash directory instead of deleting them.
+     * <br><br>
+     * Files of each directory are first renamed into a staging directory next to them (a rename within
+     * a directory is cheap and never crosses file systems), and then the whole staging directory is moved into
+     * a new folder of the trash directory by a single move. When the trash is on another file system, files are
+     * moved one by one. The staging directory keeps the original path in the "{@value TRASH_ORIGIN_FILE}" file.
+     *
+     * @param files    files to move
+     * @param trashDir trash directory
+     * @param listener receiver of progress
+     * @return files that were not moved (including files skipped after cancellation)
+     */
+    public static List<File> moveToTrash(List<File> files, Path trashDir, ProgressListener listener) {
+        Map<Path, List<File>> filesByDir = new LinkedHashMap<>();
+        for (File file : files) {
+            filesByDir.computeIfAbsent(file.getAbsoluteFile().toPath().getParent(), dir -> new ArrayList<>())
+                    .add(file);
+        }
+
+        Path batchDir = trashDir.resolve(
+                DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS").format(LocalDateTime.now()));
+        AtomicInteger processed = new AtomicInteger();
+        List<File> notMovedFiles = new ArrayList<>();
+        int dirNumber = 0;
+        for (Map.Entry<Path, List<File>> entry : filesByDir.entrySet()) {
+            Path dir = entry.getKey();
+            Path staging = dir.resolve(".trash-" + UUID.randomUUID());
+            try {
+                Files.createDirectory(staging);
+                Files.write(staging.resolve(TRASH_ORIGIN_FILE), dir.toString().getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                logger.error("Staging directory {} was not created: {}", staging, e.toString());
+                notMovedFiles.addAll(entry.getValue());
+                processed.addAndGet(entry.getValue().size());
+                continue;
+            }
+
+            List<File> notStagedFiles = runInParallel(entry.getValue(), file -> {
+                boolean isMoved = false;
+                if (!listener.isCancelled()) {
+                    try {
+                        Files.move(file.toPath(), staging.resolve(file.getName()));
+                        DirectoryNameIndex.forget(file.toPath());
+                        isMoved = true;
+                    } catch (IOException e) {
+                        logger.error("File {} was not moved to trash: {}", file, e.toString());
+                    }
+                }
+                listener.update(processed.incrementAndGet());
+                return isMoved;
+            });
+            notMovedFiles.addAll(notStagedFiles);
+            if (notStagedFiles.size() == entry.getValue().size()) {
+                deleteQuietly(staging.resolve(TRASH_ORIGIN_FILE));
+                deleteQuietly(staging);
+                continue;
+            }
+
+            Path target = batchDir.resolve(++dirNumber + "-" + dir.getFileName());
+            try {
+                moveStagingDirectory(staging, target);
+            } catch (IOException e) {
+                logger.error("Staging directory {} was not moved to trash: {}", staging, e.toString());
+            }
+        }
+        logger.info("{} of {} files were moved to {}", files.size() - notMovedFiles.size(), files.size(), batchDir);
+        return notMovedFiles;
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            logger.warn("{} was not deleted: {}", path, e.toString());
+        }
+    }
+
+    private static void moveStagingDirectory(Path staging, Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        try {
+            Files.move(staging, target, StandardCopyOption.ATOMIC_MOVE);
+            return;
+        } catch (AtomicMoveNotSupportedException e) {
+            // the trash is on another file system
+        }
+
+        Files.createDirectories(target);
+        try (DirectoryStream<Path> stagedFiles = Files.newDirectoryStream(staging)) {
+            for (Path stagedFile : stagedFiles) {
+                Files.move(stagedFile, target.resolve(stagedFile.getFileName()));
+            }
+        }
+        Files.delete(staging);
+    }
+
+    /**
+     * This method is used to apply the action to each file in parallel by at most {@value IO_PARALLELISM} threads
+     *
+     * @param files  files
+     * @param action action which returns {@code true} on success
+     * @return files for which the action failed, in the original order
+     */
+    private static List<File> runInParallel(List<File> files, Predicate<File> action) {
+        boolean[] succeeded = new boolean[files.size()];
+        ForkJoinPool pool = new ForkJoinPool(IO_PARALLELISM);
+        try {
+            pool.submit(() -> IntStream.range(0, files.size()).parallel()
+                    .forEach(i -> succeeded[i] = action.test(files.get(i)))).get();
+        } catch (InterruptedException e) {
+            // the action skips the rest of files after cancellation, so results are complete when the pool is idle
+            pool.awaitQuiescence(1, TimeUnit.MINUTES);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        List<File> failedFiles = new ArrayList<>();
+        for (int i = 0; i < succeeded.length; i++) {
+            if (!succeeded[i]) failedFiles.add(files.get(i));
+        }
+        return failedFiles;
+    }
+
     public static File convertToFile(Image image) {
         try {
             URL url = new URL(image.getUrl());
@@ -114,21 +354,18 @@ public abstract class FileManipulation {
      */
     public static File renameFile(File file, String newName) throws IOException {
         if (file.exists()) {
-            String path = file.getPath();
-            String format = getFormatOfFile(path);
-            String dir = path.replace(file.getName(), "");
-            File newFile = new File(dir + newName + format);
-            if (newFile.exists()) {
+            String format = getFormatOfFile(file.getPath());
+            Path newPath;
+            try {
+                newPath = getNameIndex(file).move(file.toPath(), newName + format);
+            } catch (FileAlreadyExistsException e) {
                 throw new FileAlreadyExistsException("File with name '" + newName + format + "' already exists!");
-            }
-
-            boolean success = file.renameTo(newFile);
-            if (!success) {
+            } catch (IOException e) {
                 throw new FileSystemException("File: " + file + " was not successfully renamed!");
-            } else {
-                logger.debug("File '{}' was successfully renamed to '{}'", file.getName(), newFile.getName());
-                return newFile;
             }
+            File newFile = file.toPath().resolveSibling(newPath.getFileName()).toFile();
+            logger.debug("File '{}' was successfully renamed to '{}'", file.getName(), newFile.getName());
+            return newFile;
         } else {
             throw new FileNotFoundException("File '" + file + "' not found!");
         }
@@ -136,7 +373,8 @@ public abstract class FileManipulation {
 
     /**
      * This method is used to rename a file until it is successfully renamed. If the file with the passed name exists,
-     * the method tries to add a number at the end of the name until its name becomes free
+     * the method adds a number at the end of the name. Free numbers are taken from the index of the directory,
+     * so the file system is not asked about each of them.
      *
      * @param file file to rename
      * @param name new name of file
@@ -146,52 +384,57 @@ public abstract class FileManipulation {
      */
     public static File renameFileUntilSuccessful(File file, String name) throws IOException {
         if (file.exists()) {
-            File resultFile = null;
-            int i = 0;
-            while (resultFile == null) {
-                try {
-                    resultFile = FileManipulation.renameFile(
-                            file,
-                            i == 0 ? name : name + String.format(" %03d", i));
-                } catch (FileAlreadyExistsException existsException) {
-                    i++;
-                }
-            }
-            return resultFile;
+            String format = getFormatOfFile(file.getPath());
+            Path newPath = getNameIndex(file).move(file.toPath(), name, format);
+            File newFile = file.toPath().resolveSibling(newPath.getFileName()).toFile();
+            logger.debug("File '{}' was successfully renamed to '{}'", file.getName(), newFile.getName());
+            return newFile;
         } else {
             throw new FileNotFoundException("File '" + file + "' not found!");
         }
     }
 
+    /**
+     * This method is used to rename files by the template "{@code prefix number postfix}". Numbers that are taken
+     * by files outside of the list are skipped, while names of the files in the list are reused, so the numbering
+     * has no gaps. Moves are ordered by {@link RenamePlanner} and performed in a single journaled batch.
+     *
+     * @param itemsToRename files to rename
+     * @param prefix        prefix of new names
+     * @param zeroPad       minimal number of digits in numbers
+     * @param postfix       postfix of new names
+     * @return renamed files
+     */
     public static List<File> renameFilesByTemplate(
             List<File> itemsToRename, String prefix, Integer zeroPad, String postfix) {
 
+        Set<Path> sourcePaths = new HashSet<>();
+        for (File item : itemsToRename) {
+            sourcePaths.add(item.getAbsoluteFile().toPath().normalize());
+        }
+
         int i = 1;
-        List<File> renamedItems = FXCollections.observableArrayList();
+        Set<Path> targetPaths = new HashSet<>();
+        List<Path> sources = new ArrayList<>();
+        List<Path> targets = new ArrayList<>();
         for (File item : itemsToRename) {
             if (item.exists()) {
                 try {
-                    String path = item.getPath();
-                    String format = getFormatOfFile(path);
-                    path = path.replace(item.getName(), "");
-                    File newFile;
-                    do {
-                        newFile = new File(path
-                                + prefix
-                                + String.format("%0" + zeroPad + "d", i++)
-                                + postfix
-                                + format);
-                    } while (newFile.exists());
-
-                    boolean success = item.renameTo(newFile);
-                    if (!success) {
-                        throw new IOException("File:\n" + item + "\nrenaming was failed!");
-                    } else {
-                        renamedItems.add(newFile);
-                        logger.debug("File \"{}\" was successfully renamed to \"{}\"",
-                                item.getName(),
-                                newFile.getName());
+                    String format = getFormatOfFile(item.getPath());
+                    DirectoryNameIndex nameIndex = getNameIndex(item);
+                    Path source = item.getAbsoluteFile().toPath().normalize();
+                    Path target;
+                    while (true) {
+                        String newName = prefix + String.format("%0" + zeroPad + "d", i++) + postfix + format;
+                        target = source.resolveSibling(newName);
+                        if (targetPaths.contains(target)) continue;
+                        // the name is free or it is held by a file of this batch, which will be moved
+                        if (sourcePaths.contains(target) || nameIndex.reserve(newName)) break;
                     }
+
+                    targetPaths.add(target);
+                    sources.add(source);
+                    targets.add(target);
                 } catch (IOException e) {
                     logger.error(e.getMessage());
                 }
@@ -199,64 +442,45 @@ public abstract class FileManipulation {
                 showFileNotFoundAlert(item);
             }
         }
-        return renamedItems;
-    }
 
-    /**
-     * This method is used to return copy of resource file (temporary file) by relative path
-     * (like {@code '/path/to/file.txt'})
-     *
-     * @param path path to resource file
-     * @return <ui>
-     * <li>A temporary copy of the resource extracted from this file if a program is called from
-     * {@code *.jar} file</li>
-     * <li>Otherwise, the method returns a resource file.</li>
-     * </ui>
-     * @throws FileNotFoundException file not found
-     */
-    public static File getResourceFile(String path) throws FileNotFoundException {
-        File file;
-
-        URL res = FileManipulation.class.getResource(path);
-        if (res == null) throw new FileNotFoundException(formatMessage("file.not.found", path));
-
-        if (res.getProtocol().equals("jar")) {
-            file = getCopyOfFile(path);
-        } else {
-            file = new File(res.getFile()); // it will work from IDE, but not from a JAR
-        }
+        List<File> renamedItems = FXCollections.observableArrayList();
+        RenameTransaction transaction = new RenameTransaction();
+        int[][] moves = new int[0][];
+        try {
+            moves = RenamePlanner.plan(sources, targets, transaction);
+            RenameTransaction.Result result = transaction.commit();
+            for (int j = 0; j < moves.length; j++) {
+                if (moves[j].length == 0) {
+                    renamedItems.add(targets.get(j).toFile());
+                    continue;
+                }
 
-        if (file != null && !file.exists()) {
-            throw new FileNotFoundException(formatMessage("file.not.found", file));
+                // a file whose last move failed stays under the name of its last performed move
+                int performed = 0;
+                while (performed < moves[j].length && result.isRenamed(moves[j][performed])) {
+                    performed++;
+                }
+                if (performed > 0) {
+                    renamedItems.add(transaction.getTarget(moves[j][performed - 1]).toFile());
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Renaming journal can not be written! " + e.getMessage());
+        } finally {
+            RenamePlanner.releaseTemporaryNames(moves, transaction);
         }
-        return file;
+        return renamedItems;
     }
 
     /**
-     * This method is used to return copy of file (temporary file) by relative path
+     * This method is used to return index of names in the directory of the file
      *
-     * @param path path to resource file
-     * @return copy of file
+     * @param file file
+     * @return index of the parent directory
+     * @throws IOException directory can not be read
      */
-    private static File getCopyOfFile(String path) {
-        File file = null;
-        try {
-            InputStream input = FileManipulation.class.getResourceAsStream(path);
-            file = File.createTempFile("tempfile", ".tmp");
-            OutputStream out = new FileOutputStream(file);
-
-            int read;
-            byte[] bytes = new byte[1024];
-            while ((read = input.read(bytes)) != -1) {
-                out.write(bytes, 0, read);
-            }
-
-            out.close();
-            file.deleteOnExit();
-        } catch (IOException ex) {
-            logger.error(ex.getMessage());
-        }
-        return file;
+    private static DirectoryNameIndex getNameIndex(File file) throws IOException {
+        return DirectoryNameIndex.of(file.getAbsoluteFile().toPath().getParent());
     }
 
 }
@@ -0,0 +1,33 @@
+package kpi.manfredi.utils;
+
+/**
+ * This enumeration is used to contain image formats recognized by {@link ImageTypeDetector}
+ *
+ * @author manfredi
+ */
+public enum ImageType {
+    PNG(true),
+    JPEG(true),
+    GIF(true),
+    BMP(true),
+    WEBP(false),
+    TIFF(false),
+    HEIF(false),
+    AVIF(false),
+    ICO(false);
+
+    private final boolean displayable;
+
+    ImageType(boolean displayable) {
+        this.displayable = displayable;
+    }
+
+    /**
+     * This method is used to check if images of this format can be shown by JavaFX
+     *
+     * @return {@code true} when JavaFX can decode images of this format
+     */
+    public boolean isDisplayable() {
+        return displayable;
+    }
+}
@@ -0,0 +1,93 @@
+package kpi.manfredi.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * This class is used to recognize format of image by the magic number at the beginning of the file.
+ * Only the first {@value HEADER_SIZE} bytes of the file are read.
+ *
+ * @author manfredi
+ */
+public abstract class ImageTypeDetector {
+    private static final int HEADER_SIZE = 16;
+
+    /**
+     * This method is used to recognize format of the image file
+     *
+     * @param file file to check
+     * @return format of the image; {@code null} when the file is not a recognized image
+     * @throws IOException file can not be read
+     */
+    public static ImageType detect(File file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            while (header.hasRemaining() && channel.read(header) != -1) {
+                // read until the header is full or the file ends
+            }
+        }
+        header.flip();
+        return detect(header);
+    }
+
+    /**
+     * This method is used to recognize format of the image by its header
+     *
+     * @param header buffer with the first bytes of the file
+     * @return format of the image; {@code null} when the header does not belong to a recognized image
+     */
+    public static ImageType detect(ByteBuffer header) {
+        if (startsWith(header, 0, 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A)) {
+            return ImageType.PNG;
+        } else if (startsWith(header, 0, 0xFF, 0xD8, 0xFF)) {
+            return ImageType.JPEG;
+        } else if (startsWith(header, 0, "GIF87a") || startsWith(header, 0, "GIF89a")) {
+            return ImageType.GIF;
+        } else if (startsWith(header, 0, "RIFF") && startsWith(header, 8, "WEBP")) {
+            return ImageType.WEBP;
+        } else if (startsWith(header, 0, 'I', 'I', 0x2A, 0x00) || startsWith(header, 0, 'M', 'M', 0x00, 0x2A)) {
+            return ImageType.TIFF;
+        } else if (startsWith(header, 4, "ftyp")) {
+            return getIsoMediaType(header);
+        } else if (startsWith(header, 0, "BM") && header.limit() >= 14) {
+            return ImageType.BMP;
+        } else if (startsWith(header, 0, 0x00, 0x00, 0x01, 0x00)) {
+            return ImageType.ICO;
+        }
+        return null;
+    }
+
+    /**
+     * This method is used to recognize HEIF and AVIF images by the major brand of ISO media file
+     */
+    private static ImageType getIsoMediaType(ByteBuffer header) {
+        for (String brand : new String[]{"heic", "heix", "hevc", "hevx", "mif1", "msf1"}) {
+            if (startsWith(header, 8, brand)) return ImageType.HEIF;
+        }
+        if (startsWith(header, 8, "avif") || startsWith(header, 8, "avis")) {
+            return ImageType.AVIF;
+        }
+        return null;
+    }
+
+    private static boolean startsWith(ByteBuffer header, int offset, String magic) {
+        byte[] bytes = magic.getBytes(StandardCharsets.US_ASCII);
+        if (header.limit() < offset + bytes.length) return false;
+        for (int i = 0; i < bytes.length; i++) {
+            if (header.get(offset + i) != bytes[i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean startsWith(ByteBuffer header, int offset, int... magic) {
+        if (header.limit() < offset + magic.length) return false;
+        for (int i = 0; i < magic.length; i++) {
+            if ((header.get(offset + i) & 0xFF) != magic[i]) return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,79 @@
+package kpi.manfredi.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class is used to collect a distribution of non-negative values (e.g. latencies in microseconds) in constant
+ * memory. Values are counted in buckets: each power of two is split into {@value SUB_BUCKETS} buckets, so a
+ * percentile is known with an error of at most 1/{@value SUB_BUCKETS} of its value. Values may be recorded
+ * from several threads.
+ *
+ * @author manfredi
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(getIndex(Long.MAX_VALUE) + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * This method is used to record the value
+     *
+     * @param value non-negative value; negative values are recorded as zero
+     */
+    public void record(long value) {
+        value = Math.max(value, 0);
+        counts.incrementAndGet(getIndex(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * This method is used to return the value below which the given percentage of recorded values falls
+     *
+     * @param percentile percentage from 0 to 100
+     * @return the largest value of the bucket of the percentile, but not more than the maximal value;
+     * {@code 0} when nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long rank = (long) Math.ceil(percentile / 100 * count.get());
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank && seen > 0) return Math.min(getUpperBound(i), getMax());
+        }
+        return getMax();
+    }
+
+    private static int getIndex(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long getUpperBound(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long lowerBound = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,29 @@
+package kpi.manfredi.utils;
+
+/**
+ * This interface is used to receive progress of a long operation over files and to stop it
+ *
+ * @author manfredi
+ */
+@FunctionalInterface
+public interface ProgressListener {
+    ProgressListener NONE = processed -> {
+    };
+
+    /**
+     * This method is called after each processed file. It may be called from different threads.
+     *
+     * @param processed number of files processed so far
+     */
+    void update(int processed);
+
+    /**
+     * This method is used to check if the operation should be stopped. Files that were not processed yet are
+     * skipped.
+     *
+     * @return {@code true} when the operation is cancelled
+     */
+    default boolean isCancelled() {
+        return false;
+    }
+}
@@ -0,0 +1,82 @@
+package kpi.manfredi.utils;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static kpi.manfredi.utils.MessageUtil.formatMessage;
+
+/**
+ * This class is used to read classpath resources (like {@code '/path/to/file.txt'}) once and keep their content
+ * in memory. The content is never written to the file system, so resources packed into the {@code *.jar} file
+ * are read the same way as resources of the IDE build.
+ *
+ * @author manfredi
+ */
+public abstract class ResourceCache {
+    private static final Map<String, byte[]> resources = new ConcurrentHashMap<>();
+
+    /**
+     * This method is used to return content of the resource as a stream
+     *
+     * @param path path to resource file
+     * @return stream over the cached content
+     * @throws FileNotFoundException resource not found
+     */
+    public static InputStream getStream(String path) throws FileNotFoundException {
+        return new ByteArrayInputStream(getContent(path));
+    }
+
+    /**
+     * This method is used to return content of the resource as an XML source (e.g. for schema compilation).
+     * The system id of the source is the URL of the resource, so relative references are resolved.
+     *
+     * @param path path to resource file
+     * @return source over the cached content
+     * @throws FileNotFoundException resource not found
+     */
+    public static Source getSource(String path) throws FileNotFoundException {
+        byte[] content = getContent(path);
+        URL url = ResourceCache.class.getResource(path);
+        return new StreamSource(new ByteArrayInputStream(content), url == null ? path : url.toExternalForm());
+    }
+
+    /**
+     * This method is used to return a copy of the resource content
+     *
+     * @param path path to resource file
+     * @return content of the resource
+     * @throws FileNotFoundException resource not found
+     */
+    public static byte[] getBytes(String path) throws FileNotFoundException {
+        return getContent(path).clone();
+    }
+
+    private static byte[] getContent(String path) throws FileNotFoundException {
+        byte[] content = resources.get(path);
+        if (content != null) return content;
+
+        try {
+            content = resources.computeIfAbsent(path, ResourceCache::read);
+        } catch (UncheckedIOException e) {
+            throw new FileNotFoundException(e.getCause().getMessage());
+        }
+        if (content == null) throw new FileNotFoundException(formatMessage("file.not.found", path));
+        return content;
+    }
+
+    private static byte[] read(String path) {
+        try (InputStream input = ResourceCache.class.getResourceAsStream(path)) {
+            return input == null ? null : input.readAllBytes();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package kpi.manfredi.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * This class is used to keep values in memory while their total weight (e.g. number of bytes) is not greater
+ * than the limit. The least recently used values are evicted first. All methods are thread-safe.
+ *
+ * @param <K> type of keys
+ * @param <V> type of values
+ * @author manfredi
+ */
+public class WeightedLruCache<K, V> {
+    private final long maxWeight;
+    private final ToLongFunction<V> weigher;
+    private final LinkedHashMap<K, V> entries;
+    private long weight;
+
+    public WeightedLruCache(long maxWeight, ToLongFunction<V> weigher) {
+        this.maxWeight = maxWeight;
+        this.weigher = weigher;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * This method is used to return the value and mark it as recently used
+     *
+     * @param key key of the value
+     * @return value; {@code null} when there is no such value
+     */
+    public synchronized V get(K key) {
+        return entries.get(key);
+    }
+
+    /**
+     * This method is used to add the value. The least recently used values are evicted when the total weight
+     * exceeds the limit; a value that is heavier than the limit is not kept at all.
+     *
+     * @param key   key of the value
+     * @param value value to add
+     */
+    public synchronized void put(K key, V value) {
+        long valueWeight = weigher.applyAsLong(value);
+        V previous = entries.remove(key);
+        if (previous != null) weight -= weigher.applyAsLong(previous);
+        if (valueWeight > maxWeight) return;
+
+        entries.put(key, value);
+        weight += valueWeight;
+
+        Iterator<Map.Entry<K, V>> iterator = entries.entrySet().iterator();
+        while (weight > maxWeight && iterator.hasNext()) {
+            weight -= weigher.applyAsLong(iterator.next().getValue());
+            iterator.remove();
+        }
+    }
+
+    /**
+     * This method is used to remove all values
+     */
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+}
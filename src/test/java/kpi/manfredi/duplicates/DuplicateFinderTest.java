@@ -0,0 +1,44 @@
+package kpi.manfredi.duplicates;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DuplicateFinderTest {
+
+    @Test
+    public void find() throws IOException {
+        Path dir = Files.createTempDirectory("duplicates");
+        byte[] large = new byte[100_000];
+        for (int i = 0; i < large.length; i++) large[i] = (byte) (i * 31);
+        byte[] changedMiddle = large.clone();
+        changedMiddle[50_000]++;
+        byte[] changedStart = large.clone();
+        changedStart[0]++;
+
+        File original = write(dir, "original.jpg", large);
+        File middle = write(dir, "middle.jpg", changedMiddle);
+        File copy = write(dir, "copy.jpg", large);
+        File start = write(dir, "start.jpg", changedStart);
+        File small = write(dir, "small.png", new byte[]{1, 2, 3});
+        File smallCopy = write(dir, "small copy.png", new byte[]{1, 2, 3});
+        File unique = write(dir, "unique.png", new byte[]{1, 2, 3, 4});
+        File missing = dir.resolve("missing.png").toFile();
+
+        List<File> files = List.of(original, middle, small, copy, start, smallCopy, unique, missing, copy);
+        List<List<File>> groups = DuplicateFinder.find(files);
+
+        assertEquals(List.of(List.of(original, copy), List.of(small, smallCopy)), groups);
+        assertEquals(List.of(copy, smallCopy), DuplicateFinder.findRedundantCopies(files));
+    }
+
+    private static File write(Path dir, String name, byte[] content) throws IOException {
+        return Files.write(dir.resolve(name), content).toFile();
+    }
+}
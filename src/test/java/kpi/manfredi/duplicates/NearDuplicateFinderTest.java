@@ -0,0 +1,84 @@
+package kpi.manfredi.duplicates;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class NearDuplicateFinderTest {
+
+    @Test
+    public void find() throws IOException {
+        Path dir = Files.createTempDirectory("similar");
+        Path cacheFile = dir.resolve("cache").resolve("hashes.bin");
+
+        BufferedImage picture = draw(400, 300, false);
+        File original = write(picture, dir, "original.png");
+        File resized = write(resize(picture, 200, 150), dir, "resized.jpg");
+        File other = write(draw(400, 300, true), dir, "other.png");
+        File broken = Files.write(dir.resolve("broken.png"), new byte[]{1, 2, 3}).toFile();
+
+        List<File> files = List.of(original, other, broken, resized);
+        List<List<File>> expected = List.of(List.of(original, resized));
+        assertEquals(expected, new NearDuplicateFinder(cacheFile).find(files, NearDuplicateFinder.DEFAULT_MAX_DISTANCE));
+        assertTrue(Files.exists(cacheFile));
+
+        // the second search takes hashes from the cache, so damaged content with the same size and time is not read
+        long modifiedTime = resized.lastModified();
+        Files.write(resized.toPath(), new byte[(int) resized.length()]);
+        assertTrue(resized.setLastModified(modifiedTime));
+        assertEquals(List.of(resized), new NearDuplicateFinder(cacheFile).findSimilarCopies(files));
+    }
+
+    @Test
+    public void bkTree() {
+        BkTree tree = new BkTree();
+        long[] hashes = {0L, 1L, 3L, 0xFFL, 0xFFFF_FFFFL, 1L};
+        for (int i = 0; i < hashes.length; i++) {
+            tree.add(hashes[i], i);
+        }
+
+        List<Integer> found = new ArrayList<>();
+        tree.search(0L, 2, found::add);
+        found.sort(Integer::compare);
+        assertEquals(List.of(0, 1, 2, 5), found);
+        assertEquals(hashes.length, tree.size());
+    }
+
+    private static BufferedImage draw(int width, int height, boolean inverted) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, Color.WHITE, width, 0, Color.BLACK));
+        if (inverted) graphics.setPaint(new GradientPaint(0, 0, Color.BLACK, width, height, Color.WHITE));
+        graphics.fillRect(0, 0, width, height);
+        graphics.setColor(Color.RED);
+        graphics.fillOval(width / 4, height / 4, width / 3, height / 2);
+        graphics.dispose();
+        return image;
+    }
+
+    private static BufferedImage resize(BufferedImage image, int width, int height) {
+        BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = resized.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.drawImage(image, 0, 0, width, height, null);
+        graphics.dispose();
+        return resized;
+    }
+
+    private static File write(BufferedImage image, Path dir, String name) throws IOException {
+        File file = dir.resolve(name).toFile();
+        String format = name.substring(name.lastIndexOf('.') + 1);
+        ImageIO.write(image, format.equals("jpg") ? "jpeg" : format, file);
+        return file;
+    }
+}
@@ -0,0 +1,35 @@
+package kpi.manfredi.duplicates;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class PerceptualHashCacheTest {
+
+    @Test
+    public void evictionSurvivesSaving() throws IOException {
+        Path cacheFile = Files.createTempDirectory("hashes").resolve("cache").resolve("hashes.bin");
+
+        PerceptualHashCache cache = new PerceptualHashCache(cacheFile, 2);
+        cache.put("first", 1, 10, 100);
+        cache.put("second", 2, 20, 200);
+        assertEquals(Long.valueOf(100), cache.get("first", 1, 10));
+        cache.put("third", 3, 30, 300);
+        assertEquals(2, cache.size());
+        assertNull(cache.get("second", 2, 20)); // the second hash was used least recently
+        cache.save();
+
+        // the first hash is now the least recently used one, also after loading
+        PerceptualHashCache loadedCache = new PerceptualHashCache(cacheFile, 2);
+        assertEquals(2, loadedCache.size());
+        loadedCache.put("fourth", 4, 40, 400);
+        assertNull(loadedCache.get("first", 1, 10));
+        assertEquals(Long.valueOf(300), loadedCache.get("third", 3, 30));
+        assertEquals(Long.valueOf(400), loadedCache.get("fourth", 4, 40));
+        assertNull(loadedCache.get("third", 3, 31)); // the file was changed
+    }
+}
@@ -0,0 +1,105 @@
+package kpi.manfredi.gui.thumbnails;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class ThumbnailStoreTest {
+
+    @Test
+    public void getAfterReopening() throws IOException {
+        Path dir = Files.createTempDirectory("thumbnails");
+        File image = Files.createFile(dir.resolve("image.jpg")).toFile();
+        byte[] pixels = pixels(2, 3, 7);
+
+        ThumbnailStore store = new ThumbnailStore(dir.resolve("store"), 1024);
+        assertNull(store.get(image));
+        store.put(image, 2, 3, pixels);
+        assertThumbnail(store.get(image), 2, 3, pixels);
+        store.close();
+
+        ThumbnailStore reopened = new ThumbnailStore(dir.resolve("store"), 1024);
+        assertThumbnail(reopened.get(image), 2, 3, pixels);
+
+        // thumbnail of the changed image is dropped
+        assertTrue(image.setLastModified(image.lastModified() - 10_000));
+        assertNull(reopened.get(image));
+        assertEquals(0, reopened.size());
+        reopened.close();
+    }
+
+    @Test
+    public void evictionAndCompaction() throws IOException {
+        Path dir = Files.createTempDirectory("thumbnails");
+        Path storeDir = dir.resolve("store");
+        File[] images = new File[4];
+        ThumbnailStore store = new ThumbnailStore(storeDir, 3 * 16);
+        for (int i = 0; i < images.length; i++) {
+            images[i] = Files.createFile(dir.resolve("image" + i + ".jpg")).toFile();
+            store.put(images[i], 2, 2, pixels(2, 2, i));
+        }
+        assertNull(store.get(images[0])); // the least recently used thumbnail is evicted
+        for (int i = 8; i <= 9; i++) {
+            store.put(images[1], 2, 2, pixels(2, 2, i)); // replaced pixels stay in the data file
+        }
+        assertEquals(6 * 16, Files.size(storeDir.resolve("thumbnails.dat")));
+        store.put(images[1], 2, 2, pixels(2, 2, 10)); // until they take more than a half of it
+        assertEquals(3 * 16, Files.size(storeDir.resolve("thumbnails.dat")));
+        store.close();
+
+        ThumbnailStore reopened = new ThumbnailStore(storeDir, 3 * 16);
+        assertEquals(3, reopened.size());
+        assertEquals(3 * 16, Files.size(storeDir.resolve("thumbnails.dat")));
+        assertThumbnail(reopened.get(images[1]), 2, 2, pixels(2, 2, 10));
+        assertThumbnail(reopened.get(images[2]), 2, 2, pixels(2, 2, 2));
+        assertThumbnail(reopened.get(images[3]), 2, 2, pixels(2, 2, 3));
+        reopened.close();
+    }
+
+    @Test
+    public void compactionWhileOpen() throws IOException {
+        Path dir = Files.createTempDirectory("thumbnails");
+        Path storeDir = dir.resolve("store");
+        File image = Files.createFile(dir.resolve("image.jpg")).toFile();
+        File other = Files.createFile(dir.resolve("other.jpg")).toFile();
+
+        // replaced pixels are reclaimed before the data file gets twice as large as the live thumbnails
+        ThumbnailStore store = new ThumbnailStore(storeDir, 1024);
+        store.put(other, 2, 2, pixels(2, 2, 1));
+        for (int i = 0; i < 100; i++) {
+            store.put(image, 2, 2, pixels(2, 2, i));
+            assertTrue(Files.size(storeDir.resolve("thumbnails.dat")) <= 2 * 2 * 16);
+            assertThumbnail(store.get(image), 2, 2, pixels(2, 2, i));
+        }
+        assertThumbnail(store.get(other), 2, 2, pixels(2, 2, 1));
+        store.close();
+
+        ThumbnailStore reopened = new ThumbnailStore(storeDir, 1024);
+        assertThumbnail(reopened.get(image), 2, 2, pixels(2, 2, 99));
+        assertThumbnail(reopened.get(other), 2, 2, pixels(2, 2, 1));
+        reopened.close();
+    }
+
+    private static byte[] pixels(int width, int height, int seed) {
+        byte[] pixels = new byte[width * height * 4];
+        Arrays.fill(pixels, (byte) seed);
+        return pixels;
+    }
+
+    private static void assertThumbnail(ThumbnailStore.Thumbnail thumbnail, int width, int height, byte[] pixels) {
+        assertNotNull(thumbnail);
+        assertEquals(width, thumbnail.getWidth());
+        assertEquals(height, thumbnail.getHeight());
+        ByteBuffer buffer = thumbnail.getPixels();
+        byte[] actual = new byte[buffer.remaining()];
+        buffer.get(actual);
+        assertArrayEquals(pixels, actual);
+    }
+}
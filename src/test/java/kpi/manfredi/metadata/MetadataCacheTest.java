@@ -0,0 +1,75 @@
+package kpi.manfredi.metadata;
+
+import kpi.manfredi.utils.ImageType;
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class MetadataCacheTest {
+
+    @Test
+    public void getMetadata() throws IOException {
+        Path dir = Files.createTempDirectory("metadata");
+        Path cacheFile = dir.resolve("cache").resolve("metadata.bin");
+        File image = write(dir, "image.png", 20, 10);
+
+        MetadataCache cache = new MetadataCache(cacheFile, 10);
+        assertEquals(ImageType.PNG, cache.getType(image));
+        ImageMetadata metadata = cache.getMetadata(image);
+        assertEquals(ImageType.PNG, metadata.getType());
+        assertEquals(20, metadata.getWidth());
+        assertEquals(10, metadata.getHeight());
+        assertEquals(ImageMetadata.UNKNOWN_DATE, metadata.getDateTaken());
+        assertTrue(metadata.getKeywords().isEmpty());
+        cache.save();
+
+        // the file is not read again while its size and modification time are the same
+        damage(image);
+        MetadataCache loadedCache = new MetadataCache(cacheFile, 10);
+        assertEquals(ImageType.PNG, loadedCache.getType(image));
+        assertEquals(20, loadedCache.getMetadata(image).getWidth());
+
+        assertTrue(image.setLastModified(image.lastModified() - 10_000));
+        assertNull(loadedCache.getType(image));
+    }
+
+    @Test
+    public void eviction() throws IOException {
+        Path dir = Files.createTempDirectory("metadata");
+        File first = write(dir, "first.png", 1, 1);
+        File second = write(dir, "second.png", 1, 1);
+        File third = write(dir, "third.png", 1, 1);
+
+        MetadataCache cache = new MetadataCache(dir.resolve("metadata.bin"), 2);
+        cache.getType(first);
+        cache.getType(second);
+        cache.getType(first);
+        cache.getType(third);
+        assertEquals(2, cache.size());
+
+        // the second file was used least recently, so it was evicted
+        damage(first);
+        damage(second);
+        assertEquals(ImageType.PNG, cache.getType(first));
+        assertNull(cache.getType(second));
+    }
+
+    private static File write(Path dir, String name, int width, int height) throws IOException {
+        File file = dir.resolve(name).toFile();
+        ImageIO.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), "png", file);
+        return file;
+    }
+
+    private static void damage(File file) throws IOException {
+        long modifiedTime = file.lastModified();
+        Files.write(file.toPath(), new byte[(int) file.length()]);
+        assertTrue(file.setLastModified(modifiedTime));
+    }
+}
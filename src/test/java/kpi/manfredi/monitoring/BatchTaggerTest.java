@@ -0,0 +1,90 @@
+package kpi.manfredi.monitoring;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static kpi.manfredi.monitoring.TagsFixture.createTagsMap;
+import static org.junit.Assert.*;
+
+public class BatchTaggerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void tag() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        Path nested = Files.createDirectory(dir.resolve("nested"));
+        Files.createFile(dir.resolve("my cat.jpg"));
+        Files.createFile(dir.resolve("cherry cat.png"));
+        Files.createFile(dir.resolve("#animal #fruit.jpg"));
+        Files.createFile(dir.resolve("no extension"));
+        Files.createFile(nested.resolve("cherry.jpg"));
+
+        BatchTagger tagger = new BatchTagger(new FilenameHandler(createTagsMap()), 2);
+        tagger.tag(dir, true);
+
+        assertEquals(5, tagger.getScanned());
+        assertEquals(2, tagger.getSkipped());
+        assertEquals(3, tagger.getRenamed());
+        assertEquals(0, tagger.getFailed());
+        assertEquals(3, tagger.getLatencies().getCount());
+        assertEquals(Set.of("#animal.jpg", "#animal #fruit.png", "#animal #fruit.jpg", "no extension", "nested"),
+                listNames(dir));
+        assertEquals(Set.of("#fruit.jpg"), listNames(nested));
+    }
+
+    @Test
+    public void tagNotRecursively() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        Path nested = Files.createDirectory(dir.resolve("nested"));
+        Files.createFile(dir.resolve("cat.jpg"));
+        Files.createFile(nested.resolve("cherry.jpg"));
+
+        BatchTagger tagger = new BatchTagger(new FilenameHandler(createTagsMap()), 1);
+        tagger.tag(dir, false);
+
+        assertEquals(1, tagger.getRenamed());
+        assertEquals(Set.of("#animal.jpg", "nested"), listNames(dir));
+        assertEquals(Set.of("cherry.jpg"), listNames(nested));
+    }
+
+    @Test
+    public void renamedFilesAreNotRenamedAgain() throws IOException {
+        Path dir = folder.getRoot().toPath();
+        Files.createFile(dir.resolve("#animal.jpg"));
+        Files.createFile(dir.resolve("#fruit 001.jpg"));
+        int count = 2000;
+        for (int i = 0; i < count; i++) {
+            Files.createFile(dir.resolve("cat " + i + ".jpg"));
+        }
+
+        // files are renamed while the directory is still read, each of them once
+        BatchTagger tagger = new BatchTagger(new FilenameHandler(createTagsMap()), 4);
+        tagger.tag(dir, false);
+
+        assertEquals(count + 2, tagger.getScanned());
+        assertEquals(2, tagger.getSkipped());
+        assertEquals(count, tagger.getRenamed());
+        assertEquals(0, tagger.getFailed());
+        Set<String> names = listNames(dir);
+        assertEquals(count + 2, names.size());
+        assertTrue(names.contains("#fruit 001.jpg"));
+        assertTrue(names.contains("#animal.jpg"));
+        assertTrue(names.contains(String.format("#animal %03d.jpg", count)));
+    }
+
+    private static Set<String> listNames(Path dir) throws IOException {
+        try (Stream<Path> list = Files.list(dir)) {
+            return list.map(path -> path.getFileName().toString()).collect(Collectors.toSet());
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package kpi.manfredi.monitoring;
+
+import kpi.manfredi.tags.map.TagsMap;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static kpi.manfredi.monitoring.TagsFixture.createTagsMap;
+import static org.junit.Assert.*;
+
+public class ControlServerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void commands() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        Files.createFile(dir.resolve("my cat.jpg"));
+        Files.createFile(dir.resolve("#animal #fruit.jpg"));
+
+        MonitoringService service = new MonitoringService(dir, false, new FilenameHandler(new TagsMap()));
+        Thread monitoring = new Thread(service, "monitoring");
+        monitoring.start();
+
+        try (ControlServer server = new ControlServer(service, 0, () -> new FilenameHandler(createTagsMap()))) {
+            server.start();
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+                 PrintWriter writer = new PrintWriter(new OutputStreamWriter(
+                         socket.getOutputStream(), StandardCharsets.UTF_8), true);
+                 BufferedReader reader = new BufferedReader(new InputStreamReader(
+                         socket.getInputStream(), StandardCharsets.UTF_8))) {
+
+                assertEquals("OK running, directories: 1, pending: 0, renamed: 0, failed: 0",
+                        send(writer, reader, "status"));
+                assertEquals("OK tags reloaded", send(writer, reader, "reload"));
+                assertEquals("OK paused", send(writer, reader, "pause"));
+                assertEquals("OK 1 files passed to renaming", send(writer, reader, "rescan " + dir));
+                assertEquals("OK paused, directories: 1, pending: 1, renamed: 0, failed: 0",
+                        send(writer, reader, "status"));
+                assertTrue(Files.exists(dir.resolve("my cat.jpg")));
+
+                assertTrue(send(writer, reader, "unknown").startsWith("ERROR"));
+                assertTrue(send(writer, reader, "rescan").startsWith("ERROR"));
+                assertTrue(send(writer, reader, "rescan " + folder.getRoot().getParent())
+                        .startsWith("ERROR Path is not watched"));
+
+                assertTrue(send(writer, reader, "stop").startsWith("OK stopping"));
+            }
+        }
+
+        monitoring.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse(monitoring.isAlive());
+        assertEquals(1, service.getRenamedFiles());
+        assertEquals(0, service.getPendingFiles());
+        assertTrue(Files.exists(dir.resolve("#animal.jpg")));
+    }
+
+    @Test
+    public void connections() throws Exception {
+        MonitoringService service = new MonitoringService(folder.getRoot().toPath(), false,
+                new FilenameHandler(createTagsMap()));
+        try (ControlServer server = new ControlServer(service, 0, () -> new FilenameHandler(createTagsMap()))) {
+            server.setIdleTimeoutMillis(500);
+            server.start();
+
+            // an idle client does not block the others and is disconnected after the timeout
+            try (Socket idle = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+                 Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort());
+                 PrintWriter writer = new PrintWriter(new OutputStreamWriter(
+                         socket.getOutputStream(), StandardCharsets.UTF_8), true);
+                 BufferedReader reader = new BufferedReader(new InputStreamReader(
+                         socket.getInputStream(), StandardCharsets.UTF_8))) {
+                assertTrue(send(writer, reader, "status").startsWith("OK running"));
+
+                idle.setSoTimeout(10_000);
+                assertEquals(-1, idle.getInputStream().read());
+            }
+        }
+    }
+
+    private static String send(PrintWriter writer, BufferedReader reader, String command) throws IOException {
+        writer.println(command);
+        return reader.readLine();
+    }
+}
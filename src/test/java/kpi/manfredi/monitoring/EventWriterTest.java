@@ -0,0 +1,93 @@
+package kpi.manfredi.monitoring;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EventWriterTest {
+
+    @Test
+    public void write() throws IOException {
+        Instant time = Instant.parse("2020-05-01T10:15:30Z");
+        StringWriter output = new StringWriter();
+        EventWriter writer = new EventWriter(output, 1);
+        for (int i = 0; i < 3; i++) {
+            writer.write(new RenameEvent(Paths.get("dir", "cat " + i + ".jpg"),
+                    Paths.get("dir", "#animal #pet (" + i + ").jpg"), List.of("#animal", "#pet"), time,
+                    5_000_125_000L, 250_000, null));
+        }
+        writer.write(new RenameEvent(Paths.get("dir", "say \"hi\".jpg"), null, List.of(), time, 1_000_000, 0,
+                "File is locked\nby another process"));
+        writer.close();
+
+        String[] lines = output.toString().split("\n");
+        assertEquals(4, lines.length);
+        assertEquals("{\"time\":\"2020-05-01T10:15:30Z\",\"source\":\"" + Paths.get("dir", "cat 0.jpg")
+                + "\",\"target\":\"" + Paths.get("dir", "#animal #pet (0).jpg")
+                + "\",\"tags\":[\"#animal\",\"#pet\"],\"queuedMs\":5000.125,\"renameMs\":0.250,"
+                + "\"outcome\":\"renamed\"}", lines[0]);
+        assertTrue(lines[2].contains("cat 2.jpg"));
+        assertEquals("{\"time\":\"2020-05-01T10:15:30Z\",\"source\":\"" + Paths.get("dir", "say \\\"hi\\\".jpg")
+                + "\",\"target\":null,\"tags\":[],\"queuedMs\":1.000,\"renameMs\":0.000,"
+                + "\"outcome\":\"failed\",\"error\":\"File is locked\\nby another process\"}", lines[3]);
+    }
+
+    @Test
+    public void getTags() {
+        RenameEvent event = new RenameEvent(Paths.get("cat.jpg"), Paths.get("#animal #food_item (2).jpg"),
+                List.of("#animal", "#food_item"), Instant.now(), 0, 0, null);
+        assertEquals(List.of("#animal", "#food_item"), event.getTags());
+        assertTrue(event.isRenamed());
+
+        // the fallback name is not a found tag
+        RenameEvent untagged = new RenameEvent(Paths.get("dog.jpg"), Paths.get("#tagme.jpg"), List.of(),
+                Instant.now(), 0, 0, null);
+        assertEquals(List.of(), untagged.getTags());
+        assertTrue(untagged.toJson().contains("\"tags\":[]"));
+    }
+
+    @Test(timeout = 10_000)
+    public void writerThreadDied() {
+        Writer brokenWriter = new Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int length) {
+            }
+
+            @Override
+            public void flush() {
+                throw new Error("broken");
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        // producers are not blocked by the full queue, and the failure is reported on closing
+        EventWriter writer = new EventWriter(brokenWriter, 1);
+        for (int i = 0; i < 100; i++) {
+            writer.write(new RenameEvent(Paths.get("cat " + i + ".jpg"), null, List.of(), Instant.now(), 0, 0,
+                    null));
+        }
+        try {
+            writer.close();
+            fail("Failure of the writer thread is not reported");
+        } catch (IOException e) {
+            assertEquals("Not all events were written, see the log for details", e.getMessage());
+        }
+    }
+
+    @Test
+    public void isRenamed() {
+        RenameEvent event = new RenameEvent(Paths.get("cat.jpg"), null, List.of(), Instant.now(), 0, 0, null);
+        assertFalse(event.isRenamed());
+        assertTrue(event.toJson().endsWith("\"outcome\":\"failed\"}"));
+    }
+}
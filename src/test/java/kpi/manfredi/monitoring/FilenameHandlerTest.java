@@ -1,5 +1,6 @@
 package kpi.manfredi.monitoring;
 
+import kpi.manfredi.tags.OffHeapAliasDictionary;
 import kpi.manfredi.tags.map.Tag;
 import kpi.manfredi.tags.map.TagsMap;
 import org.junit.BeforeClass;
@@ -140,6 +141,35 @@ public class FilenameHandlerTest {
 
     }
 
+    @Test
+    public void handleFilenameOffHeap() {
+        FilenameHandler offHeapHandler = new FilenameHandler(new OffHeapAliasDictionary(tagsMap));
+        String[] filenames = {
+                "first_dog_s+e-+c(_on)d.cat w_o r -l)d_ign.ore-this.text+_third(bird)test",
+                "This text has no any alias",
+                "first #test word #nonexistent_cat",
+                "test cat_ears",
+                "#cat ears cat dog_ears_cat",
+                "###",
+                ""
+        };
+
+        for (String filename : filenames) {
+            assertEquals(filenameHandler.handleFilename(filename), offHeapHandler.handleFilename(filename));
+        }
+    }
+
+    @Test
+    public void handleFilenameWithKeywords() {
+        FilenameHandler offHeapHandler = new FilenameHandler(new OffHeapAliasDictionary(tagsMap));
+        List<String> keywords = List.of("cherry", "cat ears", "unknown keyword");
+        for (FilenameHandler handler : List.of(filenameHandler, offHeapHandler)) {
+            assertEquals("#fruit #animal_ears #test", handler.handleFilename("test", keywords));
+            assertEquals("#fruit", handler.handleFilename("no aliases", List.of("cherry")));
+            assertEquals("#tagme", handler.handleFilename("no aliases", List.of()));
+        }
+    }
+
     @Test
     public void handleFile() {
         String startName = "first_s+e-+c(_on)d.cat w_o r -l)d_igno.re-this.text+_third(test)bird_";
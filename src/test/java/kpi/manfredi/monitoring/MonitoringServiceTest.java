@@ -0,0 +1,161 @@
+package kpi.manfredi.monitoring;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static kpi.manfredi.monitoring.TagsFixture.createTagsMap;
+import static org.junit.Assert.*;
+
+public class MonitoringServiceTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void publishers() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        Path cat = Files.createFile(dir.resolve("cat.jpg"));
+        Files.createFile(dir.resolve("#animal #pet.jpg"));
+
+        MonitoringService service = new MonitoringService(dir, false, new FilenameHandler(createTagsMap()));
+        Thread monitoring = new Thread(service, "monitoring");
+        monitoring.start();
+
+        // requests one event until the service is stopped, it must not stall renaming
+        CountDownLatch slowSubscriberDone = new CountDownLatch(1);
+        List<DetectedFiles> slowEvents = new CopyOnWriteArrayList<>();
+        TestSubscriber<DetectedFiles> slowSubscriber = new TestSubscriber<>(1, slowEvents, slowSubscriberDone);
+        service.getDetectedFiles().subscribe(slowSubscriber);
+
+        CountDownLatch renamingDone = new CountDownLatch(1);
+        List<RenameEvent> renameEvents = new CopyOnWriteArrayList<>();
+        service.getRenameEvents().subscribe(new TestSubscriber<>(Long.MAX_VALUE, renameEvents, renamingDone));
+
+        // the file is renamed by the first event, the others fail
+        int count = Flow.defaultBufferSize() + 50;
+        service.pause();
+        assertEquals(0, service.rescan(dir.resolve("#animal #pet.jpg"))); // already named by tags
+        for (int i = 0; i < count; i++) {
+            assertEquals(1, service.rescan(cat));
+        }
+        assertEquals(count, service.getPendingFiles());
+
+        service.stop();
+        monitoring.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse(monitoring.isAlive());
+        assertTrue(renamingDone.await(10, TimeUnit.SECONDS));
+        assertTrue(slowEvents.size() <= 1);
+
+        // buffered events are delivered on demand, then the subscriber is completed; how many events were taken
+        // from the buffer before it filled up depends on the timing, but every event is delivered or dropped
+        slowSubscriber.request(Long.MAX_VALUE);
+        assertTrue(slowSubscriberDone.await(10, TimeUnit.SECONDS));
+        assertTrue(slowEvents.size() >= Flow.defaultBufferSize());
+        assertTrue(slowEvents.size() <= Flow.defaultBufferSize() + 1);
+        assertEquals(2 * count, slowEvents.size() + renameEvents.size() + service.getDroppedEvents());
+
+        assertEquals(1, service.getRenamedFiles());
+        assertEquals(count - 1, service.getFailedFiles());
+        assertTrue(renameEvents.get(0).isRenamed());
+        assertEquals(List.of("#animal"), renameEvents.get(0).getTags());
+        assertTrue(Files.exists(dir.resolve("#animal.jpg")));
+    }
+
+    @Test
+    public void renamedFilesAreNotDetectedAgain() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        MonitoringService service = new MonitoringService(dir, false, new FilenameHandler(createTagsMap()));
+        service.setSettleMillis(0);
+        CountDownLatch renamingDone = new CountDownLatch(1);
+        List<RenameEvent> renameEvents = new CopyOnWriteArrayList<>();
+        service.getRenameEvents().subscribe(new TestSubscriber<>(Long.MAX_VALUE, renameEvents, renamingDone));
+        Thread monitoring = new Thread(service, "monitoring");
+        monitoring.start();
+
+        // the watcher is live and does not wait, so it gets the event of the renamed file at once
+        Files.createFile(dir.resolve("cat.jpg"));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (service.getRenamedFiles() == 0 && System.nanoTime() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertEquals(1, service.getRenamedFiles());
+        TimeUnit.MILLISECONDS.sleep(500);
+
+        service.stop();
+        monitoring.join(TimeUnit.SECONDS.toMillis(10));
+        assertTrue(renamingDone.await(10, TimeUnit.SECONDS));
+        assertEquals(1, renameEvents.size());
+        assertEquals(0, service.getFailedFiles());
+        try (Stream<Path> files = Files.list(dir)) {
+            assertEquals(List.of(dir.resolve("#animal.jpg")), files.collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    public void interruptedWhilePaused() throws Exception {
+        Path dir = folder.getRoot().toPath();
+        Files.createFile(dir.resolve("cat.jpg"));
+        MonitoringService service = new MonitoringService(dir, false, new FilenameHandler(createTagsMap()));
+        Thread monitoring = new Thread(service, "monitoring");
+        monitoring.start();
+
+        // detected files are renamed on shutdown, although renaming was never resumed
+        service.pause();
+        assertEquals(1, service.rescan(dir));
+        monitoring.interrupt();
+        monitoring.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse(monitoring.isAlive());
+        assertEquals(1, service.getRenamedFiles());
+        assertTrue(Files.exists(dir.resolve("#animal.jpg")));
+    }
+
+
+    private static class TestSubscriber<T> implements Flow.Subscriber<T> {
+        private final long demand;
+        private final List<T> events;
+        private final CountDownLatch done;
+        private volatile Flow.Subscription subscription;
+
+        private TestSubscriber(long demand, List<T> events, CountDownLatch done) {
+            this.demand = demand;
+            this.events = events;
+            this.done = done;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(demand);
+        }
+
+        private void request(long n) {
+            subscription.request(n);
+        }
+
+        @Override
+        public void onNext(T item) {
+            events.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            done.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+            done.countDown();
+        }
+    }
+}
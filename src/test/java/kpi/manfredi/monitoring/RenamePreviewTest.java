@@ -0,0 +1,41 @@
+package kpi.manfredi.monitoring;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import static kpi.manfredi.monitoring.TagsFixture.createTagsMap;
+import static org.junit.Assert.*;
+
+public class RenamePreviewTest {
+
+    @Test
+    public void getNewNames() {
+        List<File> handledFiles = new ArrayList<>();
+        RenamePreview preview = new RenamePreview(new FilenameHandler(createTagsMap())) {
+            @Override
+            protected String getNewName(File file, List<String> tags) {
+                handledFiles.add(file);
+                return super.getNewName(file, tags);
+            }
+        };
+
+        File cat = new File("dir", "my cat.jpg");
+        File cherry = new File("dir", "cherry.png");
+        File other = new File("dir", "something");
+        assertEquals(List.of("#animal.jpg", "#fruit.png"), preview.getNewNames(List.of(cat, cherry), List.of()));
+        assertEquals(2, handledFiles.size());
+
+        // only the added file is handled
+        assertEquals(List.of("#animal.jpg", "#fruit.png", "#tagme"),
+                preview.getNewNames(List.of(cat, cherry, other), List.of()));
+        assertEquals(3, handledFiles.size());
+
+        // additional tags change every name
+        assertEquals(List.of("#animal #fruit.jpg", "#fruit.png", "#fruit"),
+                preview.getNewNames(List.of(cat, cherry, other), List.of("#fruit")));
+        assertEquals(6, handledFiles.size());
+    }
+}
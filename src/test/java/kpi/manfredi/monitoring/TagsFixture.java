@@ -0,0 +1,37 @@
+package kpi.manfredi.monitoring;
+
+import kpi.manfredi.tags.map.Tag;
+import kpi.manfredi.tags.map.TagsMap;
+
+import java.util.List;
+
+/**
+ * This class is used to create tags shared by the tests of renaming
+ */
+final class TagsFixture {
+
+    private TagsFixture() {
+    }
+
+    /**
+     * This method is used to create the map of two tags: "{@code #animal}" (aliases "{@code cat}" and
+     * "{@code animal}") and "{@code #fruit}" (aliases "{@code cherry}" and "{@code fruit}"), which goes after
+     * "{@code #animal}" in names
+     *
+     * @return tags map
+     */
+    static TagsMap createTagsMap() {
+        TagsMap tagsMap = new TagsMap();
+        tagsMap.getTag().add(tag("#animal", 10, "cat", "animal"));
+        tagsMap.getTag().add(tag("#fruit", 20, "cherry", "fruit"));
+        return tagsMap;
+    }
+
+    static Tag tag(String name, int priority, String... aliases) {
+        Tag tag = new Tag();
+        tag.setName(name);
+        tag.setPriority((byte) priority);
+        tag.getAlias().addAll(List.of(aliases));
+        return tag;
+    }
+}
@@ -0,0 +1,114 @@
+package kpi.manfredi.renaming;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.*;
+
+public class DirectoryNameIndexTest {
+
+    @Test
+    public void reserve() throws IOException {
+        Path dir = Files.createTempDirectory("name-index");
+        Files.createFile(dir.resolve("#cat.jpg"));
+        Files.createFile(dir.resolve("#cat 002.jpg"));
+
+        DirectoryNameIndex index = DirectoryNameIndex.of(dir);
+        assertEquals("#dog.jpg", index.reserve("#dog", ".jpg"));
+        assertEquals("#dog 001.jpg", index.reserve("#dog", ".jpg"));
+        assertEquals("#cat 001.jpg", index.reserve("#cat", ".jpg"));
+        assertEquals("#cat 003.jpg", index.reserve("#cat", ".jpg"));
+        assertEquals("#cat.png", index.reserve("#cat", ".png"));
+    }
+
+    @Test
+    public void move() throws IOException {
+        Path dir = Files.createTempDirectory("name-index");
+        Path first = Files.createFile(dir.resolve("first.jpg"));
+        Path second = Files.createFile(dir.resolve("second.jpg"));
+
+        DirectoryNameIndex index = DirectoryNameIndex.of(dir);
+        Path firstMoved = index.move(first, "#cat", ".jpg");
+        assertEquals("#cat.jpg", firstMoved.getFileName().toString());
+        assertFalse(Files.exists(first));
+
+        // the name is taken from outside after the index was loaded
+        Files.createFile(dir.resolve("#cat 001.jpg"));
+        Path secondMoved = DirectoryNameIndex.of(dir).move(second, "#cat", ".jpg");
+        assertEquals("#cat 002.jpg", secondMoved.getFileName().toString());
+        assertTrue(Files.exists(dir.resolve("#cat 001.jpg")));
+        assertTrue(Files.exists(secondMoved));
+    }
+
+    @Test
+    public void release() throws IOException {
+        Path dir = Files.createTempDirectory("name-index");
+        Files.createFile(dir.resolve("#cat.jpg"));
+
+        DirectoryNameIndex index = DirectoryNameIndex.of(dir);
+        assertEquals("#cat 001.jpg", index.reserve("#cat", ".jpg"));
+        assertEquals("#cat 002.jpg", index.reserve("#cat", ".jpg"));
+
+        // the moves were not performed, the names are free again
+        DirectoryNameIndex.release(dir.resolve("#cat 001.jpg"));
+        DirectoryNameIndex.release(dir.resolve("#cat 002.jpg"));
+        DirectoryNameIndex.release(dir.resolve("#cat.jpg")); // the file exists
+        assertTrue(index.contains("#cat.jpg"));
+        assertEquals("#cat 001.jpg", index.reserve("#cat", ".jpg"));
+    }
+
+    @Test
+    public void reloadKeepsReservations() throws IOException {
+        Path dir = Files.createTempDirectory("name-index");
+        Path file = Files.createFile(dir.resolve("cat.jpg"));
+
+        DirectoryNameIndex index = DirectoryNameIndex.of(dir);
+        assertEquals("#cat.jpg", index.reserve("#cat", ".jpg"));
+        assertEquals("#cat 001.jpg", index.reserve("#cat", ".jpg"));
+
+        // moves of this process are not changes from outside
+        Path moved = index.move(file, "#dog", ".jpg");
+        assertSame(index, DirectoryNameIndex.of(dir));
+        assertTrue(index.contains(moved.getFileName().toString()));
+        assertFalse(index.contains("cat.jpg"));
+
+        // the reload after a change from outside keeps the names reserved for moves that are not performed yet
+        Files.createFile(dir.resolve("other.jpg"));
+        Files.setLastModifiedTime(dir, FileTime.fromMillis(System.currentTimeMillis() + 60_000));
+        assertSame(index, DirectoryNameIndex.of(dir));
+        assertTrue(index.contains("other.jpg"));
+        assertTrue(index.contains("#cat.jpg"));
+        assertEquals("#cat 002.jpg", index.reserve("#cat", ".jpg"));
+    }
+
+    @Test
+    public void releaseRewindsItsBaseName() throws IOException {
+        Path dir = Files.createTempDirectory("name-index");
+        DirectoryNameIndex index = DirectoryNameIndex.of(dir);
+        for (int i = 0; i < 4; i++) {
+            index.reserve("#cat", ".jpg");
+            index.reserve("#dog", ".jpg");
+        }
+
+        DirectoryNameIndex.release(dir.resolve("#cat 001.jpg"));
+        DirectoryNameIndex.release(dir.resolve("#dog.jpg"));
+        assertEquals("#cat 001.jpg", index.reserve("#cat", ".jpg"));
+        assertEquals("#cat 004.jpg", index.reserve("#cat", ".jpg"));
+        assertEquals("#dog.jpg", index.reserve("#dog", ".jpg"));
+    }
+
+    @Test
+    public void isNameOf() {
+        assertTrue(DirectoryNameIndex.isNameOf("#animal.jpg", "#animal", ".jpg"));
+        assertTrue(DirectoryNameIndex.isNameOf("#animal 001.jpg", "#animal", ".jpg"));
+        assertTrue(DirectoryNameIndex.isNameOf("#animal 1234.jpg", "#animal", ".jpg"));
+        assertFalse(DirectoryNameIndex.isNameOf("#animal 01.jpg", "#animal", ".jpg"));
+        assertFalse(DirectoryNameIndex.isNameOf("#animal #pet.jpg", "#animal", ".jpg"));
+        assertFalse(DirectoryNameIndex.isNameOf("#animal 001.png", "#animal", ".jpg"));
+        assertFalse(DirectoryNameIndex.isNameOf("#animal", "#animal", ".jpg"));
+    }
+}
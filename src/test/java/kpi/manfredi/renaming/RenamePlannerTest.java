@@ -0,0 +1,89 @@
+package kpi.manfredi.renaming;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RenamePlannerTest {
+
+    @Test
+    public void plan() throws IOException {
+        Path dir = Files.createTempDirectory("planner");
+        Path journalDir = dir.resolve("journal");
+        Path[] files = new Path[6];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = Files.write(dir.resolve(i + ".jpg"), new byte[]{(byte) i});
+        }
+
+        // chain: 2 -> 1 -> 0 -> new; cycle: 3 <-> 4; 5 keeps its name
+        List<Path> sources = List.of(files[0], files[1], files[2], files[3], files[4], files[5]);
+        List<Path> targets = List.of(dir.resolve("new.jpg"), files[0], files[1], files[4], files[3], files[5]);
+
+        RenameTransaction transaction = new RenameTransaction(journalDir);
+        int[][] moves = RenamePlanner.plan(sources, targets, transaction);
+        RenameTransaction.Result result = transaction.commit();
+
+        assertEquals(6, transaction.size());
+        assertEquals(6, result.getRenamedCount());
+        assertEquals(0, moves[5].length);
+        assertEquals(1, moves[3].length + moves[4].length - 2);
+
+        byte[] expected = {0, 1, 2, 3, 4, 5};
+        for (int i = 0; i < targets.size(); i++) {
+            assertArrayEquals(new byte[]{expected[i]}, Files.readAllBytes(targets.get(i)));
+        }
+        assertFalse(Files.exists(files[2]));
+        assertEquals(7, Files.list(dir).count());
+    }
+
+    @Test
+    public void recoverCycle() throws IOException {
+        for (int crashAfter = 1; crashAfter <= 3; crashAfter++) {
+            for (boolean undo : new boolean[]{false, true}) {
+                Path dir = Files.createTempDirectory("planner");
+                Path journalDir = dir.resolve("journal");
+                Path a = Files.write(dir.resolve("a.jpg"), new byte[]{'A'});
+                Path b = Files.write(dir.resolve("b.jpg"), new byte[]{'B'});
+                Path c = Files.write(dir.resolve("c.jpg"), new byte[]{'C'});
+
+                // cycle a -> b -> c -> a through a temporary name, crashed in the middle
+                RenameTransaction transaction = new RenameTransaction(journalDir);
+                RenamePlanner.plan(List.of(a, b, c), List.of(b, c, a), transaction);
+                try {
+                    transaction.commit(RenameTransactionTest.crashAfter(crashAfter));
+                    fail();
+                } catch (IllegalStateException e) {
+                    // crashed
+                }
+
+                assertEquals(1, RenameTransaction.recover(journalDir, undo));
+                byte[] expected = undo ? new byte[]{'A', 'B', 'C'} : new byte[]{'C', 'A', 'B'};
+                assertArrayEquals(new byte[]{expected[0]}, Files.readAllBytes(a));
+                assertArrayEquals(new byte[]{expected[1]}, Files.readAllBytes(b));
+                assertArrayEquals(new byte[]{expected[2]}, Files.readAllBytes(c));
+                assertEquals(4, Files.list(dir).count());
+            }
+        }
+    }
+
+    @Test
+    public void releaseTemporaryNames() throws IOException {
+        Path dir = Files.createTempDirectory("planner");
+        Path a = Files.createFile(dir.resolve("a.jpg"));
+        Path b = Files.createFile(dir.resolve("b.jpg"));
+
+        RenameTransaction transaction = new RenameTransaction(dir.resolve("journal"));
+        int[][] moves = RenamePlanner.plan(List.of(a, b), List.of(b, a), transaction);
+        Path temporary = transaction.getTarget(moves[0].length == 2 ? moves[0][0] : moves[1][0]);
+        assertTrue(DirectoryNameIndex.of(dir).contains(temporary.getFileName().toString()));
+
+        // the batch was not committed, the temporary name is not used
+        RenamePlanner.releaseTemporaryNames(moves, transaction);
+        assertFalse(DirectoryNameIndex.of(dir).contains(temporary.getFileName().toString()));
+    }
+}
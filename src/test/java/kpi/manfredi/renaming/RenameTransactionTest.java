@@ -0,0 +1,168 @@
+package kpi.manfredi.renaming;
+
+import kpi.manfredi.utils.ProgressListener;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RenameTransactionTest {
+
+    @Test
+    public void commit() throws IOException {
+        Path dir = Files.createTempDirectory("transaction");
+        Path journalDir = dir.resolve("journal");
+        Path first = Files.createFile(dir.resolve("a.jpg"));
+        Path second = Files.createFile(dir.resolve("b.jpg"));
+        Files.createFile(dir.resolve("taken.jpg"));
+
+        RenameTransaction transaction = new RenameTransaction(journalDir);
+        transaction.add(first, dir.resolve("#cat.jpg"));
+        transaction.add(second, dir.resolve("taken.jpg"));
+        RenameTransaction.Result result = transaction.commit();
+
+        assertTrue(result.isRenamed(0));
+        assertFalse(result.isRenamed(1));
+        assertTrue(result.getMoveNanos(0) > 0);
+        assertEquals(result.getMoveNanos(0) + result.getMoveNanos(1), result.getMoveNanos());
+        assertTrue(Files.exists(dir.resolve("#cat.jpg")));
+        assertTrue(Files.exists(second));
+        assertEquals(0, Files.list(journalDir).count());
+    }
+
+    @Test
+    public void commitCancelled() throws IOException {
+        Path dir = Files.createTempDirectory("transaction");
+        Path journalDir = dir.resolve("journal");
+        RenameTransaction transaction = new RenameTransaction(journalDir);
+        for (int i = 0; i < 5; i++) {
+            transaction.add(Files.createFile(dir.resolve(i + ".jpg")), dir.resolve("#tag " + i + ".jpg"));
+        }
+
+        // cancelled after the second move
+        List<Integer> progress = new ArrayList<>();
+        RenameTransaction.Result result = transaction.commit(new ProgressListener() {
+            @Override
+            public void update(int processed) {
+                progress.add(processed);
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return progress.size() == 2;
+            }
+        });
+
+        assertEquals(List.of(1, 2), progress);
+        assertEquals(2, result.getRenamedCount());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i < 2, result.isRenamed(i));
+            assertEquals(i < 2, Files.exists(dir.resolve("#tag " + i + ".jpg")));
+        }
+        assertEquals(0, Files.list(journalDir).count());
+    }
+
+    @Test
+    public void recover() throws IOException {
+        for (boolean undo : new boolean[]{false, true}) {
+            Path dir = Files.createTempDirectory("transaction");
+            Path journalDir = Files.createDirectory(dir.resolve("journal"));
+            Path[] sources = new Path[3];
+            Path[] targets = new Path[3];
+            for (int i = 0; i < 3; i++) {
+                sources[i] = Files.createFile(dir.resolve(i + ".jpg"));
+                targets[i] = dir.resolve("#tag " + i + ".jpg");
+            }
+
+            // crash after the second move, before its progress record was written
+            try (RenameJournal journal = new RenameJournal(journalDir.resolve("crashed.journal"))) {
+                for (int i = 0; i < 3; i++) journal.plan(i, sources[i], targets[i]);
+                journal.sync();
+                Files.move(sources[0], targets[0]);
+                journal.done(0);
+                journal.write();
+                Files.move(sources[1], targets[1]);
+            }
+
+            assertEquals(1, RenameTransaction.recover(journalDir, undo));
+            for (int i = 0; i < 3; i++) {
+                assertEquals(undo, Files.exists(sources[i]));
+                assertEquals(!undo, Files.exists(targets[i]));
+            }
+            assertEquals(0, RenameTransaction.recover(journalDir, undo));
+        }
+    }
+
+    @Test
+    public void recoverChain() throws IOException {
+        for (boolean undo : new boolean[]{false, true}) {
+            Path dir = Files.createTempDirectory("transaction");
+            Path journalDir = dir.resolve("journal");
+            Path a = Files.write(dir.resolve("a.jpg"), new byte[]{'A'});
+            Path b = Files.write(dir.resolve("b.jpg"), new byte[]{'B'});
+            Path c = dir.resolve("c.jpg");
+
+            // b -> c frees b for a -> b, then the batch crashes before its progress records are written
+            RenameTransaction transaction = new RenameTransaction(journalDir);
+            transaction.add(b, c);
+            transaction.add(a, b);
+            try {
+                transaction.commit(crashAfter(2));
+                fail();
+            } catch (IllegalStateException e) {
+                // crashed
+            }
+
+            assertEquals(1, RenameTransaction.recover(journalDir, undo));
+            if (undo) {
+                assertArrayEquals(new byte[]{'A'}, Files.readAllBytes(a));
+                assertArrayEquals(new byte[]{'B'}, Files.readAllBytes(b));
+                assertFalse(Files.exists(c));
+            } else {
+                assertFalse(Files.exists(a));
+                assertArrayEquals(new byte[]{'A'}, Files.readAllBytes(b));
+                assertArrayEquals(new byte[]{'B'}, Files.readAllBytes(c));
+            }
+        }
+    }
+
+    /**
+     * This method is used to simulate a crash of the batch after the given number of moves: the journal is closed
+     * without writing the collected records
+     */
+    static ProgressListener crashAfter(int moves) {
+        return processed -> {
+            if (processed == moves) throw new IllegalStateException("crash");
+        };
+    }
+
+    @Test
+    public void recoverSkipsLockedJournal() throws IOException {
+        Path dir = Files.createTempDirectory("transaction");
+        Path journalDir = Files.createDirectory(dir.resolve("journal"));
+        Path source = Files.createFile(dir.resolve("0.jpg"));
+        Path target = dir.resolve("#tag 0.jpg");
+        Path file = journalDir.resolve("running.journal");
+
+        // the batch is still running, its journal must not be recovered
+        try (RenameJournal journal = new RenameJournal(file)) {
+            journal.plan(0, source, target);
+            journal.sync();
+
+            assertEquals(0, RenameTransaction.recover(journalDir, false));
+            assertTrue(Files.exists(file));
+            assertTrue(Files.exists(source));
+            assertFalse(Files.exists(target));
+        }
+
+        // the lock is released when the batch is interrupted
+        assertEquals(1, RenameTransaction.recover(journalDir, false));
+        assertTrue(Files.exists(target));
+        assertFalse(Files.exists(file));
+    }
+}
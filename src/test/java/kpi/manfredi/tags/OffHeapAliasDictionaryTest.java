@@ -0,0 +1,83 @@
+package kpi.manfredi.tags;
+
+import kpi.manfredi.tags.map.Tag;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class OffHeapAliasDictionaryTest {
+
+    @Test
+    public void get() {
+        OffHeapAliasDictionary dictionary = new OffHeapAliasDictionary();
+        Tag animal = getTag("#animal", 17);
+        Tag ears = getTag("#animal_ears", 25);
+        dictionary.put("cat", animal);
+        dictionary.put("cat_ears", ears);
+        dictionary.put("кіт", animal);
+
+        assertEquals("#animal", dictionary.get("cat").getName());
+        assertEquals("#animal", dictionary.get("кіт").getName());
+        assertEquals("#animal_ears", dictionary.get("cat_ears").getName());
+        assertEquals(25, dictionary.get("cat_ears").getPriority());
+        assertNull(dictionary.get("dog"));
+        assertNull(dictionary.get("ca"));
+        assertEquals(3, dictionary.size());
+        assertEquals(2, dictionary.getMaxParts());
+
+        // alias is replaced like in HashMap
+        dictionary.put("cat", ears);
+        assertEquals("#animal_ears", dictionary.get("cat").getName());
+        assertEquals(3, dictionary.size());
+    }
+
+    @Test
+    public void findTagId() {
+        OffHeapAliasDictionary dictionary = new OffHeapAliasDictionary();
+        dictionary.put("first", getTag("#OrdinalTag", 82));
+
+        byte[] bytes = "the first one".getBytes(StandardCharsets.UTF_8);
+        int tagId = dictionary.findTagId(bytes, 4, 5);
+        assertNotEquals(-1, tagId);
+        assertEquals("#OrdinalTag", dictionary.getTag(tagId).getName());
+        assertEquals(-1, dictionary.findTagId(bytes, 0, 3));
+    }
+
+    @Test
+    public void tagsAreCopied() {
+        OffHeapAliasDictionary dictionary = new OffHeapAliasDictionary();
+        Tag animal = getTag("#animal", 17);
+        dictionary.put("cat", animal);
+        dictionary.put("dog", getTag("#animal", 17));
+
+        // tags are identified by names, the dictionary keeps only its own copies of them
+        byte[] cat = "cat".getBytes(StandardCharsets.UTF_8);
+        byte[] dog = "dog".getBytes(StandardCharsets.UTF_8);
+        assertEquals(dictionary.findTagId(cat, 0, cat.length), dictionary.findTagId(dog, 0, dog.length));
+        assertNotSame(animal, dictionary.get("cat"));
+    }
+
+    @Test
+    public void grow() {
+        OffHeapAliasDictionary dictionary = new OffHeapAliasDictionary();
+        Tag[] tags = {getTag("#even", 10), getTag("#odd", 20)};
+        for (int i = 0; i < 100_000; i++) {
+            dictionary.put("alias_" + i, tags[i % 2]);
+        }
+
+        assertEquals(100_000, dictionary.size());
+        for (int i = 0; i < 100_000; i++) {
+            assertEquals(tags[i % 2].getName(), dictionary.get("alias_" + i).getName());
+        }
+        assertNull(dictionary.get("alias_100000"));
+    }
+
+    private Tag getTag(String name, int priority) {
+        Tag tag = new Tag();
+        tag.setName(name);
+        tag.setPriority((byte) priority);
+        return tag;
+    }
+}
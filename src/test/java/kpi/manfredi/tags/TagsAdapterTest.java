@@ -0,0 +1,47 @@
+package kpi.manfredi.tags;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableSet;
+import kpi.manfredi.tags.tree.Category;
+import kpi.manfredi.tags.tree.TagsTree;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TagsAdapterTest {
+
+    @Test
+    public void remapCheckedValues() {
+        TagsTree tagsTree = getTagsTree("Animals", "#cat", "#dog");
+        Category animals = tagsTree.getCategory().get(0);
+        ObservableSet<Object> checkedValues = FXCollections.observableSet(new LinkedHashSet<>());
+        checkedValues.addAll(List.of(animals, "#cat", "#dog"));
+
+        // the checked category is replaced with the reloaded one, the removed tag is unchecked
+        TagsTree reloadedTree = getTagsTree("Animals", "#cat", "#bird");
+        Category reloadedAnimals = reloadedTree.getCategory().get(0);
+        TagsAdapter.remapCheckedValues(reloadedTree, checkedValues);
+        assertEquals(2, checkedValues.size());
+        assertTrue(checkedValues.contains("#cat"));
+        assertTrue(checkedValues.stream().anyMatch(value -> value == reloadedAnimals));
+        assertTrue(checkedValues.stream().noneMatch(value -> value == animals));
+
+        // categories that are absent in the tree are unchecked
+        TagsAdapter.remapCheckedValues(getTagsTree("Birds", "#cat"), checkedValues);
+        assertEquals(List.of("#cat"), List.copyOf(checkedValues));
+    }
+
+    private TagsTree getTagsTree(String name, String... tags) {
+        Category category = new Category();
+        category.setName(name);
+        category.getTag().addAll(Arrays.asList(tags));
+
+        TagsTree tagsTree = new TagsTree();
+        tagsTree.getCategory().add(category);
+        return tagsTree;
+    }
+}
@@ -0,0 +1,63 @@
+package kpi.manfredi.tags;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class TagsFilterIndexTest {
+    private static final File CAT = new File("#animal #Cat.jpg");
+    private static final File CAT_FOOD = new File("#animal #cat #food 001.png");
+    private static final File APPLE = new File("#food #fruit.jpg");
+    private static final File UNTAGGED = new File("photo.jpg");
+    private static final List<File> FILES = List.of(CAT, CAT_FOOD, APPLE, UNTAGGED);
+
+    @Test
+    public void filter() {
+        TagsFilterIndex index = new TagsFilterIndex();
+        FILES.forEach(index::add);
+
+        assertEquals(List.of(CAT, CAT_FOOD), filter(index, "#animal"));
+        assertEquals(List.of(CAT), filter(index, "#animal -#food"));
+        assertEquals(List.of(CAT), filter(index, "#ANIMAL !#food"));
+        assertEquals(List.of(CAT_FOOD), filter(index, "#cat #food"));
+        assertEquals(List.of(CAT, CAT_FOOD, APPLE), filter(index, "#cat | #fruit"));
+        assertEquals(List.of(APPLE, UNTAGGED), filter(index, "-(#cat | #unknown)"));
+        assertEquals(List.of(), filter(index, "#unknown"));
+        assertEquals(2, index.count("#cat"));
+    }
+
+    @Test
+    public void filterFollowsChanges() {
+        TagsFilterIndex index = new TagsFilterIndex();
+        FILES.forEach(index::add);
+        Predicate<File> filter = index.filter("#food");
+        assertTrue(filter.test(APPLE));
+
+        File renamed = new File("#fruit.jpg");
+        index.rename(APPLE, renamed);
+        index.remove(CAT_FOOD);
+        File added = new File("#food.jpg");
+        index.add(added);
+
+        assertFalse(filter.test(APPLE));
+        assertFalse(filter.test(renamed));
+        assertFalse(filter.test(CAT_FOOD));
+        assertTrue(filter.test(added));
+        assertEquals(4, index.size());
+        assertEquals(1, index.count("#cat"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidQuery() {
+        new TagsFilterIndex().filter("(#cat | ");
+    }
+
+    private static List<File> filter(TagsFilterIndex index, String query) {
+        return FILES.stream().filter(index.filter(query)).collect(Collectors.toList());
+    }
+}
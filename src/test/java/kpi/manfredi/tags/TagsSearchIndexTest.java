@@ -0,0 +1,59 @@
+package kpi.manfredi.tags;
+
+import kpi.manfredi.tags.tree.Category;
+import kpi.manfredi.tags.tree.TagsTree;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class TagsSearchIndexTest {
+
+    @Test
+    public void search() {
+        TagsSearchIndex index = TagsSearchIndex.build(getTagsTree("#cat", "#animal_ears", "#bobcat"));
+
+        assertEquals(List.of("#cat"), search(index, "#cat"));
+        assertEquals(Set.of("#cat", "#bobcat"), new HashSet<>(search(index, "CAT")));
+
+        // prefix matches go first
+        assertEquals(List.of("Animals", "#animal_ears"), search(index, "anim"));
+        assertEquals(List.of(), search(index, "dog"));
+        assertEquals(List.of(), search(index, " "));
+    }
+
+    @Test
+    public void update() {
+        TagsSearchIndex index = TagsSearchIndex.build(getTagsTree("#cat", "#dog"));
+        TagsSearchIndex updatedIndex = index.update(getTagsTree("#cat", "#bird", "#catfish"));
+
+        assertEquals(4, updatedIndex.size());
+        assertEquals(List.of("#cat", "#catfish"), search(updatedIndex, "#cat"));
+        assertEquals(List.of("#bird"), search(updatedIndex, "ird"));
+        assertEquals(List.of(), search(updatedIndex, "dog"));
+
+        // the previous index is not changed
+        assertEquals(List.of("#dog"), search(index, "dog"));
+    }
+
+    private List<String> search(TagsSearchIndex index, String query) {
+        return index.search(query, 10, Long.MAX_VALUE / 2).stream()
+                .map(entry -> entry.getValue().toString())
+                .collect(Collectors.toList());
+    }
+
+    private TagsTree getTagsTree(String... tags) {
+        Category category = new Category();
+        category.setName("Animals");
+        category.getTag().addAll(Arrays.asList(tags));
+
+        TagsTree tagsTree = new TagsTree();
+        tagsTree.getCategory().add(category);
+        return tagsTree;
+    }
+}
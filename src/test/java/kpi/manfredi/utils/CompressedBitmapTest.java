@@ -0,0 +1,78 @@
+package kpi.manfredi.utils;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CompressedBitmapTest {
+
+    @Test
+    public void operations() {
+        Random random = new Random(42);
+        // sparse and dense chunks of different sizes
+        int[][] shapes = {{200_000, 50}, {200_000, 30_000}, {70_000, 60_000}, {5_000, 4_097}};
+        for (int[] first : shapes) {
+            for (int[] second : shapes) {
+                BitSet expectedFirst = new BitSet();
+                BitSet expectedSecond = new BitSet();
+                CompressedBitmap bitmapFirst = fill(random, first[0], first[1], expectedFirst);
+                CompressedBitmap bitmapSecond = fill(random, second[0], second[1], expectedSecond);
+
+                BitSet and = (BitSet) expectedFirst.clone();
+                and.and(expectedSecond);
+                assertBitmap(and, bitmapFirst.and(bitmapSecond));
+
+                BitSet or = (BitSet) expectedFirst.clone();
+                or.or(expectedSecond);
+                assertBitmap(or, bitmapFirst.or(bitmapSecond));
+
+                BitSet andNot = (BitSet) expectedFirst.clone();
+                andNot.andNot(expectedSecond);
+                assertBitmap(andNot, bitmapFirst.andNot(bitmapSecond));
+
+                // operands are not changed
+                assertBitmap(expectedFirst, bitmapFirst);
+                assertBitmap(expectedSecond, bitmapSecond);
+            }
+        }
+    }
+
+    @Test
+    public void remove() {
+        Random random = new Random(7);
+        BitSet expected = new BitSet();
+        CompressedBitmap bitmap = fill(random, 100_000, 20_000, expected);
+        for (int i = expected.nextSetBit(0); i >= 0; i = expected.nextSetBit(i + 1)) {
+            if (random.nextInt(10) != 0) {
+                bitmap.remove(i);
+                expected.clear(i);
+            }
+        }
+        bitmap.remove(1_000_000); // not contained
+        assertBitmap(expected, bitmap);
+        assertFalse(bitmap.contains(-1));
+    }
+
+    private static CompressedBitmap fill(Random random, int range, int count, BitSet expected) {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        for (int i = 0; i < count; i++) {
+            int value = random.nextInt(range);
+            bitmap.add(value);
+            expected.set(value);
+        }
+        return bitmap;
+    }
+
+    private static void assertBitmap(BitSet expected, CompressedBitmap bitmap) {
+        assertEquals(expected.cardinality(), bitmap.getCardinality());
+        BitSet actual = new BitSet();
+        bitmap.forEach(actual::set);
+        assertEquals(expected, actual);
+        for (int i = expected.nextSetBit(0); i >= 0; i = expected.nextSetBit(i + 1)) {
+            assertTrue(bitmap.contains(i));
+        }
+    }
+}
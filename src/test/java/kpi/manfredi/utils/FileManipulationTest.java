@@ -0,0 +1,103 @@
+package kpi.manfredi.utils;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class FileManipulationTest {
+
+    @Test
+    public void deleteFiles() throws IOException {
+        Path dir = Files.createTempDirectory("delete");
+        List<File> files = createFiles(dir, 20);
+        files.add(dir.resolve("missing.jpg").toFile());
+
+        List<Integer> progress = new ArrayList<>();
+        List<File> notDeleted = FileManipulation.deleteFiles(files, processed -> {
+            synchronized (progress) {
+                progress.add(processed);
+            }
+        });
+
+        assertTrue(notDeleted.isEmpty());
+        assertEquals(0, Files.list(dir).count());
+        assertEquals(files.size(), progress.size());
+    }
+
+    @Test
+    public void moveToTrash() throws IOException {
+        Path dir = Files.createTempDirectory("trash");
+        Path trashDir = dir.resolve("trash");
+        List<File> files = createFiles(Files.createDirectory(dir.resolve("first")), 10);
+        files.addAll(createFiles(Files.createDirectory(dir.resolve("second")), 5));
+
+        List<File> notMoved = FileManipulation.moveToTrash(files, trashDir, ProgressListener.NONE);
+
+        assertTrue(notMoved.isEmpty());
+        assertEquals(0, Files.list(dir.resolve("first")).count());
+        assertEquals(0, Files.list(dir.resolve("second")).count());
+        List<Path> batches = Files.list(trashDir).collect(Collectors.toList());
+        assertEquals(1, batches.size());
+        List<String> trashedNames = Files.walk(batches.get(0))
+                .filter(path -> path.getFileName().toString().endsWith(".jpg"))
+                .map(path -> path.getFileName().toString())
+                .collect(Collectors.toList());
+        assertEquals(files.size(), trashedNames.size());
+        assertEquals(2, Files.list(batches.get(0)).count());
+    }
+
+    @Test
+    public void moveToTrashCancelled() throws IOException {
+        Path dir = Files.createTempDirectory("trash");
+        List<File> files = createFiles(dir, 3);
+
+        List<File> notMoved = FileManipulation.moveToTrash(files, dir.resolve("trash"), new ProgressListener() {
+            @Override
+            public void update(int processed) {
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return true;
+            }
+        });
+
+        assertEquals(files, notMoved);
+        assertTrue(files.stream().allMatch(File::exists));
+        assertEquals(files.size(), Files.list(dir).count());
+    }
+
+    @Test
+    public void listFiles() throws IOException {
+        Path dir = Files.createTempDirectory("import");
+        List<File> topFiles = createFiles(dir, 3);
+        List<File> nestedFiles = createFiles(Files.createDirectories(dir.resolve("nested").resolve("deeper")), 2);
+        createFiles(Files.createDirectory(dir.resolve(".hidden")), 2);
+        File single = Files.createFile(Files.createTempDirectory("single").resolve("single.jpg")).toFile();
+
+        List<File> flat = FileManipulation.listFiles(List.of(dir.toFile(), single), false, ProgressListener.NONE);
+        assertEquals(topFiles.size() + 1, flat.size());
+        assertTrue(flat.containsAll(topFiles));
+        assertTrue(flat.contains(single));
+
+        List<File> recursive = FileManipulation.listFiles(List.of(dir.toFile()), true, ProgressListener.NONE);
+        assertEquals(topFiles.size() + nestedFiles.size(), recursive.size());
+        assertTrue(recursive.containsAll(nestedFiles));
+    }
+
+    private static List<File> createFiles(Path dir, int count) throws IOException {
+        List<File> files = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            files.add(Files.createFile(dir.resolve("image " + i + ".jpg")).toFile());
+        }
+        return files;
+    }
+}
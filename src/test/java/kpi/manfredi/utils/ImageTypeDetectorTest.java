@@ -0,0 +1,48 @@
+package kpi.manfredi.utils;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class ImageTypeDetectorTest {
+
+    @Test
+    public void detectHeader() {
+        assertEquals(ImageType.PNG, detect(0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 0, 0, 0, 0x0D));
+        assertEquals(ImageType.JPEG, detect(0xFF, 0xD8, 0xFF, 0xE0));
+        assertEquals(ImageType.GIF, detect('G', 'I', 'F', '8', '9', 'a'));
+        assertEquals(ImageType.WEBP, detect('R', 'I', 'F', 'F', 1, 2, 3, 4, 'W', 'E', 'B', 'P'));
+        assertEquals(ImageType.TIFF, detect('I', 'I', 0x2A, 0x00));
+        assertEquals(ImageType.HEIF, detect(0, 0, 0, 0x18, 'f', 't', 'y', 'p', 'h', 'e', 'i', 'c'));
+        assertEquals(ImageType.BMP, detect('B', 'M', 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0));
+
+        // not an image or too short header
+        assertNull(detect('R', 'I', 'F', 'F', 1, 2, 3, 4, 'W', 'A', 'V', 'E'));
+        assertNull(detect(0xFF, 0xD8));
+        assertNull(detect());
+    }
+
+    @Test
+    public void detectFile() throws IOException {
+        File file = File.createTempFile("image", ".jpg");
+        file.deleteOnExit();
+
+        Files.write(file.toPath(), new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xDB, 0, 0x43});
+        assertEquals(ImageType.JPEG, ImageTypeDetector.detect(file));
+
+        Files.write(file.toPath(), "plain text".getBytes());
+        assertNull(ImageTypeDetector.detect(file));
+    }
+
+    private ImageType detect(int... bytes) {
+        ByteBuffer header = ByteBuffer.allocate(bytes.length);
+        for (int b : bytes) header.put((byte) b);
+        header.flip();
+        return ImageTypeDetector.detect(header);
+    }
+}
@@ -0,0 +1,41 @@
+package kpi.manfredi.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(50));
+
+        for (int value = 1; value <= 1000; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(500.5, histogram.getMean(), 1e-9);
+        assertEquals(1, histogram.getPercentile(0.1));
+        assertWithinBucket(500, histogram.getPercentile(50));
+        assertWithinBucket(990, histogram.getPercentile(99));
+        assertEquals(1000, histogram.getPercentile(100));
+    }
+
+    @Test
+    public void largeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(0, histogram.getPercentile(50));
+        assertEquals(Long.MAX_VALUE, histogram.getPercentile(100));
+    }
+
+    private static void assertWithinBucket(long expected, long actual) {
+        assertTrue(actual + " is less than " + expected, actual >= expected);
+        assertTrue(actual + " is too far from " + expected, actual <= expected + expected / 8);
+    }
+}
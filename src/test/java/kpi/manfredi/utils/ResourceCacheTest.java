@@ -0,0 +1,44 @@
+package kpi.manfredi.utils;
+
+import org.junit.Test;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.Source;
+import javax.xml.validation.SchemaFactory;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import static org.junit.Assert.*;
+
+public class ResourceCacheTest {
+
+    @Test
+    public void getBytes() throws IOException {
+        byte[] expected;
+        try (InputStream input = ResourceCacheTest.class.getResourceAsStream("/help.txt")) {
+            expected = input.readAllBytes();
+        }
+        byte[] bytes = ResourceCache.getBytes("/help.txt");
+        assertArrayEquals(expected, bytes);
+
+        // cached content can not be changed through the returned copy
+        bytes[0]++;
+        assertArrayEquals(expected, ResourceCache.getBytes("/help.txt"));
+        try (InputStream input = ResourceCache.getStream("/help.txt")) {
+            assertArrayEquals(expected, input.readAllBytes());
+        }
+    }
+
+    @Test
+    public void getSource() throws Exception {
+        Source source = ResourceCache.getSource("/tags/tagsMap.xsd");
+        assertNotNull(source.getSystemId());
+        assertNotNull(SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI).newSchema(source));
+    }
+
+    @Test(expected = FileNotFoundException.class)
+    public void getMissingResource() throws FileNotFoundException {
+        ResourceCache.getStream("/this/resource/does/not/exist.txt");
+    }
+}
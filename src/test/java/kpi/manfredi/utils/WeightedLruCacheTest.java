@@ -0,0 +1,31 @@
+package kpi.manfredi.utils;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class WeightedLruCacheTest {
+
+    @Test
+    public void eviction() {
+        WeightedLruCache<String, byte[]> cache = new WeightedLruCache<>(10, value -> value.length);
+        cache.put("a", new byte[4]);
+        cache.put("b", new byte[4]);
+        assertNotNull(cache.get("a")); // "b" becomes the least recently used value
+
+        cache.put("c", new byte[4]);
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertEquals(8, cache.getWeight());
+
+        // replaced value is not counted twice
+        cache.put("c", new byte[2]);
+        assertEquals(6, cache.getWeight());
+
+        // value heavier than the limit is not kept
+        cache.put("d", new byte[11]);
+        assertNull(cache.get("d"));
+        assertEquals(2, cache.size());
+    }
+}